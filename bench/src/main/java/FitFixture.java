@@ -0,0 +1,37 @@
+import java.util.Map;
+
+import bench.Fixture;
+
+/**
+ * <p>Подгонка двух прямых и вычисление Tg при заданных участках ({@link TgFit#of})</p>
+ * <p>Ширина каждого участка задается долей диапазона температуры. Граничные линии сдвигаются
+ * при каждом выполнении, как при буксировке. Способ подгонки - параметр <code>estimator</code>.</p>
+ */
+class FitFixture implements Fixture {
+
+	FitStatistics statistics;
+	RobustFit fitter;
+	double[] refX = new double[4];
+	double min_t, max_t, width, shift;
+	int step;
+
+	@Override
+	public void setUp(Map<String, String> params) {
+		statistics = SyntheticData.statistics(Integer.parseInt(params.get("points")), 0);
+		min_t = statistics.x.get(statistics.from);
+		max_t = statistics.x.get(statistics.to-1);
+		width = Double.parseDouble(params.get("window"))*(max_t - min_t);
+		shift = (max_t - min_t)*1e-3;
+		fitter = new RobustFit(Estimator.parse(params.get("estimator")));
+	}
+
+	@Override
+	public Object run() {
+		double offset = shift*(step++ & 15);
+		refX[0] = min_t + offset;
+		refX[1] = refX[0] + width;
+		refX[3] = max_t - offset;
+		refX[2] = refX[3] - width;
+		return TgFit.of(statistics, refX, fitter);
+	}
+}
@@ -0,0 +1,80 @@
+import java.nio.DoubleBuffer;
+import java.util.Map;
+
+import bench.Fixture;
+
+/**
+ * <p>Проходы по столбцам при загрузке данных ({@link ColumnKernels}) в сравнении с поэлементными циклами</p>
+ * <p>Операция - параметр <code>operation</code>: <code>range</code> - деление на количество реплик и поиск
+ * диапазонов температуры и объема, <code>add</code> - прибавление реплики к сумме. Параметр <code>kernel</code>:
+ * <code>scalar</code> - поэлементные циклы по фрагментам (деление и поиск диапазонов - отдельными проходами),
+ * <code>fused</code> - {@link ColumnKernels}. Параметр <code>storage</code> - хранение столбцов
+ * (<code>heap</code> или <code>direct</code>).</p>
+ * <p>Делитель чередуется между 2 и 0.5, чтобы значения не менялись от запуска к запуску.</p>
+ */
+class KernelFixture implements Fixture {
+
+	DoubleColumn t, volume, values;
+	boolean add, fused;
+	boolean odd;
+
+	@Override
+	public void setUp(Map<String, String> params) {
+		int points = Integer.parseInt(params.get("points"));
+		boolean heap = "heap".equals(params.get("storage"));
+		add = "add".equals(params.get("operation"));
+		fused = "fused".equals(params.get("kernel"));
+		DataColumns data = SyntheticData.generate(points, 0);
+		t = heap ? new HeapColumn(points) : new ChunkedColumn(points, false);
+		volume = heap ? new HeapColumn(points) : new ChunkedColumn(points, false);
+		values = heap ? new HeapColumn(points) : new ChunkedColumn(points, false);
+		DoubleColumn.copy(data.x, 0, t, 0, points);
+		DoubleColumn.copy(data.y, 0, volume, 0, points);
+		DoubleColumn.copy(data.y, 0, values, 0, points);
+	}
+
+	@Override
+	public Object run() {
+		if(add) {
+			if(fused) {
+				ColumnKernels.add(volume, values);
+			} else {
+				for(int k=0; k<volume.chunkCount(); k++) {
+					int start = volume.chunkStart(k);
+					DoubleBuffer chunk = volume.chunk(k);
+					for(int j=0; j<chunk.limit(); j++) {
+						chunk.put(j, chunk.get(j) + values.get(start + j));
+					}
+				}
+			}
+			return volume;
+		}
+
+		odd = !odd;
+		double divisor = odd ? 2 : 0.5;
+		if(fused)
+			return ColumnKernels.divideAndRange(t, volume, divisor);
+		for(int k=0; k<t.chunkCount(); k++) {
+			DoubleBuffer tc = t.chunk(k), vc = volume.chunk(k);
+			for(int j=0; j<tc.limit(); j++) {
+				tc.put(j, tc.get(j) / divisor);
+				vc.put(j, vc.get(j) / divisor);
+			}
+		}
+		double[] range = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for(int k=0; k<t.chunkCount(); k++) {
+			DoubleBuffer tc = t.chunk(k), vc = volume.chunk(k);
+			for(int j=0; j<tc.limit(); j++) {
+				if(tc.get(j)<range[0])
+					range[0] = tc.get(j);
+				if(tc.get(j)>range[1])
+					range[1] = tc.get(j);
+				if(vc.get(j)<range[2])
+					range[2] = vc.get(j);
+				if(vc.get(j)>range[3])
+					range[3] = vc.get(j);
+			}
+		}
+		return range;
+	}
+}
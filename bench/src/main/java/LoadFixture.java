@@ -0,0 +1,76 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import bench.Fixture;
+
+/**
+ * <p>Чтение файлов реплик</p>
+ * <p>Режимы: <code>parse</code> - разбор каждого файла ({@link DataFileParser#parse}),
+ * <code>load</code> - {@link Approximizer#loadFiles} без кэша (с записью кэша),
+ * <code>cached</code> - {@link Approximizer#loadFiles} с готовым кэшем,
+ * <code>gzip</code> - разбор файлов, сжатых gzip ({@link CompressedInput}; счетчик - в байтах текста).</p>
+ */
+class LoadFixture implements Fixture {
+
+	File dir;
+	File[] files;
+	String mode;
+	long bytes;
+	Approximizer app;
+
+	@Override
+	public void setUp(Map<String, String> params) throws Exception {
+		dir = Files.createTempDirectory("approximizer-load").toFile();
+		files = SyntheticData.writeReplicas(dir, Integer.parseInt(params.get("points")), Integer.parseInt(params.get("replicas")));
+		for(File file : files) {
+			bytes += file.length();
+		}
+		mode = params.get("mode");
+		if(mode.equals("gzip")) {
+			for(int i=0; i<files.length; i++) {
+				File compressed = new File(files[i].getPath() + ".gz");
+				try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed.toPath()), 1 << 16)) {
+					Files.copy(files[i].toPath(), out);
+				}
+				files[i].delete();
+				files[i] = compressed;
+			}
+		}
+		app = SyntheticData.application(800, 600);
+		if(mode.equals("cached"))
+			app.loadFiles(files);
+	}
+
+	@Override
+	public void prepare() {
+		if(mode.equals("load"))
+			SyntheticData.clearCache(files);
+	}
+
+	@Override
+	public Object run() throws Exception {
+		if(mode.equals("parse") || mode.equals("gzip")) {
+			int processors = Runtime.getRuntime().availableProcessors();
+			long points = 0;
+			for(File file : files) {
+				points += DataFileParser.parse(file, processors).size;
+			}
+			return points;
+		}
+		app.loadFiles(files);
+		return app.statistics;
+	}
+
+	@Override
+	public long bytes() {
+		return bytes;
+	}
+
+	@Override
+	public void tearDown() {
+		SyntheticData.delete(dir);
+	}
+}
@@ -0,0 +1,54 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import bench.Fixture;
+
+/**
+ * <p>Отрисовка кадра в режиме наложения серий ({@link Approximizer#loadOverlay})</p>
+ * <p>Каждый кадр сдвигает граничную линию, поэтому включает пакетную подгонку всех серий и
+ * обновление таблицы Tg. Слой <code>full</code> дополнительно строит заново огибающие всех серий.</p>
+ */
+class OverlayFixture implements Fixture {
+
+	File dir;
+	Approximizer app;
+	BufferedImage image;
+	boolean full;
+	double[] refX;
+	int step;
+
+	@Override
+	public void setUp(Map<String, String> params) throws Exception {
+		dir = Files.createTempDirectory("approximizer-overlay").toFile();
+		File[] files = SyntheticData.writeReplicas(dir, Integer.parseInt(params.get("points")),
+				Integer.parseInt(params.get("series")));
+		int width = 1200;
+		int height = width*3/4;
+		app = SyntheticData.application(width, height);
+		app.loadOverlay(files);
+		refX = app.refX.clone();
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		full = params.get("layer").equals("full");
+	}
+
+	@Override
+	public Object run() {
+		if(full) {
+			app.overlay.invalidate();
+			app.staticLayer = null;
+		}
+		app.refX[1] = refX[1] + (refX[2] - refX[1])*0.01*(step++ & 15);
+		Graphics2D g = image.createGraphics();
+		app.paintComponent(g);
+		g.dispose();
+		return image;
+	}
+
+	@Override
+	public void tearDown() {
+		SyntheticData.delete(dir);
+	}
+}
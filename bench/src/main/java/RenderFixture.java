@@ -0,0 +1,53 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import bench.Fixture;
+
+/**
+ * <p>Отрисовка кадра {@link Approximizer#paintComponent} во внеэкранное изображение</p>
+ * <p>Слои: <code>full</code> - кадр после загрузки данных или изменения размера (огибающая данных
+ * и изображение фона строятся заново), <code>overlay</code> - кадр при буксировке граничной линии.</p>
+ */
+class RenderFixture implements Fixture {
+
+	File dir;
+	Approximizer app;
+	BufferedImage image;
+	boolean full;
+	double[] refX;
+	int step;
+
+	@Override
+	public void setUp(Map<String, String> params) throws Exception {
+		dir = Files.createTempDirectory("approximizer-render").toFile();
+		File[] files = SyntheticData.writeReplicas(dir, Integer.parseInt(params.get("points")), 1);
+		int width = Integer.parseInt(params.get("width"));
+		int height = width*3/4;
+		app = SyntheticData.application(width, height);
+		app.loadFiles(files);
+		refX = app.refX.clone();
+		image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		full = params.get("layer").equals("full");
+	}
+
+	@Override
+	public Object run() {
+		if(full) {
+			app.decimator = null;
+			app.staticLayer = null;
+		}
+		app.refX[1] = refX[1] + (refX[2] - refX[1])*0.01*(step++ & 15);
+		Graphics2D g = image.createGraphics();
+		app.paintComponent(g);
+		g.dispose();
+		return image;
+	}
+
+	@Override
+	public void tearDown() {
+		SyntheticData.delete(dir);
+	}
+}
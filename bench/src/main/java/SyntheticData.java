@@ -0,0 +1,121 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JTable;
+import javax.swing.JToggleButton;
+
+/**
+ * <p>Синтетические зависимости объема от температуры для тестов производительности</p>
+ * <p>Данные моделируют охлаждение: температура убывает от <code>T_MAX</code> до <code>T_MIN</code>, объем
+ * складывается из двух прямых с изломом в точке <code>TG</code> и нормального шума.</p>
+ */
+class SyntheticData {
+
+	static final double T_MIN = 100, T_MAX = 700; // диапазон температуры
+	static final double TG = 400; // температура стеклования
+	static final double V_TG = 1.0; // объем при Tg
+	static final double SLOPE_GLASS = 2e-5, SLOPE_MELT = 6e-5; // наклоны ниже и выше Tg
+	static final double NOISE = 5e-4; // стандартное отклонение шума объема
+
+	/**
+	 * Создает одну реплику данных
+	 *
+	 * @param points количество точек
+	 * @param seed начальное значение генератора шума
+	 * @return столбцы температуры и объема в порядке охлаждения
+	 */
+	static DataColumns generate(int points, long seed) {
+		Random random = new Random(seed);
+		DataColumns data = new DataColumns(points);
+		for(int j=0; j<points; j++) {
+			double t = T_MAX - (T_MAX - T_MIN)*j/Math.max(1, points - 1);
+			double v = V_TG + (t < TG ? SLOPE_GLASS : SLOPE_MELT)*(t - TG);
+			data.add(t, v + NOISE*random.nextGaussian());
+		}
+		return data;
+	}
+
+	/**
+	 * Создает отсортированные по температуре данные и префиксные суммы
+	 *
+	 * @param points количество точек
+	 * @param seed начальное значение генератора шума
+	 * @return статистики подгонки
+	 */
+	static FitStatistics statistics(int points, long seed) {
+		DataColumns data = generate(points, seed);
+		data.trim();
+		FitStatistics.sortByX(data.x, data.y);
+		return new FitStatistics(data.x, data.y);
+	}
+
+	/**
+	 * Записывает реплики данных в текстовые файлы
+	 *
+	 * @param dir каталог для файлов
+	 * @param points количество точек в каждом файле
+	 * @param replicas количество файлов
+	 * @return записанные файлы
+	 */
+	static File[] writeReplicas(File dir, int points, int replicas) throws IOException {
+		File[] files = new File[replicas];
+		for(int i=0; i<replicas; i++) {
+			files[i] = new File(dir, String.format("replica_%d.dat", i));
+			DataColumns data = generate(points, i);
+			try(BufferedWriter writer = Files.newBufferedWriter(files[i].toPath(), StandardCharsets.US_ASCII)) {
+				writer.write("# T V\n");
+				for(int j=0; j<data.size; j++) {
+					writer.write(Double.toString(data.x.get(j)));
+					writer.write(' ');
+					writer.write(Double.toString(data.y.get(j)));
+					writer.write('\n');
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Создает приложение без окна
+	 *
+	 * @param width ширина холста
+	 * @param height высота холста
+	 * @return приложение
+	 */
+	static Approximizer application(int width, int height) {
+		Approximizer app = new Approximizer(null, new JButton(), new JButton(), new JButton(), new JToggleButton(),
+				new JToggleButton(), new JToggleButton(), new JComboBox<>(Estimator.values()),
+				new JComboBox<>(TransitionModel.values()), new JLabel(), new JTable());
+		app.setSize(width, height);
+		return app;
+	}
+
+	/**
+	 * Удаляет каталог с файлами данных и их кэшем
+	 */
+	static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Удаляет двоичный кэш файлов данных
+	 */
+	static void clearCache(File[] files) {
+		for(File file : files) {
+			DataCache.sidecarOf(file).delete();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Map;
+
+import bench.Fixture;
+
+/**
+ * <p>Вычисление Tg по файлу от начала до конца: разбор, сортировка, префиксные суммы,
+ * выбор участков и подгонка ({@link BatchRunner#analyse})</p>
+ */
+class TgFixture implements Fixture {
+
+	File dir;
+	File file;
+	BatchRunner runner = new BatchRunner();
+
+	@Override
+	public void setUp(Map<String, String> params) throws Exception {
+		dir = Files.createTempDirectory("approximizer-tg").toFile();
+		file = SyntheticData.writeReplicas(dir, Integer.parseInt(params.get("points")), 1)[0];
+		runner.auto = Boolean.parseBoolean(params.get("auto"));
+	}
+
+	@Override
+	public Object run() throws Exception {
+		BatchRunner.Result result = runner.analyse(file);
+		if(result.error != null)
+			throw new IllegalStateException(result.error);
+		return result.fit;
+	}
+
+	@Override
+	public long bytes() {
+		return file.length();
+	}
+
+	@Override
+	public void tearDown() {
+		SyntheticData.delete(dir);
+	}
+}
@@ -0,0 +1,25 @@
+import java.util.Map;
+
+import bench.Fixture;
+
+/**
+ * <p>Подгонка плавной модели перехода ко всем точкам ({@link TransitionFit#fit})</p>
+ * <p>Модель - параметр <code>model</code>. Подгонка выполняется целиком, как после каждой загрузки данных:
+ * перебор начальных приближений на выборке и уточнение по всем точкам.</p>
+ */
+class TransitionFixture implements Fixture {
+
+	FitStatistics statistics;
+	TransitionModel model;
+
+	@Override
+	public void setUp(Map<String, String> params) {
+		statistics = SyntheticData.statistics(Integer.parseInt(params.get("points")), 0);
+		model = TransitionModel.parse(params.get("model"));
+	}
+
+	@Override
+	public Object run() {
+		return TransitionFit.fit(statistics, model);
+	}
+}
@@ -0,0 +1,49 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Задержка подгонки двух прямых и вычисления Tg в зависимости от ширины участков и способа подгонки
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FitBenchmark {
+
+	@Param({"100000", "10000000"})
+	public int points;
+
+	@Param({"0.01", "0.1", "0.4"})
+	public double window;
+
+	@Param({"ols", "theil-sen", "huber"})
+	public String estimator;
+
+	Fixture fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		fixture = Fixture.create("FitFixture", "points", points, "window", window, "estimator", estimator);
+	}
+
+	@Benchmark
+	public Object fit() throws Exception {
+		return fixture.run();
+	}
+}
@@ -0,0 +1,77 @@
+package bench;
+
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Подготовленная нагрузка для измерения</p>
+ * <p>Классы приложения находятся в пакете по умолчанию, а JMH не допускает тестов в пакете по умолчанию.
+ * Поэтому нагрузка реализуется классами пакета по умолчанию (им доступны классы приложения),
+ * а тесты JMH создают их по имени и вызывают через этот интерфейс.</p>
+ */
+public interface Fixture {
+
+	/**
+	 * Готовит данные для измерения
+	 *
+	 * @param params параметры теста JMH
+	 */
+	void setUp(Map<String, String> params) throws Exception;
+
+	/**
+	 * Готовит одно выполнение (вне измерения)
+	 */
+	default void prepare() throws Exception {
+	}
+
+	/**
+	 * Измеряемое действие
+	 *
+	 * @return результат, который нужно передать в Blackhole
+	 */
+	Object run() throws Exception;
+
+	/**
+	 * @return количество байтов данных, обрабатываемых одним выполнением
+	 */
+	default long bytes() {
+		return 0;
+	}
+
+	/**
+	 * Освобождает ресурсы (удаляет временные файлы)
+	 */
+	default void tearDown() throws Exception {
+	}
+
+	/**
+	 * Создает нагрузку по имени класса пакета по умолчанию и готовит ее
+	 *
+	 * @param name имя класса
+	 * @param params пары "имя параметра, значение"
+	 * @return подготовленная нагрузка
+	 */
+	static Fixture create(String name, Object... params) throws Exception {
+		Map<String, String> map = new HashMap<>();
+		for(int i=0; i<params.length; i+=2) {
+			map.put(params[i].toString(), params[i+1].toString());
+		}
+		return create(name, map);
+	}
+
+	/**
+	 * Создает нагрузку по имени класса пакета по умолчанию и готовит ее
+	 *
+	 * @param name имя класса
+	 * @param params параметры теста JMH
+	 * @return подготовленная нагрузка
+	 */
+	static Fixture create(String name, Map<String, String> params) throws Exception {
+		Constructor<?> constructor = Class.forName(name).getDeclaredConstructor();
+		constructor.setAccessible(true);
+		Fixture fixture = (Fixture)constructor.newInstance();
+		fixture.setUp(params);
+		return fixture;
+	}
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Время проходов по столбцам при загрузке (деление с поиском диапазонов, сложение реплик):
+ * поэлементные циклы и циклы {@code ColumnKernels} по массивам
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class KernelBenchmark {
+
+	@Param({"100000", "1000000", "10000000"})
+	public int points;
+
+	@Param({"range", "add"})
+	public String operation;
+
+	@Param({"scalar", "fused"})
+	public String kernel;
+
+	@Param({"heap", "direct"})
+	public String storage;
+
+	Fixture fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		fixture = Fixture.create("KernelFixture", "points", points, "operation", operation,
+				"kernel", kernel, "storage", storage);
+	}
+
+	@Benchmark
+	public Object pass() throws Exception {
+		return fixture.run();
+	}
+}
@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Пропускная способность чтения файлов реплик (МБ/с в счетчике <code>megabytes</code>)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LoadBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int points;
+
+	@Param({"1", "4"})
+	public int replicas;
+
+	@Param({"parse", "load", "cached", "gzip"})
+	public String mode;
+
+	Fixture fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		fixture = Fixture.create("LoadFixture", "points", points, "replicas", replicas, "mode", mode);
+	}
+
+	@Setup(Level.Invocation)
+	public void prepare() throws Exception {
+		fixture.prepare();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.tearDown();
+	}
+
+	@Benchmark
+	public Object load(Megabytes counter) throws Exception {
+		Object result = fixture.run();
+		counter.add(fixture.bytes());
+		return result;
+	}
+}
@@ -0,0 +1,26 @@
+package bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Дополнительный счетчик JMH: объем обработанных данных. В режиме Throughput выводится в МБ/с
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Megabytes {
+
+	public double megabytes;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		megabytes = 0;
+	}
+
+	void add(long bytes) {
+		megabytes += bytes/1e6;
+	}
+}
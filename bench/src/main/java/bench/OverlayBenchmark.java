@@ -0,0 +1,56 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Время отрисовки кадра в режиме наложения серий без окна: при росте количества серий
+ * время кадра при буксировке должно оставаться почти постоянным
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OverlayBenchmark {
+
+	@Param({"10", "100", "300"})
+	public int series;
+
+	@Param({"10000"})
+	public int points;
+
+	@Param({"full", "overlay"})
+	public String layer;
+
+	Fixture fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		fixture = Fixture.create("OverlayFixture", "series", series, "points", points, "layer", layer);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.tearDown();
+	}
+
+	@Benchmark
+	public Object frame() throws Exception {
+		return fixture.run();
+	}
+}
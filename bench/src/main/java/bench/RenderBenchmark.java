@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Время отрисовки кадра без окна (во внеэкранное изображение)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RenderBenchmark {
+
+	@Param({"100000", "1000000"})
+	public int points;
+
+	@Param({"800", "1600"})
+	public int width;
+
+	@Param({"full", "overlay"})
+	public String layer;
+
+	Fixture fixture;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		fixture = Fixture.create("RenderFixture", "points", points, "width", width, "layer", layer);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		fixture.tearDown();
+	}
+
+	@Benchmark
+	public Object frame() throws Exception {
+		return fixture.run();
+	}
+}
@@ -3,33 +3,60 @@ import java.awt.Color;
 import java.awt.Container;
 import java.awt.Cursor;
 import java.awt.Dimension;
+import java.awt.DisplayMode;
+import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.awt.font.TextAttribute;
+import java.awt.image.BufferedImage;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
 import java.io.PrintStream;
 import java.text.AttributedString;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.JToggleButton;
+import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
 import javax.swing.filechooser.FileFilter;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.DefaultTableModel;
 
 
 /**
@@ -41,6 +68,15 @@ import javax.swing.filechooser.FileFilter;
  * <ul>
  * <li>Аппроксимация двумя прямыми путем выбора участка аппроксимации для каждой прямой</li>
  * <li>Перемещение участка буксировкой (drag-n-drop) рукой между краями</li>
+ * <li>Автоматический выбор участков подгонки (кнопка "Auto fit")</li>
+ * <li>Доверительный интервал Tg методом бутстрепа (кнопка "Tg CI")</li>
+ * <li>Плавные модели перехода (гипербола, гиперболический тангенс) с Tg в качестве параметра</li>
+ * <li>Пакетный режим без окна для множества файлов (ключ <code>--batch</code>)</li>
+ * <li>Локальный сервис подгонки по HTTP для скриптов (ключ <code>--serve</code>)</li>
+ * <li>Слежение за дописываемыми файлами во время измерения (кнопка "Follow")</li>
+ * <li>Слияние реплик, измеренных при разных температурах, на общую сетку (кнопка "Merge")</li>
+ * <li>Наложение многих наборов данных с таблицей Tg по сериям (кнопка "Overlay")</li>
+ * <li>Счетчики производительности поверх графика (клавиша F3) и события JDK Flight Recorder</li>
  * </ul>
  * 
  * @author Alexander Petrov (E-mail: petrov.aa@phystech.edu, a.petrov@live.ru)
@@ -55,12 +91,37 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 	
 	JFrame window; // Окно приложения
 	JButton openButton; // Кнопка "Open"
+	JButton overlayButton; // Кнопка "Overlay": открыть файлы как отдельные серии
+	JButton autoFitButton; // Кнопка "Auto fit"
+	JToggleButton confidenceButton; // Кнопка "Tg CI": показывать доверительный интервал Tg
+	JToggleButton followButton; // Кнопка "Follow": следить за дописываемыми файлами
+	JToggleButton mergeButton; // Кнопка "Merge": сливать реплики на общую сетку температуры
+	JComboBox<Estimator> estimatorBox; // Список способов подгонки прямых
+	JComboBox<TransitionModel> modelBox; // Список моделей перехода
 	JLabel fileNameLabel; // Поле, отображающее открытые файлы
+	JTable seriesTable; // Таблица Tg по сериям в режиме наложения
 	
 	String settingsFilePath = "Approximizer_settings.ini";
 	File defaultFilePath; // путь для открытия файлов по умолчанию, прочитанный из файлов настроек
+	File[] openedFiles; // файлы, выбранные при последнем открытии (включая исключенные)
 	File[] currentFiles; // массив текущих открытых файлов
-	double[] t, volume; // данные (Температура и Объем: смотри метод loadFiles())
+	long[] currentSizes; // размеры текущих открытых файлов на момент чтения
+	DoubleColumn t, volume; // данные (Температура и Объем: смотри метод loadFiles()), отсортированные по температуре;
+	                    // заняты элементы с индексами [statistics.from, statistics.to)
+	FitStatistics statistics; // префиксные суммы для быстрой подгонки прямых (смотри класс FitStatistics)
+	RobustFit fitter = new RobustFit(Estimator.OLS); // выбранный способ подгонки прямых и его рабочие массивы
+	TransitionModel model = TransitionModel.LINES; // выбранная модель перехода
+	SeriesOverlay overlay; // серии в режиме наложения или null, если открыт один усредненный набор данных
+	PlotDecimator decimator; // огибающая данных для отрисовки, сбрасывается при изменении размера и загрузке данных
+	BufferedImage staticLayer; // изображение фона, осей и данных, сбрасывается вместе с огибающей данных
+	Font labelFont; // шрифт номеров граничных линий
+	static final Color confidenceColor = new Color(0, 0, 255, 40); // цвет полосы доверительного интервала Tg
+	static final Color hudColor = new Color(255, 255, 255, 200); // цвет фона счетчиков производительности
+	Timer repaintTimer; // таймер перерисовки при буксировке: не чаще одного кадра за период обновления экрана
+	boolean showHud = Boolean.getBoolean("approximizer.hud"); // показывать счетчики производительности (клавиша F3)
+	long hudFrameNanos; // время отрисовки предыдущего кадра
+	long hudFits, hudTime; // значение счетчика подгонок и время последнего вычисления частоты подгонок
+	double hudFitsPerSecond; // частота подгонок прямых
 	double max_t, min_t, max_volume, min_volume;
 	int drawingWidth, drawingHeight;
 	int axisWidth = 17;
@@ -70,6 +131,36 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 	int overRefN = -1; // номер выбранной для буксировки граничная линия: 0, 1, 2, 3
 	int overRefPairN = -1; // номер выбранной пары граничных линий для буксировки: 0, 1
 	int x_shift = 0; // смещение точки взятия мыши при буксировке
+	double autoFitTrim = 0.1; // наибольшая доля точек, отбрасываемых с каждого края при автоматическом выборе участков
+	int autoFitSteps = 5; // количество шагов перебора внешних границ при автоматическом выборе участков
+	
+	TgConfidence confidence; // последний вычисленный доверительный интервал Tg
+	double[] confidenceRefX; // положения граничных линий, для которых запущено вычисление интервала
+	AtomicBoolean confidenceCancel; // флаг отмены текущего вычисления интервала
+	ExecutorService confidenceExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Tg confidence");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	TgFit transition; // последняя подгонка плавной модели перехода (null, если точек недостаточно)
+	List<Object> transitionKey; // данные, номер их изменения и модель, для которых получена подгонка transition
+	List<Object> transitionPending; // данные, номер их изменения и модель, для которых запущена подгонка
+	AtomicBoolean transitionCancel; // флаг отмены ожидающей подгонки
+	ExecutorService transitionExecutor = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "Transition fit");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	static final long followPeriod = 500; // период опроса файлов в режиме слежения, мс
+	FileTailer tailer; // чтение дописанных строк в режиме слежения
+	ScheduledFuture<?> followTask; // периодический опрос файлов в режиме слежения
+	ScheduledExecutorService followExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "Follow");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	/**
 	 * <p>Конструктор приложения.</p>
@@ -78,17 +169,59 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 	 * 
 	 * @param window Готовое окно с интерфейсом
 	 * @param openButton Кнопка открытия файла
+	 * @param overlayButton Кнопка открытия файлов как отдельных серий
+	 * @param autoFitButton Кнопка автоматического выбора участков подгонки
+	 * @param confidenceButton Кнопка включения доверительного интервала Tg
+	 * @param followButton Кнопка включения слежения за дописываемыми файлами
+	 * @param mergeButton Кнопка включения слияния реплик на общую сетку температуры
+	 * @param estimatorBox Список способов подгонки прямых
+	 * @param modelBox Список моделей перехода (две прямые или плавные модели)
 	 * @param fileNameLabel Текстовое поле, отображающее открытые файлы
+	 * @param seriesTable Таблица Tg по сериям (показывается в режиме наложения вместе с окружающей ее панелью прокрутки)
 	 */
-	public Approximizer(JFrame window, JButton openButton, JLabel fileNameLabel) {
+	public Approximizer(JFrame window, JButton openButton, JButton overlayButton, JButton autoFitButton,
+			JToggleButton confidenceButton, JToggleButton followButton, JToggleButton mergeButton,
+			JComboBox<Estimator> estimatorBox, JComboBox<TransitionModel> modelBox, JLabel fileNameLabel, JTable seriesTable) {
 		this.window = window;
 		this.openButton = openButton;
+		this.overlayButton = overlayButton;
+		this.autoFitButton = autoFitButton;
+		this.confidenceButton = confidenceButton;
+		this.followButton = followButton;
+		this.mergeButton = mergeButton;
+		this.estimatorBox = estimatorBox;
+		this.modelBox = modelBox;
 		this.fileNameLabel = fileNameLabel;
+		this.seriesTable = seriesTable;
 		
 		currentFiles = null;
 		t = null;
 		volume = null;
 		
+		// События буксировки, приходящие чаще обновления экрана, объединяются в один кадр
+		int refreshRate = DisplayMode.REFRESH_RATE_UNKNOWN;
+		if(!GraphicsEnvironment.isHeadless()) {
+			refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDisplayMode().getRefreshRate();
+		}
+		repaintTimer = new Timer(1000/(refreshRate > 0 ? refreshRate : 60), e -> repaint());
+		repaintTimer.setRepeats(false);
+		repaintTimer.setCoalesce(true);
+		
+		// Выбранные в таблице серии выделяются на графике
+		seriesTable.getSelectionModel().addListSelectionListener(e -> repaint());
+		
+		// Клавиша F3 включает и выключает счетчики производительности
+		getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "hud");
+		getActionMap().put("hud", new AbstractAction() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				showHud = !showHud;
+				repaint();
+			}
+		});
+		
 		try(BufferedReader br = new BufferedReader(new FileReader(settingsFilePath))) {
 			String line;
 			
@@ -111,12 +244,28 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 	}
 
 	/**
-	 * Осуществляет отрисовку интерфейса окна и запускает приложение
+	 * Осуществляет отрисовку интерфейса окна и запускает приложение.
+	 * С ключом <code>--batch</code> запускает пакетный режим без окна, с ключом <code>--serve</code> - локальный сервис
 	 * 
-	 * @param args Параметры командной строки (не используются)
+	 * @param args Параметры командной строки
+	 * @see BatchRunner
+	 * @see FitServer
 	 */
 	public static void main(String[] args) {
 		
+		// Пакетный режим
+		if(args.length > 0 && args[0].equals("--batch")) {
+			System.exit(BatchRunner.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+		
+		// Режим локального сервиса: процесс продолжает работать в потоках HTTP-сервера
+		if(args.length > 0 && args[0].equals("--serve")) {
+			int code = FitServer.run(Arrays.copyOfRange(args, 1, args.length));
+			if(code != 0)
+				System.exit(code);
+			return;
+		}
+		
 		// Создать окно
 		JFrame window = new JFrame(appName);
 		Toolkit toolkit = Toolkit.getDefaultToolkit();
@@ -135,16 +284,58 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 		controls.setBorder(BorderFactory.createEmptyBorder(10,10,10,10));
 		JLabel fileNameLabel = new JLabel("<no data file opened>");
 		controls.add(fileNameLabel, BorderLayout.CENTER);
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+		controls.add(buttons, BorderLayout.EAST);
+		JComboBox<TransitionModel> modelBox = new JComboBox<>(TransitionModel.values());
+		modelBox.setToolTipText("Two lines between the boundaries or a smooth transition fitted to all points");
+		buttons.add(modelBox);
+		JComboBox<Estimator> estimatorBox = new JComboBox<>(Estimator.values());
+		buttons.add(estimatorBox);
+		JToggleButton mergeButton = new JToggleButton("Merge");
+		mergeButton.setToolTipText("Average replicas on a common temperature grid (for files sampled at different temperatures)");
+		buttons.add(mergeButton);
+		JToggleButton followButton = new JToggleButton("Follow");
+		buttons.add(followButton);
+		JToggleButton confidenceButton = new JToggleButton("Tg CI");
+		buttons.add(confidenceButton);
+		JButton autoFitButton = new JButton("Auto fit");
+		buttons.add(autoFitButton);
 		JButton openButton = new JButton("Open");
-		controls.add(openButton, BorderLayout.EAST);
+		buttons.add(openButton);
+		JButton overlayButton = new JButton("Overlay");
+		buttons.add(overlayButton);
+		
+		// Таблица Tg по сериям справа от графика (только в режиме наложения)
+		JTable seriesTable = new JTable();
+		seriesTable.setAutoCreateRowSorter(true);
+		seriesTable.setDefaultRenderer(Double.class, new DefaultTableCellRenderer() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void setValue(Object value) {
+				setHorizontalAlignment(RIGHT);
+				setText(value == null ? "" : String.format(Locale.ENGLISH,"%.4f", (Double)value));
+			}
+		});
+		JScrollPane seriesPane = new JScrollPane(seriesTable);
+		seriesPane.setPreferredSize(new Dimension(320, drawingSize.height));
+		seriesPane.setVisible(false);
+		contentPane.add(seriesPane, BorderLayout.EAST);
 		
 		// Создать экземпляр приложения
-		Approximizer app = new Approximizer(window,openButton, fileNameLabel);
+		Approximizer app = new Approximizer(window, openButton, overlayButton, autoFitButton, confidenceButton,
+				followButton, mergeButton, estimatorBox, modelBox, fileNameLabel, seriesTable);
 		app.setPreferredSize(drawingSize);
 		contentPane.add(app, BorderLayout.CENTER);
 		
 		// Добавить приложение в качестве обработчиков события нажатия на кнопку и события мыши
 		openButton.addActionListener(app);
+		overlayButton.addActionListener(app);
+		autoFitButton.addActionListener(app);
+		confidenceButton.addActionListener(app);
+		followButton.addActionListener(app);
+		mergeButton.addActionListener(app);
+		estimatorBox.addActionListener(app);
+		modelBox.addActionListener(app);
 		app.addMouseMotionListener(app);
 		
 		// Расположить окно по центру
@@ -160,39 +351,6 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 		window.setVisible(true);
 	}
 	
-	/**
-	 * Осуществляет подгонку прямой (<code>y = A*x + B</code>) к данным по выбранному интервалу методом
-	 * наименьших квадратов
-	 * 
-	 * @param x_start Начало интервала
-	 * @param x_finish Конец интервала
-	 * @return массив, содержащий пару параметров A и B
-	 */
-	private double[] fit(double x_start, double x_finish) {
-		
-		double xymean = 0;
-		double xmean = 0;
-		double ymean = 0;
-		double x2mean = 0;
-		int n = 0;
-		
-		for(int i=0; i<t.length; i++) {
-			if(t[i]>x_start && t[i]<x_finish) {
-				xymean += t[i] * volume[i];
-				xmean += t[i];
-				ymean += volume[i];
-				x2mean += t[i]*t[i];
-				n++;
-			}
-		}
-		
-		double[] ab = new double[2];
-		ab[0] = ((double)n*xymean-xmean*ymean)/((double)n*x2mean-xmean*xmean);
-		ab[1] = (ymean-ab[0]*xmean)/(double)n;
-		
-		return ab;
-	}
-	
 	@Override
 	public void paintComponent(Graphics g) {
 		// Метод осуществляет все процедуры рисования на холсте
@@ -200,77 +358,374 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 		// Задать размер рисуемой области в соответствии с текущим размером окна приложения
 		updateDimensions();
 		
+		// Если нет открытых файлов, то только залить фон
+		if(currentFiles == null || drawingWidth <= 0 || drawingHeight <= 0) {
+			g.setColor(Color.white);
+			g.fillRect(0, 0, drawingWidth, drawingHeight);
+			return;
+		}
+		Instrumentation.FrameEvent event = new Instrumentation.FrameEvent();
+		event.begin();
+		long start = System.nanoTime();
+		boolean rebuilt = false;
+		
+		// Неизменяемые при буксировке слои (фон, оси, данные) рисуются один раз во внеэкранное изображение
+		// (в масштабе экрана, чтобы изображение оставалось четким на экранах высокой плотности)
+		double scale = g instanceof Graphics2D ? ((Graphics2D)g).getTransform().getScaleX() : 1;
+		int layerWidth = (int)Math.ceil(drawingWidth*scale);
+		int layerHeight = (int)Math.ceil(drawingHeight*scale);
+		if(staticLayer == null || staticLayer.getWidth() != layerWidth || staticLayer.getHeight() != layerHeight) {
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			staticLayer = gc != null
+					? gc.createCompatibleImage(layerWidth, layerHeight)
+					: new BufferedImage(layerWidth, layerHeight, BufferedImage.TYPE_INT_RGB);
+			Graphics2D sg = staticLayer.createGraphics();
+			sg.scale(scale, scale);
+			paintStaticLayer(sg);
+			sg.dispose();
+			rebuilt = true;
+		}
+		g.drawImage(staticLayer, 0, 0, drawingWidth, drawingHeight, null);
+		
+		if(overlay != null)
+			paintSeriesFits(g);
+		else if(model != TransitionModel.LINES)
+			paintTransition(g);
+		else
+			paintOverlay(g);
+		if(showHud)
+			paintHud(g);
+		
+		hudFrameNanos = System.nanoTime() - start;
+		Instrumentation.frames.increment();
+		Instrumentation.frameNanos.add(hudFrameNanos);
+		if(event.shouldCommit()) {
+			event.width = drawingWidth;
+			event.height = drawingHeight;
+			event.points = points();
+			event.rebuilt = rebuilt;
+			event.commit();
+		}
+	}
+	
+	/**
+	 * Рисует фон, оси и данные
+	 * 
+	 * @param g холст
+	 */
+	private void paintStaticLayer(Graphics g) {
+		
 		// background
 		g.setColor(Color.white);
 		g.fillRect(0, 0, drawingWidth, drawingHeight);
 		
-		// Если есть открыте файлы
-		if(currentFiles != null) {
-			
-			//axis
-			g.setColor(Color.black);
-			g.drawLine(plotXOrig-1, plotYOrig, plotXOrig-1, axisWidth-1);
-			g.drawLine(plotXOrig-1, plotYOrig, drawingWidth-axisWidth, plotYOrig);
-			g.drawLine(drawingWidth-axisWidth, plotYOrig, drawingWidth-axisWidth, axisWidth-1);
-			g.drawLine(plotXOrig-1, axisWidth-1, drawingWidth-axisWidth, axisWidth-1);
-			
-			//data
-			g.setColor(Color.red);
-			for(int i=0, j=1; j<t.length; j++, i++) {
-				g.drawLine(x(t[i]), y(volume[i]), x(t[j]), y(volume[j]));
+		//axis
+		g.setColor(Color.black);
+		g.drawLine(plotXOrig-1, plotYOrig, plotXOrig-1, axisWidth-1);
+		g.drawLine(plotXOrig-1, plotYOrig, drawingWidth-axisWidth, plotYOrig);
+		g.drawLine(drawingWidth-axisWidth, plotYOrig, drawingWidth-axisWidth, axisWidth-1);
+		g.drawLine(plotXOrig-1, axisWidth-1, drawingWidth-axisWidth, axisWidth-1);
+		
+		//data
+		if(overlay != null) {
+			overlay.drawData(g, plotXOrig, plotWidth, plotYOrig, plotHeight);
+			return;
+		}
+		g.setColor(Color.red);
+		if(decimator == null) {
+			decimator = new PlotDecimator(statistics.x, statistics.y, statistics.from, statistics.to,
+					plotXOrig, plotWidth, min_t, max_t,
+					plotYOrig, plotHeight, min_volume, max_volume);
+		}
+		decimator.draw(g);
+	}
+	
+	/**
+	 * Рисует элементы, зависящие от положений граничных линий: прямые, Tg и граничные линии
+	 * 
+	 * @param g холст
+	 */
+	private void paintOverlay(Graphics g) {
+		
+		//Tg confidence interval (only for least squares fits)
+		String ci = "";
+		if(confidenceButton.isSelected() && fitter.estimator == Estimator.OLS) {
+			updateConfidence();
+			if(confidence != null && Arrays.equals(confidence.refX, refX) && !Double.isNaN(confidence.lo)) {
+				g.setColor(confidenceColor);
+				g.fillRect(x(confidence.lo), axisWidth-1, Math.max(1, x(confidence.hi)-x(confidence.lo)), plotHeight+1);
+				ci = String.format(Locale.ENGLISH," [%.4f, %.4f]", confidence.lo, confidence.hi);
 			}
-			
-			//fit lines
-			double[] ab1 = fit(refX[0],refX[1]);
-			double[] ab2 = fit(refX[2],refX[3]);
-			g.setColor(Color.BLUE);
-			g.drawLine(x(min_t), y(min_t*ab1[0]+ab1[1]), x(max_t), y(max_t*ab1[0]+ab1[1]));
-			g.drawLine(x(min_t), y(min_t*ab2[0]+ab2[1]), x(max_t), y(max_t*ab2[0]+ab2[1]));
-			
-			//Tg (glass-transition temperature)
-			double Tg = (ab2[1]-ab1[1])/(ab1[0]-ab2[0]);
-			double V = (ab1[0]*Tg+ab1[1]);
-			g.fillOval(x(Tg)-8, y(V)-8, 15, 15);
-			AttributedString Tg_str = new AttributedString(String.format(Locale.ENGLISH,"Tg = %.4f",Tg));
-			Tg_str.addAttribute(TextAttribute.SUPERSCRIPT, TextAttribute.SUPERSCRIPT_SUB, 1,2);
-			g.drawString(Tg_str.getIterator(), x(Tg)+5, y(V)+20);
-			
-			//reference lines
-			g.setColor(Color.cyan);
-			g.drawLine(x(refX[0]), 0, x(refX[0]), drawingHeight);
-			g.drawLine(x(refX[1]), 0, x(refX[1]), drawingHeight);
-			g.setColor(Color.magenta);
-			g.drawLine(x(refX[2]), 0, x(refX[2]), drawingHeight);
-			g.drawLine(x(refX[3]), 0, x(refX[3]), drawingHeight);
-			g.setColor(Color.red);
-			g.fillRect(x(refX[0])-10, 3, 20, 12);
-			g.fillRect(x(refX[1])-10, 18, 20, 12);
-			g.fillRect(x(refX[2])-10, 33, 20, 12);
-			g.fillRect(x(refX[3])-10, 48, 20, 12);
-			g.setColor(Color.white);
-			Font defaultFont = g.getFont();
-			g.setFont(new Font(g.getFont().getFontName(),Font.BOLD,12));
-			g.drawString("1", x(refX[0])-3, 14);
-			g.drawString("2", x(refX[1])-3, 29);
-			g.drawString("3", x(refX[2])-3, 44);
-			g.drawString("4", x(refX[3])-3, 59);
-			g.setFont(defaultFont);
+		}
+		
+		//fit lines
+		TgFit tgFit = TgFit.of(statistics, refX, fitter);
+		double[] ab1 = tgFit.ab1;
+		double[] ab2 = tgFit.ab2;
+		g.setColor(Color.BLUE);
+		g.drawLine(x(min_t), y(min_t*ab1[0]+ab1[1]), x(max_t), y(max_t*ab1[0]+ab1[1]));
+		g.drawLine(x(min_t), y(min_t*ab2[0]+ab2[1]), x(max_t), y(max_t*ab2[0]+ab2[1]));
+		
+		//Tg (glass-transition temperature)
+		double Tg = tgFit.tg;
+		double V = tgFit.v;
+		g.fillOval(x(Tg)-8, y(V)-8, 15, 15);
+		AttributedString Tg_str = new AttributedString(String.format(Locale.ENGLISH,"Tg = %.4f",Tg)+ci);
+		Tg_str.addAttribute(TextAttribute.SUPERSCRIPT, TextAttribute.SUPERSCRIPT_SUB, 1,2);
+		g.drawString(Tg_str.getIterator(), x(Tg)+5, y(V)+20);
+		
+		paintReferenceLines(g);
+	}
+	
+	/**
+	 * Рисует подогнанную ко всем точкам плавную модель перехода, ее асимптоты и Tg.
+	 * Подгонка выполняется в фоновом потоке, до ее окончания показывается прежний результат для тех же данных
+	 * 
+	 * @param g холст
+	 * @see TransitionFit
+	 */
+	private void paintTransition(Graphics g) {
+		updateTransition();
+		if(transitionKey == null || transitionKey.get(0) != statistics || transitionKey.get(2) != model) {
 			g.setColor(Color.black);
-			g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[0]), x(refX[0])+12, 14);
-			g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[1]), x(refX[1])+12, 29);
-			g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[2]), x(refX[2])+12, 44);
-			g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[3]), x(refX[3])+12, 59);
-			
+			g.drawString("Fitting " + model.label.toLowerCase(Locale.ENGLISH) + " model...", plotXOrig + 5, axisWidth + 15);
+			return;
+		}
+		if(transition == null) {
+			g.setColor(Color.black);
+			g.drawString("Not enough data points for the " + model.label.toLowerCase(Locale.ENGLISH) + " model", plotXOrig + 5, axisWidth + 15);
+			return;
+		}
+		
+		//asymptotes
+		double[] ab1 = transition.ab1;
+		double[] ab2 = transition.ab2;
+		g.setColor(Color.gray);
+		g.drawLine(x(min_t), y(min_t*ab1[0]+ab1[1]), x(max_t), y(max_t*ab1[0]+ab1[1]));
+		g.drawLine(x(min_t), y(min_t*ab2[0]+ab2[1]), x(max_t), y(max_t*ab2[0]+ab2[1]));
+		
+		//model curve (one vertex per pixel column)
+		int[] xs = new int[plotWidth+1], ys = new int[plotWidth+1];
+		for(int i=0; i<=plotWidth; i++) {
+			xs[i] = plotXOrig + i;
+			ys[i] = y(model.value(transition, xx(xs[i])));
+		}
+		g.setColor(Color.BLUE);
+		g.drawPolyline(xs, ys, xs.length);
+		
+		//Tg (glass-transition temperature) and transition width
+		double Tg = transition.tg;
+		double V = transition.v;
+		g.fillOval(x(Tg)-8, y(V)-8, 15, 15);
+		AttributedString Tg_str = new AttributedString(String.format(Locale.ENGLISH,"Tg = %.4f, W = %.4f",Tg,transition.width));
+		Tg_str.addAttribute(TextAttribute.SUPERSCRIPT, TextAttribute.SUPERSCRIPT_SUB, 1,2);
+		g.drawString(Tg_str.getIterator(), x(Tg)+5, y(V)+20);
+	}
+	
+	/**
+	 * Рисует прямые и Tg всех серий в режиме наложения. Прямые проводятся от внешних границ участков
+	 * подгонки до Tg, серии, выбранные в таблице, выделяются черным цветом и подписью Tg
+	 * 
+	 * @param g холст
+	 * @see SeriesOverlay#fit
+	 */
+	private void paintSeriesFits(Graphics g) {
+		
+		//fit lines of all series (one batched pass, skipped when the boundaries did not move)
+		overlay.fit(refX, fitter.estimator);
+		boolean[] selected = new boolean[overlay.series.length];
+		for(int row : seriesTable.getSelectedRows()) {
+			if(seriesTable.getModel() == overlay.table)
+				selected[seriesTable.convertRowIndexToModel(row)] = true;
+		}
+		for(int pass=0; pass<2; pass++) {
+			for(int i=0; i<overlay.series.length; i++) {
+				// Выбранные серии рисуются вторым проходом поверх остальных
+				if(selected[i] != (pass == 1))
+					continue;
+				TgFit fit = overlay.series[i].fit;
+				if(Double.isNaN(fit.tg) || Double.isInfinite(fit.tg))
+					continue;
+				double[] ab1 = fit.ab1;
+				double[] ab2 = fit.ab2;
+				double Tg = Math.max(min_t, Math.min(max_t, fit.tg));
+				g.setColor(selected[i] ? Color.black : overlay.series[i].color);
+				g.drawLine(x(refX[0]), y(refX[0]*ab1[0]+ab1[1]), x(Tg), y(Tg*ab1[0]+ab1[1]));
+				g.drawLine(x(Tg), y(Tg*ab2[0]+ab2[1]), x(refX[3]), y(refX[3]*ab2[0]+ab2[1]));
+				g.fillOval(x(fit.tg)-3, y(fit.v)-3, 7, 7);
+				if(selected[i]) {
+					AttributedString Tg_str = new AttributedString(String.format(Locale.ENGLISH,"Tg = %.4f",fit.tg));
+					Tg_str.addAttribute(TextAttribute.SUPERSCRIPT, TextAttribute.SUPERSCRIPT_SUB, 1,2);
+					g.drawString(Tg_str.getIterator(), x(fit.tg)+5, y(fit.v)+20);
+				}
+			}
+		}
+		
+		paintReferenceLines(g);
+	}
+	
+	/**
+	 * Рисует граничные линии с номерами и положениями
+	 * 
+	 * @param g холст
+	 */
+	private void paintReferenceLines(Graphics g) {
+		
+		//reference lines
+		g.setColor(Color.cyan);
+		g.drawLine(x(refX[0]), 0, x(refX[0]), drawingHeight);
+		g.drawLine(x(refX[1]), 0, x(refX[1]), drawingHeight);
+		g.setColor(Color.magenta);
+		g.drawLine(x(refX[2]), 0, x(refX[2]), drawingHeight);
+		g.drawLine(x(refX[3]), 0, x(refX[3]), drawingHeight);
+		g.setColor(Color.red);
+		g.fillRect(x(refX[0])-10, 3, 20, 12);
+		g.fillRect(x(refX[1])-10, 18, 20, 12);
+		g.fillRect(x(refX[2])-10, 33, 20, 12);
+		g.fillRect(x(refX[3])-10, 48, 20, 12);
+		g.setColor(Color.white);
+		Font defaultFont = g.getFont();
+		if(labelFont == null || !labelFont.getFontName().equals(defaultFont.getFontName())) {
+			labelFont = new Font(defaultFont.getFontName(),Font.BOLD,12);
+		}
+		g.setFont(labelFont);
+		g.drawString("1", x(refX[0])-3, 14);
+		g.drawString("2", x(refX[1])-3, 29);
+		g.drawString("3", x(refX[2])-3, 44);
+		g.drawString("4", x(refX[3])-3, 59);
+		g.setFont(defaultFont);
+		g.setColor(Color.black);
+		g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[0]), x(refX[0])+12, 14);
+		g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[1]), x(refX[1])+12, 29);
+		g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[2]), x(refX[2])+12, 44);
+		g.drawString(String.format(Locale.ENGLISH,"%.4f", refX[3]), x(refX[3])+12, 59);
+
+	}
+	
+	/**
+	 * Рисует счетчики производительности: время отрисовки предыдущего кадра,
+	 * частоту подгонок прямых и количество точек данных
+	 * 
+	 * @param g холст
+	 */
+	private void paintHud(Graphics g) {
+		long now = System.nanoTime();
+		long fits = Instrumentation.fits.sum();
+		if(hudTime == 0 || now - hudTime >= 1000000000L) {
+			if(hudTime != 0)
+				hudFitsPerSecond = (fits - hudFits)*1e9/(now - hudTime);
+			hudFits = fits;
+			hudTime = now;
 		}
 		
+		String[] lines = {
+				String.format(Locale.ENGLISH,"frame: %.2f ms", hudFrameNanos/1e6),
+				String.format(Locale.ENGLISH,"fits/s: %.0f", hudFitsPerSecond),
+				String.format(Locale.ENGLISH,"points: %d", points()),
+				String.format(Locale.ENGLISH,"series: %d", overlay != null ? overlay.series.length : 1)
+		};
+		int lineHeight = g.getFontMetrics().getHeight();
+		int width = 0;
+		for(String line : lines) {
+			width = Math.max(width, g.getFontMetrics().stringWidth(line));
+		}
+		int x = plotXOrig + 5;
+		int y = plotYOrig - 5 - lineHeight*(lines.length-1);
+		g.setColor(hudColor);
+		g.fillRect(x-3, y-lineHeight+3, width+6, lineHeight*lines.length+3);
+		g.setColor(Color.black);
+		for(String line : lines) {
+			g.drawString(line, x, y);
+			y += lineHeight;
+		}
+	}
+	
+	/**
+	 * Запускает в фоновом потоке вычисление доверительного интервала Tg бутстрепом
+	 * для текущих положений граничных линий. Вычисление для прежних положений отменяется.
+	 * Подгоняется копия данных: в режиме слежения точки добавляются во время вычисления
+	 * 
+	 * @see TgConfidence#bootstrap
+	 */
+	private void updateConfidence() {
+		if(confidence != null && Arrays.equals(confidence.refX, refX))
+			return;
+		if(confidenceRefX != null && Arrays.equals(confidenceRefX, refX))
+			return;
+		
+		if(confidenceCancel != null)
+			confidenceCancel.set(true);
+		final AtomicBoolean cancel = new AtomicBoolean();
+		final double[] windows = refX.clone();
+		final FitStatistics statistics = this.statistics;
+		final int version = statistics.version;
+		final DoubleColumn[] points = statistics.copyPoints();
+		confidenceCancel = cancel;
+		confidenceRefX = windows;
+		confidenceExecutor.execute(() -> {
+			if(cancel.get())
+				return;
+			FitStatistics copy = new FitStatistics(points[0], points[1], points[2]);
+			TgConfidence result = TgConfidence.bootstrap(copy, windows, TgConfidence.DEFAULT_REPLICATES,
+					TgConfidence.DEFAULT_LEVEL, TgConfidence.DEFAULT_SEED, cancel);
+			if(result != null) {
+				SwingUtilities.invokeLater(() -> {
+					if(statistics == this.statistics && version == statistics.version) {
+						confidence = result;
+						repaint();
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Запускает в фоновом потоке подгонку выбранной плавной модели перехода к текущим данным.
+	 * Ожидающая подгонка для прежних данных или модели отменяется. Подгоняется копия данных,
+	 * как и при вычислении доверительного интервала
+	 * 
+	 * @see TransitionFit#fit
+	 */
+	void updateTransition() {
+		final List<Object> key = Arrays.asList(statistics, statistics.version, model);
+		if(key.equals(transitionKey) || key.equals(transitionPending))
+			return;
+		
+		if(transitionCancel != null)
+			transitionCancel.set(true);
+		final AtomicBoolean cancel = new AtomicBoolean();
+		final DoubleColumn[] points = statistics.copyPoints();
+		final TransitionModel model = this.model;
+		transitionCancel = cancel;
+		transitionPending = key;
+		transitionExecutor.execute(() -> {
+			if(cancel.get())
+				return;
+			TgFit result = TransitionFit.fit(new FitStatistics(points[0], points[1], points[2]), model);
+			SwingUtilities.invokeLater(() -> {
+				if(key.equals(transitionPending)) {
+					transition = result;
+					transitionKey = key;
+					transitionPending = null;
+					repaint();
+				}
+			});
+		});
 	}
 	
 	/**
 	 * Получает текущий размер окна приложения и задает переменные,
-	 * отвечающие за размер рисуемой области на холсте
+	 * отвечающие за размер рисуемой области на холсте.
+	 * При изменении размера сбрасывает огибающую данных и изображение неизменяемых слоев
 	 */
 	public void updateDimensions() {
 		Dimension tmp = getSize();
+		if(tmp.width != drawingWidth || tmp.height != drawingHeight) {
+			decimator = null;
+			staticLayer = null;
+			if(overlay != null)
+				overlay.invalidate();
+		}
 		drawingWidth = tmp.width;
 		drawingHeight = tmp.height;
 		plotXOrig = axisWidth;
@@ -315,66 +770,61 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 	
 	/**
 	 * Загружает данные из массива файлов, суммирая данные из каждого файла
+	 * (с кнопкой "Merge" - сливая их на общую сетку температуры, см. {@link ReplicaMerger})
 	 * @param dataFiles массив файлов с данными
 	 */
 	public void loadFiles(File[] dataFiles) {
 		
+		// Прекратить слежение за прежними файлами
+		stopFollowing();
+		
 		boolean errorOccured = false; // Если на одном из этапов возникнет ошибка, этот флаг станет true
-		int lines = 0;
-		double[] t = null; // Температура - ось абсцисс: первый столбец в файле с данными
-		double[] volume = null; // Объем - ось ординат: второй столбец в файле с данными
-		
-		// Подсчитать количество строк в файле
-		try(LineNumberReader lnr = new LineNumberReader(new FileReader(dataFiles[0]))) {
-			lnr.skip(Long.MAX_VALUE);
-			lines = lnr.getLineNumber();
-		} catch (IOException e) {
+		
+		// Прочитать файлы из массива dataFiles параллельно, и занести данные в массивы t и volume,
+		// суммируя данные из каждого файла. Файлы, которые не удалось прочитать или количество строк
+		// в которых отличается от остальных, исключаются.
+		// С кнопкой "Merge" реплики сливаются на общую сетку температуры (средние по интервалам и их веса)
+		openedFiles = dataFiles;
+		boolean merge = mergeButton.isSelected();
+		ReplicaLoader loader = merge ? null : new ReplicaLoader(dataFiles);
+		ReplicaMerger merger = merge ? new ReplicaMerger(dataFiles, 0) : null;
+		File[] usedFiles = merge ? merger.usedFiles : loader.usedFiles;
+		DoubleColumn t = merge ? merger.t : loader.t; // Температура - ось абсцисс: первый столбец в файле с данными
+		DoubleColumn volume = merge ? merger.volume : loader.volume; // Объем - ось ординат: второй столбец в файле с данными
+		if(usedFiles.length == 0) {
 			errorOccured = true;
 		}
 		
-		// Если подсчет строк удался, то 
-		// прочитать каждый файл из массива dataFiles, и занести данные в массивы t и volume,
-		// суммируя данные из каждого файла
-		if(!errorOccured) {
-			
-			t = new double[lines];
-			volume = new double[lines];
-			for(int i=0; i<dataFiles.length; i++) {
-				
-				try(BufferedReader br = new BufferedReader(new FileReader(dataFiles[i]))) {
-					for(int j=0; j<lines; j++) {
-						StringTokenizer st = new StringTokenizer(br.readLine());
-						t[j] += Double.parseDouble(st.nextToken());
-						volume[j] += Double.parseDouble(st.nextToken());
-					}
-				} catch(IOException e) {
-					errorOccured = true;
-				}
-				
-			}
+		// Сообщить об исключенных файлах
+		String report = merge ? merger.report() : loader.report();
+		if(report != null) {
+			JOptionPane.showMessageDialog(window,
+					errorOccured ? report : "Some files were skipped:\n" + report,
+					appName, errorOccured ? JOptionPane.ERROR_MESSAGE : JOptionPane.WARNING_MESSAGE);
 		}
 		
 		// Если чтение файлов завершилось успешно
 		if(!errorOccured) {
-
+			
 			// Найти среднее значение оъема и температуры в каждой точке (поделить на количество файлов)
-			for(int j=0; j<lines; j++) {
-				t[j] /= (double)(dataFiles.length);
-				volume[j] /= (double)(dataFiles.length);
-			}
+			// и максимальные и минимальные значения температуры и объема в данных - одним проходом
+			// (средние по интервалам при объединении реплик уже найдены; NaN и бесконечности не учитываются).
+			// Крайние значения одного файла, прочитанного из кэша, уже известны
+			double[] range = !merge && loader.range != null ? loader.range
+					: ColumnKernels.divideAndRange(t, volume, merge ? 1 : usedFiles.length);
+			min_t = range[0];
+			max_t = range[1];
+			min_volume = range[2];
+			max_volume = range[3];
 
-			// Определить максимальные и минимальные значения температуры и объема в данных
-			max_t = max_volume = Double.MIN_VALUE;
-			min_t = min_volume = Double.MAX_VALUE;
-			for(int j=0; j<lines; j++) {
-				if(t[j]>max_t)
-					max_t = t[j];
-				if(t[j]<min_t)
-					min_t = t[j];
-				if(volume[j]>max_volume)
-					max_volume = volume[j];
-				if(volume[j]<min_volume)
-					min_volume = volume[j];
+			FitStatistics statistics;
+			if(merge) {
+				// Средние по интервалам уже упорядочены по температуре, прямые подгоняются с весами интервалов
+				statistics = new FitStatistics(t, volume, merger.weights);
+			} else {
+				// Упорядочить точки по температуре и построить префиксные суммы для подгонки прямых
+				FitStatistics.sortByX(t, volume);
+				statistics = new FitStatistics(t, volume);
 			}
 			
 			// Определить начальные положения граничных точек
@@ -383,16 +833,31 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 			refX[2] = (min_t+max_t)*0.6;
 			refX[3] = (min_t+max_t)*0.9;
 		
-			currentFiles = dataFiles;
+			currentFiles = usedFiles;
+			currentSizes = merge ? null : loader.usedSizes;
 			repaint();
 			
 			this.t = t;
 			this.volume = volume;
+			this.statistics = statistics;
+			setOverlay(null);
+			// Дописанные строки усредняются по номеру строки, сжатые файлы не дописываются по строкам
+			followButton.setEnabled(!merge && !CompressedInput.anyCompressed(usedFiles));
+			this.decimator = null;
+			this.staticLayer = null;
+			if(transitionCancel != null)
+				transitionCancel.set(true);
+			if(confidenceCancel != null)
+				confidenceCancel.set(true);
+			confidence = null;
+			confidenceRefX = null;
 			
 		} else {
 			currentFiles = null;
+			currentSizes = null;
 			t = null;
 			volume = null;
+			setOverlay(null);
 		}
 		
 		if(currentFiles != null) {
@@ -403,82 +868,386 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 				str_prefix = ",";
 			}
 			fileNameLabel.setText(str);
-			window.setTitle(str);
+			if(window != null)
+				window.setTitle(str);
 			fileNameLabel.setToolTipText(str);
 		}
 		
 	}
 	
+	/**
+	 * Загружает файлы как отдельные серии для наложения на одном графике. Границы участков
+	 * подгонки общие для всех серий, Tg каждой серии показывается в таблице
+	 * 
+	 * @param dataFiles массив файлов с данными, по одной серии на файл
+	 * @see SeriesOverlay
+	 */
+	public void loadOverlay(File[] dataFiles) {
+		
+		// Прекратить слежение за прежними файлами
+		stopFollowing();
+		
+		// Прочитать файлы параллельно, каждый файл - отдельная серия
+		SeriesOverlay overlay = new SeriesOverlay(dataFiles);
+		boolean errorOccured = overlay.series.length == 0;
+		
+		// Сообщить об исключенных файлах
+		String report = overlay.report();
+		if(report != null) {
+			JOptionPane.showMessageDialog(window,
+					errorOccured ? report : "Some files were skipped:\n" + report,
+					appName, errorOccured ? JOptionPane.ERROR_MESSAGE : JOptionPane.WARNING_MESSAGE);
+		}
+		
+		if(!errorOccured) {
+			
+			// Общий диапазон данных и начальные положения граничных линий (как для одного набора данных)
+			max_t = overlay.max_t;
+			min_t = overlay.min_t;
+			max_volume = overlay.max_volume;
+			min_volume = overlay.min_volume;
+			refX[0] = (min_t+max_t)*0.1;
+			refX[1] = (min_t+max_t)*0.4;
+			refX[2] = (min_t+max_t)*0.6;
+			refX[3] = (min_t+max_t)*0.9;
+			
+			currentFiles = overlay.usedFiles;
+			currentSizes = null;
+			t = null;
+			volume = null;
+			statistics = null;
+			setOverlay(overlay);
+			decimator = null;
+			staticLayer = null;
+			if(confidenceCancel != null)
+				confidenceCancel.set(true);
+			confidence = null;
+			confidenceRefX = null;
+			repaint();
+			
+			String str = String.format(Locale.ENGLISH,"%d series :",currentFiles.length);
+			String str_prefix = "";
+			for(int i=0; i<currentFiles.length; i++) {
+				str += str_prefix+currentFiles[i].getName();
+				str_prefix = ",";
+			}
+			fileNameLabel.setText(str);
+			if(window != null)
+				window.setTitle(str);
+			fileNameLabel.setToolTipText(str);
+		}
+	}
+	
+	/**
+	 * Включает или выключает режим наложения серий: показывает таблицу Tg по сериям и отключает
+	 * инструменты, работающие с одним набором данных (автоматический выбор участков,
+	 * доверительный интервал, слежение за файлами и плавные модели перехода)
+	 * 
+	 * @param overlay серии или null для режима одного набора данных
+	 */
+	private void setOverlay(SeriesOverlay overlay) {
+		this.overlay = overlay;
+		seriesTable.setModel(overlay != null ? overlay.table : new DefaultTableModel());
+		if(overlay != null)
+			modelBox.setSelectedItem(TransitionModel.LINES);
+		modelBox.setEnabled(overlay == null);
+		autoFitButton.setEnabled(overlay == null && model == TransitionModel.LINES);
+		confidenceButton.setEnabled(overlay == null && model == TransitionModel.LINES);
+		followButton.setEnabled(overlay == null);
+		Container pane = SwingUtilities.getAncestorOfClass(JScrollPane.class, seriesTable);
+		if(pane != null && pane.isVisible() != (overlay != null)) {
+			pane.setVisible(overlay != null);
+			pane.getParent().revalidate();
+		}
+	}
+	
+	/**
+	 * @return количество точек открытых данных (всех серий в режиме наложения)
+	 */
+	private int points() {
+		return overlay != null ? overlay.points : statistics.n;
+	}
+	
 	@Override
 	public void actionPerformed(ActionEvent e) {
 		
 		// Если была нажата кнопка "Open"
-		if((JButton)e.getSource() == openButton) {
-
-			// Создать объект диалога открытия файла
-			JFileChooser chooser = new JFileChooser();
-			chooser.setAcceptAllFileFilterUsed(false);
-			chooser.setMultiSelectionEnabled(true);
-			chooser.setCurrentDirectory(defaultFilePath);
+		if(e.getSource() == openButton) {
+			File[] files = chooseFiles();
+			if(files != null)
+				loadFiles(files);
+			
+		// Если была нажата кнопка "Overlay"
+		} else if(e.getSource() == overlayButton) {
+			File[] files = chooseFiles();
+			if(files != null)
+				loadOverlay(files);
+			
+		// Если была нажата кнопка "Auto fit"
+		} else if(e.getSource() == autoFitButton) {
+			autoFit();
+			
+		// Если была нажата кнопка "Tg CI"
+		} else if(e.getSource() == confidenceButton) {
+			repaint();
+			
+		// Если была нажата кнопка "Follow"
+		} else if(e.getSource() == followButton) {
+			if(followButton.isSelected())
+				follow();
+			else
+				stopFollowing();
+			
+		// Если была нажата кнопка "Merge", то открыть те же файлы заново
+		} else if(e.getSource() == mergeButton) {
+			if(openedFiles != null && currentFiles != null && overlay == null)
+				loadFiles(openedFiles);
+			
+		// Если выбран способ подгонки прямых
+		} else if(e.getSource() == estimatorBox) {
+			Estimator estimator = (Estimator)estimatorBox.getSelectedItem();
+			if(estimator != fitter.estimator) {
+				fitter = new RobustFit(estimator);
+				repaint();
+			}
+			
+		// Если выбрана модель перехода. Граничные линии, автоматический выбор участков,
+		// доверительный интервал и способ подгонки прямых относятся только к двум прямым
+		} else if(e.getSource() == modelBox) {
+			TransitionModel model = (TransitionModel)modelBox.getSelectedItem();
+			if(model != this.model) {
+				this.model = model;
+				boolean lines = model == TransitionModel.LINES;
+				autoFitButton.setEnabled(lines && overlay == null);
+				confidenceButton.setEnabled(lines && overlay == null);
+				estimatorBox.setEnabled(lines);
+				overRefN = -1;
+				overRefPairN = -1;
+				setCursor(Cursor.getDefaultCursor());
+				repaint();
+			}
+		}
+	}
+	
+	/**
+	 * Показывает диалог открытия файлов с данными и запоминает выбранный каталог в файле настроек
+	 * 
+	 * @return выбранные файлы или null, если выбор отменен
+	 */
+	private File[] chooseFiles() {
+		
+		// Создать объект диалога открытия файла
+		JFileChooser chooser = new JFileChooser();
+		chooser.setAcceptAllFileFilterUsed(false);
+		chooser.setMultiSelectionEnabled(true);
+		chooser.setCurrentDirectory(defaultFilePath);
 
-			// Зарегистрировать фильтр файлов: разрешены только файлы с расширением .dat и .txt
-			chooser.addChoosableFileFilter(new FileFilter(){
-				@Override
-				public boolean accept(File f) {
-					if(f.isDirectory())
-						return true;
-					String ext = null;
-					String fileName = f.getName();
-					int i = fileName.lastIndexOf(".");
-					if (i > 0 &&  i < fileName.length() - 1) {
-			            ext = fileName.substring(i+1).toLowerCase();
-			        }
-					if(ext!=null && (ext.equals("dat") || ext.equals("txt"))) {
-						return true;
-					} else
-						return false;
-				}
-				@Override
-				public String getDescription() {
-					return "*.dat, *.txt";
-				}
-			});
+		// Зарегистрировать фильтр файлов: разрешены только файлы с расширением .dat и .txt (в том числе сжатые: .dat.gz и т. п.)
+		chooser.addChoosableFileFilter(new FileFilter(){
+			@Override
+			public boolean accept(File f) {
+				if(f.isDirectory())
+					return true;
+				String ext = null;
+				String fileName = CompressedInput.stripSuffix(f.getName());
+				int i = fileName.lastIndexOf(".");
+				if (i > 0 &&  i < fileName.length() - 1) {
+		            ext = fileName.substring(i+1).toLowerCase();
+		        }
+				if(ext!=null && (ext.equals("dat") || ext.equals("txt"))) {
+					return true;
+				} else
+					return false;
+			}
+			@Override
+			public String getDescription() {
+				return "*.dat, *.txt (.gz, .xz, .zst)";
+			}
+		});
 
-			// Показать диалог открытия файла и дождаться выбора или отмены
-			int result = chooser.showDialog(window, "Choose data file");
+		// Показать диалог открытия файла и дождаться выбора или отмены
+		int result = chooser.showDialog(window, "Choose data file");
 
-			// Если файл/файлы были выбраны, то
-			if(result == JFileChooser.APPROVE_OPTION) {
+		// Если файл/файлы были выбраны, то
+		if(result == JFileChooser.APPROVE_OPTION) {
+			
+			// занести выбранные файлы в массив
+			File[] tmp = chooser.getSelectedFiles();
+			if(tmp != null) {
+				PrintStream ps = null;
 				
-				// занести выбранные файлы в массив
-				File[] tmp = chooser.getSelectedFiles();
-				if(tmp != null) {
-					PrintStream ps = null;
+				// записать текущую дирректорию как дирректорию по умолчанию в файл настроек
+				try {
+					defaultFilePath = tmp[0].getParentFile().getCanonicalFile();
+					ps = new PrintStream(new FileOutputStream(settingsFilePath));
+					ps.println("fp="+defaultFilePath.getPath());
+				} catch (IOException ee) {
 					
-					// записать текущую дирректорию как дирректорию по умолчанию в файл настроек
-					try {
-						defaultFilePath = tmp[0].getParentFile().getCanonicalFile();
-						ps = new PrintStream(new FileOutputStream(settingsFilePath));
-						ps.println("fp="+defaultFilePath.getPath());
-					} catch (IOException ee) {
-						
-					} finally {
-						if(ps!=null)
-							ps.close();
+				} finally {
+					if(ps!=null)
+						ps.close();
+				}
+				
+				return tmp;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Автоматически выбирает участки подгонки прямых, при которых сумма квадратов остатков
+	 * минимальна, и перемещает граничные линии. Поиск выполняется в фоновом потоке
+	 * 
+	 * @see BreakpointSearch
+	 */
+	public void autoFit() {
+		
+		// Если нет открытых файлов или открыто наложение серий, то ничего не делать
+		if(currentFiles == null || overlay != null) return;
+		
+		final FitStatistics statistics = this.statistics;
+		final int version = statistics.version;
+		autoFitButton.setEnabled(false);
+		new SwingWorker<double[], Void>() {
+			@Override
+			protected double[] doInBackground() {
+				return BreakpointSearch.search(statistics, autoFitTrim, autoFitSteps);
+			}
+			@Override
+			protected void done() {
+				autoFitButton.setEnabled(true);
+				try {
+					double[] best = get();
+					// Применить результат, только если за время поиска не были открыты другие файлы
+					// и не были добавлены новые точки
+					if(best != null && statistics == Approximizer.this.statistics && version == statistics.version) {
+						System.arraycopy(best, 0, refX, 0, refX.length);
+						repaint();
 					}
+				} catch (InterruptedException | ExecutionException ee) {
 					
-					// Открыть выбранные файлы
-					loadFiles(tmp);
 				}
 			}
+		}.execute();
+	}
+	
+	/**
+	 * Включает слежение за открытыми файлами: файлы периодически опрашиваются в фоновом потоке,
+	 * дописанные строки усредняются и добавляются к данным без повторного чтения файлов
+	 * 
+	 * @see FileTailer
+	 */
+	public void follow() {
+		
+		// Если нет открытых файлов, открыто наложение серий или слияние реплик, то ничего не делать
+		if(currentFiles == null || overlay != null || statistics.w != null) {
+			followButton.setSelected(false);
+			return;
+		}
+		
+		stopFollowing();
+		final FileTailer tailer;
+		try {
+			tailer = new FileTailer(currentFiles, currentSizes);
+			
+			// Последняя строка файла при загрузке была записана не полностью: ее обрезанное значение
+			// уже в данных. Прочитать данные заново до конца полных строк, дописанная строка будет
+			// разобрана при опросе
+			if(!Arrays.equals(tailer.offsets, currentSizes)) {
+				DataColumns rows = tailer.load(Runtime.getRuntime().availableProcessors());
+				rows.trim();
+				double[] range = ColumnKernels.divideAndRange(rows.x, rows.y, 1);
+				FitStatistics.sortByX(rows.x, rows.y);
+				statistics = new FitStatistics(rows.x, rows.y);
+				t = statistics.x;
+				volume = statistics.y;
+				min_t = range[0];
+				max_t = range[1];
+				min_volume = range[2];
+				max_volume = range[3];
+				currentSizes = tailer.offsets.clone();
+				decimator = null;
+				staticLayer = null;
+				if(transitionCancel != null)
+					transitionCancel.set(true);
+				if(confidenceCancel != null)
+					confidenceCancel.set(true);
+				confidence = null;
+				confidenceRefX = null;
+				repaint();
+			}
+		} catch (IOException ee) {
+			JOptionPane.showMessageDialog(window, ee.getMessage(), appName, JOptionPane.ERROR_MESSAGE);
+			followButton.setSelected(false);
+			return;
 		}
+		this.tailer = tailer;
+		followButton.setSelected(true);
+		followTask = followExecutor.scheduleWithFixedDelay(() -> {
+			try {
+				DataColumns rows = tailer.poll();
+				if(rows.size > 0)
+					SwingUtilities.invokeLater(() -> appendPoints(tailer, rows));
+			} catch (IOException ee) {
+				SwingUtilities.invokeLater(() -> {
+					if(tailer == this.tailer) {
+						stopFollowing();
+						JOptionPane.showMessageDialog(window, ee.getMessage(), appName, JOptionPane.ERROR_MESSAGE);
+					}
+				});
+			}
+		}, 0, followPeriod, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Выключает слежение за открытыми файлами
+	 */
+	public void stopFollowing() {
+		if(followTask != null)
+			followTask.cancel(false);
+		followTask = null;
+		tailer = null;
+		if(followButton != null)
+			followButton.setSelected(false);
+	}
+	
+	/**
+	 * Добавляет к данным точки, прочитанные в режиме слежения, и перерисовывает график
+	 * 
+	 * @param source источник точек: точки отбрасываются, если слежение за ним уже выключено
+	 * @param rows новые усредненные точки
+	 */
+	private void appendPoints(FileTailer source, DataColumns rows) {
+		if(source != tailer)
+			return;
+		
+		for(int j=0; j<rows.size; j++) {
+			statistics.insert(rows.x.get(j), rows.y.get(j));
+		}
+		// Расширить диапазоны данных конечными значениями новых точек
+		double[] rangeT = ColumnKernels.range(rows.x, 0, rows.size), rangeV = ColumnKernels.range(rows.y, 0, rows.size);
+		min_t = Math.min(min_t, rangeT[0]);
+		max_t = Math.max(max_t, rangeT[1]);
+		min_volume = Math.min(min_volume, rangeV[0]);
+		max_volume = Math.max(max_volume, rangeV[1]);
+		t = statistics.x;
+		volume = statistics.y;
+		
+		// Огибающая данных и доверительный интервал строятся заново
+		decimator = null;
+		staticLayer = null;
+		if(confidenceCancel != null)
+			confidenceCancel.set(true);
+		confidence = null;
+		confidenceRefX = null;
+		repaint();
 	}
 	
 	@Override
 	public void mouseMoved(MouseEvent e) {
 		
-		// Если нет открытых файлов, то ничего не делать
-		if(currentFiles == null) return;
+		// Если нет открытых файлов или выбрана плавная модель перехода (граничные линии скрыты), то ничего не делать
+		if(currentFiles == null || (overlay == null && model != TransitionModel.LINES)) return;
 		
 		// Проверка: Если мышь над одной из одной из граничных линий,
 		// то записать номер линии в переменную overRefN и поменять вид курсора
@@ -526,7 +1295,7 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 			int x_ = e.getX() - x_shift;
 			double xx_ = xx(x_);
 			refX[overRefN] = xx_ > max_t ? max_t : (xx_< min_t ? min_t : xx_);
-			repaint();
+			scheduleRepaint();
 		
 		// Если выбрана пара граничных линий, то переместить ее
 		} else if (overRefPairN!=-1) {
@@ -536,7 +1305,17 @@ public class Approximizer extends JPanel implements ActionListener, MouseMotionL
 			double xx_right_ = xx(x_)+refX_space;
 			refX[overRefPairN*2] = xx_left_;
 			refX[overRefPairN*2+1] = xx_right_;
-			repaint();
+			scheduleRepaint();
+		}
+	}
+
+	/**
+	 * Запрашивает перерисовку после буксировки. Если кадр уже запланирован, то новый не добавляется:
+	 * будет нарисовано последнее положение граничных линий
+	 */
+	private void scheduleRepaint() {
+		if(!repaintTimer.isRunning()) {
+			repaintTimer.start();
 		}
 	}
 
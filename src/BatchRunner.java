@@ -0,0 +1,554 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Пакетный режим без графического интерфейса</p>
+ * <p>Определяет температуру стеклования для множества файлов с данными (каждый файл - отдельный набор данных,
+ * а с ключом <code>--merge</code> - файлы каждого аргумента командной строки сливаются в один набор как реплики).
+ * Файлы обрабатываются параллельно пулом с перехватом задач (fork-join), результат по каждому файлу
+ * выводится отдельной строкой CSV или JSON сразу по готовности. С ключом <code>--cache</code> результаты
+ * неизменившихся наборов данных берутся из дискового кэша ({@link ResultCache}). С ключом <code>--model</code>
+ * вместо двух прямых ко всем точкам подгоняется плавная модель перехода ({@link TransitionFit}).</p>
+ * <p>Запуск: <code>java Approximizer --batch [параметры] &lt;каталог|шаблон|файл&gt;...</code></p>
+ *
+ * @see Approximizer#main
+ */
+class BatchRunner {
+
+	static final String USAGE = String.join("\n",
+			"Usage: java Approximizer --batch [options] <directory|glob|file>...",
+			"Options:",
+			"  --windows t1,t2,t3,t4     absolute boundaries of the two fit windows",
+			"  --fractions f1,f2,f3,f4   boundaries as fractions of (min_t+max_t) (default 0.1,0.4,0.6,0.9)",
+			"  --auto                    choose the windows automatically (least-squares optimal split)",
+			"  --auto-trim F[,STEPS]     with --auto, also try trimming up to fraction F of points at each end",
+			"  --estimator NAME          line fit: ols, theil-sen or huber (default ols)",
+			"  --model NAME              transition model: lines, hyperbola or tanh (default lines); smooth models",
+			"                            are fitted to all points with Tg as a parameter, the windows are ignored",
+			"  --merge                   treat the files of each argument as replicas of one data set, averaged",
+			"                            on a common temperature grid (fits are weighted by the bin variance)",
+			"  --merge-step T            temperature bin width of --merge (default: the coarsest replica step)",
+			"  --bootstrap N             add a bootstrap confidence interval of Tg from N resamples",
+			"  --jackknife               add a jackknife confidence interval of Tg",
+			"  --confidence P            confidence level of the interval (default 0.95)",
+			"  --seed S                  random seed of the bootstrap",
+			"  --threads N               number of worker threads (default: number of processors)",
+			"  --format csv|json         output format (default csv)",
+			"  --output FILE             write results to FILE instead of standard output",
+			"  --cache DIR               reuse results of unchanged data sets stored in DIR (keyed by file contents and options)",
+			"  --cache-size MB           size limit of the result cache, least recently used results are evicted (default 256)",
+			"  --stats                   print performance counters to standard error when done");
+
+	List<File> files = new ArrayList<>(); // файлы с данными (с --merge - аргументы командной строки)
+	List<File[]> replicas = new ArrayList<>(); // с --merge - файлы реплик каждого набора данных
+	boolean merge = false; // сливать файлы каждого аргумента на общую сетку температуры
+	double mergeStep = 0; // ширина интервала температуры при слиянии (0 - выбрать по данным)
+	double[] windows = {0.1, 0.4, 0.6, 0.9}; // границы участков подгонки
+	boolean fractional = true; // границы заданы долями (min_t+max_t), как начальные положения refX
+	boolean auto = false; // выбирать участки подгонки автоматически
+	double autoTrim = 0; // наибольшая доля точек, отбрасываемых с каждого края при автоматическом выборе
+	int autoSteps = 5; // количество шагов перебора внешних границ
+	Estimator estimator = Estimator.OLS; // способ подгонки прямых
+	TransitionModel model = TransitionModel.LINES; // модель перехода
+	int bootstrap = 0; // количество повторных выборок бутстрепа (0 - не вычислять)
+	boolean jackknife = false; // вычислять интервал методом складного ножа
+	double confidence = TgConfidence.DEFAULT_LEVEL;
+	long seed = TgConfidence.DEFAULT_SEED;
+	int threads = Runtime.getRuntime().availableProcessors();
+	boolean json = false;
+	boolean stats = false; // вывести счетчики производительности по окончании
+	ResultCache cache; // кэш результатов или null
+	String settings; // параметры обработки, от которых зависит результат (часть ключа кэша)
+	PrintStream out;
+	AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * Результат обработки одного набора данных
+	 */
+	static class Result {
+		File file;
+		int points;
+		double[] refX;
+		TgFit fit;
+		TgConfidence confidence; // доверительный интервал Tg или null
+		String error; // сообщение об ошибке или null
+	}
+
+	/**
+	 * Разбирает параметры командной строки, обрабатывает файлы и выводит результаты
+	 *
+	 * @param args параметры командной строки (без ключа <code>--batch</code>)
+	 * @return код завершения: 0 - успех, 1 - ошибки в отдельных файлах, 2 - неверные параметры
+	 */
+	static int run(String[] args) {
+		BatchRunner runner = new BatchRunner();
+		String output = null;
+		String cacheDir = null;
+		long cacheLimit = ResultCache.DEFAULT_LIMIT;
+		List<String> inputs = new ArrayList<>();
+		try {
+			for(int i=0; i<args.length; i++) {
+				switch(args[i]) {
+				case "--windows":
+					runner.windows = parseWindows(args[++i]);
+					runner.fractional = false;
+					break;
+				case "--fractions":
+					runner.windows = parseWindows(args[++i]);
+					runner.fractional = true;
+					break;
+				case "--auto":
+					runner.auto = true;
+					break;
+				case "--auto-trim":
+					String[] trim = args[++i].split(",");
+					runner.auto = true;
+					runner.autoTrim = Double.parseDouble(trim[0]);
+					if(trim.length > 1)
+						runner.autoSteps = Integer.parseInt(trim[1]);
+					if(runner.autoTrim < 0 || runner.autoTrim >= 0.5)
+						throw new IllegalArgumentException("trim fraction must be in [0, 0.5)");
+					break;
+				case "--estimator":
+					runner.estimator = Estimator.parse(args[++i]);
+					break;
+				case "--model":
+					runner.model = TransitionModel.parse(args[++i]);
+					break;
+				case "--merge":
+					runner.merge = true;
+					break;
+				case "--merge-step":
+					runner.merge = true;
+					runner.mergeStep = Double.parseDouble(args[++i]);
+					if(!(runner.mergeStep > 0))
+						throw new IllegalArgumentException("merge step must be positive");
+					break;
+				case "--bootstrap":
+					runner.bootstrap = Integer.parseInt(args[++i]);
+					if(runner.bootstrap < 2)
+						throw new IllegalArgumentException("at least 2 bootstrap resamples expected");
+					break;
+				case "--jackknife":
+					runner.jackknife = true;
+					break;
+				case "--confidence":
+					runner.confidence = Double.parseDouble(args[++i]);
+					if(!(runner.confidence > 0 && runner.confidence < 1))
+						throw new IllegalArgumentException("confidence level must be in (0, 1)");
+					break;
+				case "--seed":
+					runner.seed = Long.parseLong(args[++i]);
+					break;
+				case "--threads":
+					runner.threads = Integer.parseInt(args[++i]);
+					if(runner.threads < 1)
+						throw new IllegalArgumentException("thread count must be positive");
+					break;
+				case "--format":
+					String format = args[++i].toLowerCase(Locale.ENGLISH);
+					if(!format.equals("csv") && !format.equals("json"))
+						throw new IllegalArgumentException("unknown format " + format);
+					runner.json = format.equals("json");
+					break;
+				case "--output":
+					output = args[++i];
+					break;
+				case "--cache":
+					cacheDir = args[++i];
+					break;
+				case "--cache-size":
+					cacheLimit = (long)(Double.parseDouble(args[++i]) * (1 << 20));
+					if(cacheLimit <= 0)
+						throw new IllegalArgumentException("cache size must be positive");
+					break;
+				case "--stats":
+					runner.stats = true;
+					break;
+				default:
+					if(args[i].startsWith("--"))
+						throw new IllegalArgumentException("unknown option " + args[i]);
+					inputs.add(args[i]);
+				}
+			}
+			if(inputs.isEmpty())
+				throw new IllegalArgumentException("no input files");
+			if(runner.estimator != Estimator.OLS && (runner.bootstrap > 0 || runner.jackknife))
+				throw new IllegalArgumentException("confidence intervals are only available with the ols estimator");
+			if(runner.model != TransitionModel.LINES
+					&& (runner.auto || runner.estimator != Estimator.OLS || runner.bootstrap > 0 || runner.jackknife))
+				throw new IllegalArgumentException("automatic windows, estimators and confidence intervals are only available with the lines model");
+			if(cacheDir != null) {
+				runner.cache = new ResultCache(new File(cacheDir), cacheLimit);
+				runner.settings = runner.settings();
+			}
+			for(String input : inputs) {
+				List<File> resolved = resolve(input);
+				if(runner.merge) {
+					runner.files.add(new File(input));
+					runner.replicas.add(resolved.toArray(new File[resolved.size()]));
+				} else {
+					runner.files.addAll(resolved);
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			System.err.println("Missing option value");
+			System.err.println(USAGE);
+			return 2;
+		} catch(IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return 2;
+		}
+
+		try {
+			runner.out = new PrintStream(new BufferedOutputStream(output == null
+					? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(output)), false, "UTF-8");
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			return 2;
+		}
+
+		runner.processAll();
+		runner.out.close();
+		if(runner.cache != null && runner.cache.written.get() > 0)
+			runner.cache.evict();
+		if(runner.stats)
+			System.err.println(Instrumentation.snapshot());
+		return runner.failed.get() > 0 ? 1 : 0;
+	}
+
+	/**
+	 * Обрабатывает все файлы в пуле fork-join
+	 */
+	void processAll() {
+		if(!json) {
+			out.println("file,points,t1,t2,t3,t4,tg,tg_lo,tg_hi,v_tg,slope1,intercept1,n1,slope2,intercept2,n2,error");
+			out.flush();
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Task(0, files.size()));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Задача обработки диапазона файлов: делится пополам, пока не останется один файл
+	 */
+	private class Task extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int from, to;
+
+		Task(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from == 1) {
+				Result result = process(from);
+				String line = json ? toJson(result) : toCsv(result);
+				synchronized(out) {
+					out.println(line);
+					out.flush();
+				}
+			} else if(to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Task(from, mid), new Task(mid, to));
+			}
+		}
+	}
+
+	/**
+	 * Обрабатывает один набор данных или берет его результат из кэша
+	 *
+	 * @param index номер набора данных
+	 * @return результат обработки
+	 */
+	Result process(int index) {
+		File name = files.get(index);
+		byte[] key = cache == null ? null : cache.key(settings, merge ? replicas.get(index) : new File[] {name});
+		if(key != null) {
+			Result result = cache.get(key);
+			if(result != null) {
+				result.file = name;
+				return result;
+			}
+		}
+		Result result = merge ? analyse(name, replicas.get(index)) : analyse(name);
+		if(key != null && result.error == null)
+			cache.put(key, result);
+		return result;
+	}
+
+	/**
+	 * @return параметры обработки, от которых зависит результат, в каноническом текстовом виде
+	 */
+	String settings() {
+		StringBuilder sb = new StringBuilder("tg");
+		sb.append(";windows=").append(Arrays.toString(windows)).append(";fractional=").append(fractional);
+		sb.append(";auto=").append(auto).append(',').append(autoTrim).append(',').append(autoSteps);
+		sb.append(";estimator=").append(estimator.name()).append(";model=").append(model.name());
+		sb.append(";merge=").append(merge).append(',').append(mergeStep);
+		sb.append(";bootstrap=").append(bootstrap).append(";jackknife=").append(jackknife);
+		sb.append(";confidence=").append(confidence).append(";seed=").append(seed);
+		return sb.toString();
+	}
+
+	/**
+	 * Читает один файл и определяет температуру стеклования
+	 *
+	 * @param file файл с данными
+	 * @return результат обработки
+	 */
+	Result analyse(File file) {
+		Result result = new Result();
+		result.file = file;
+		try {
+			DataColumns data = DataFileParser.parse(file, 1);
+			data.trim();
+			result.points = data.size;
+			if(data.size < 2)
+				throw new IOException("not enough data points");
+
+			FitStatistics.sortByX(data.x, data.y);
+			analyse(result, new FitStatistics(data.x, data.y));
+
+		} catch(IOException | RuntimeException e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+			failed.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Сливает реплики одного набора данных на общую сетку температуры и определяет температуру стеклования.
+	 * Если хотя бы одну реплику не удалось прочитать, набор данных считается ошибочным
+	 *
+	 * @param name имя набора данных (аргумент командной строки)
+	 * @param replicas файлы реплик
+	 * @return результат обработки (количество точек - количество интервалов температуры)
+	 * @see ReplicaMerger
+	 */
+	Result analyse(File name, File[] replicas) {
+		Result result = new Result();
+		result.file = name;
+		try {
+			if(replicas.length == 0)
+				throw new IOException("no data files");
+			ReplicaMerger merger = new ReplicaMerger(replicas, mergeStep);
+			String report = merger.report();
+			if(report != null)
+				throw new IOException(report.replace('\n', ';'));
+			result.points = merger.size;
+			if(merger.size < 2)
+				throw new IOException("not enough data points");
+			analyse(result, new FitStatistics(merger.t, merger.volume, merger.weights));
+
+		} catch(IOException | RuntimeException e) {
+			result.error = e.getMessage() != null ? e.getMessage() : e.toString();
+			failed.incrementAndGet();
+		}
+		return result;
+	}
+
+	/**
+	 * Выбирает участки подгонки, подгоняет прямые и вычисляет доверительный интервал
+	 * (или подгоняет плавную модель перехода)
+	 *
+	 * @param result результат, в который записываются границы участков, подгонка и интервал
+	 * @param statistics накопленные статистики набора данных
+	 * @throws IOException если точек недостаточно для автоматического выбора участков
+	 */
+	private void analyse(Result result, FitStatistics statistics) throws IOException {
+		// Диапазон температуры - по конечным значениям, как в окне (NaN при сортировке оказываются в конце)
+		double[] range = ColumnKernels.range(statistics.x, statistics.from, statistics.to);
+		if(range[0] > range[1])
+			throw new IOException("no finite temperature values");
+		double min_t = range[0], max_t = range[1];
+		if(model != TransitionModel.LINES) {
+			// Плавная модель подгоняется ко всем точкам; границы - диапазон данных, разделенный Tg
+			result.fit = TransitionFit.fit(statistics, model);
+			if(result.fit == null)
+				throw new IOException("not enough data points for the " + model.label + " model");
+			result.refX = new double[] {min_t, result.fit.tg, result.fit.tg, max_t};
+			return;
+		}
+		result.refX = windows.clone();
+		if(auto) {
+			result.refX = BreakpointSearch.search(statistics, autoTrim, autoSteps);
+			if(result.refX == null)
+				throw new IOException("not enough data points for automatic windows");
+		} else if(fractional) {
+			// Границы в долях (min_t+max_t), как начальные положения граничных линий в окне
+			for(int k=0; k<4; k++) {
+				result.refX[k] = (min_t+max_t)*windows[k];
+			}
+		}
+		result.fit = TgFit.of(statistics, result.refX, new RobustFit(estimator));
+		if(bootstrap > 0) {
+			result.confidence = TgConfidence.bootstrap(statistics, result.refX, bootstrap, confidence, seed, new AtomicBoolean());
+		} else if(jackknife) {
+			result.confidence = TgConfidence.jackknife(statistics, result.refX, confidence);
+		}
+	}
+
+	String toCsv(Result r) {
+		StringBuilder sb = new StringBuilder();
+		String name = r.file.getPath();
+		if(name.indexOf(',') >= 0 || name.indexOf('"') >= 0)
+			name = '"' + name.replace("\"", "\"\"") + '"';
+		sb.append(name).append(',').append(r.points);
+		if(r.fit != null) {
+			for(double boundary : r.refX) {
+				sb.append(',').append(boundary);
+			}
+			sb.append(',').append(r.fit.tg);
+			if(r.confidence != null)
+				sb.append(',').append(r.confidence.lo).append(',').append(r.confidence.hi);
+			else
+				sb.append(",,");
+			sb.append(',').append(r.fit.v)
+				.append(',').append(r.fit.ab1[0]).append(',').append(r.fit.ab1[1]).append(',').append(r.fit.n1)
+				.append(',').append(r.fit.ab2[0]).append(',').append(r.fit.ab2[1]).append(',').append(r.fit.n2)
+				.append(',');
+		} else {
+			sb.append(",,,,,,,,,,,,,,,");
+			String error = r.error.replace("\"", "\"\"");
+			sb.append('"').append(error).append('"');
+		}
+		return sb.toString();
+	}
+
+	String toJson(Result r) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"file\":").append(jsonString(r.file.getPath()));
+		sb.append(",\"points\":").append(r.points);
+		if(r.fit != null) {
+			sb.append(",\"windows\":[").append(jsonNumber(r.refX[0]));
+			for(int k=1; k<r.refX.length; k++) {
+				sb.append(',').append(jsonNumber(r.refX[k]));
+			}
+			sb.append(']');
+			sb.append(",\"tg\":").append(jsonNumber(r.fit.tg));
+			if(r.confidence != null) {
+				sb.append(",\"tg_lo\":").append(jsonNumber(r.confidence.lo));
+				sb.append(",\"tg_hi\":").append(jsonNumber(r.confidence.hi));
+			}
+			sb.append(",\"v_tg\":").append(jsonNumber(r.fit.v));
+			sb.append(",\"slope1\":").append(jsonNumber(r.fit.ab1[0]));
+			sb.append(",\"intercept1\":").append(jsonNumber(r.fit.ab1[1]));
+			sb.append(",\"n1\":").append(r.fit.n1);
+			sb.append(",\"slope2\":").append(jsonNumber(r.fit.ab2[0]));
+			sb.append(",\"intercept2\":").append(jsonNumber(r.fit.ab2[1]));
+			sb.append(",\"n2\":").append(r.fit.n2);
+			if(model != TransitionModel.LINES) {
+				sb.append(",\"model\":").append(jsonString(model.label));
+				sb.append(",\"width\":").append(jsonNumber(r.fit.width));
+			}
+		} else {
+			sb.append(",\"error\":").append(jsonString(r.error));
+		}
+		return sb.append('}').toString();
+	}
+
+	static String jsonNumber(double v) {
+		return Double.isNaN(v) || Double.isInfinite(v) ? "null" : Double.toString(v);
+	}
+
+	static String jsonString(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for(int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if(c < 0x20)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	static double[] parseWindows(String value) {
+		String[] parts = value.split(",");
+		if(parts.length != 4)
+			throw new IllegalArgumentException("four window boundaries expected: " + value);
+		double[] windows = new double[4];
+		for(int k=0; k<4; k++) {
+			windows[k] = Double.parseDouble(parts[k].trim());
+		}
+		return windows;
+	}
+
+	/**
+	 * Находит файлы по аргументу командной строки: каталог (файлы *.dat и *.txt в нем, в том числе сжатые),
+	 * шаблон вида <code>runs/*&#47;cool_*.dat</code> или отдельный файл
+	 *
+	 * @param input аргумент командной строки
+	 * @return список файлов в алфавитном порядке
+	 * @throws IOException если каталог не удалось прочитать
+	 */
+	static List<File> resolve(String input) throws IOException {
+		File file = new File(input);
+		if(file.isDirectory()) {
+			try(Stream<Path> paths = Files.list(file.toPath())) {
+				return paths.filter(p -> Files.isRegularFile(p) && isDataFile(p.getFileName().toString()))
+						.sorted().map(Path::toFile).collect(Collectors.toList());
+			}
+		}
+		if(input.indexOf('*') < 0 && input.indexOf('?') < 0 && input.indexOf('[') < 0 && input.indexOf('{') < 0) {
+			return Collections.singletonList(file);
+		}
+
+		// Шаблон: обход каталога, предшествующего первому элементу пути с подстановочными символами
+		String normalized = input.replace('\\', '/');
+		String[] elements = normalized.split("/");
+		StringBuilder base = new StringBuilder();
+		int depth = 0;
+		for(String element : elements) {
+			if(element.indexOf('*') >= 0 || element.indexOf('?') >= 0 || element.indexOf('[') >= 0 || element.indexOf('{') >= 0)
+				break;
+			base.append(element).append('/');
+			depth++;
+		}
+		Path root = Paths.get(base.length() == 0 ? "." : base.toString());
+		boolean recursive = normalized.contains("**");
+		int maxDepth = recursive ? Integer.MAX_VALUE : elements.length - depth;
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalized);
+		boolean relative = base.length() == 0;
+		try(Stream<Path> paths = Files.walk(root, maxDepth)) {
+			return paths.filter(p -> Files.isRegularFile(p)
+					&& matcher.matches(relative ? root.relativize(p) : p))
+					.sorted().map(Path::toFile).collect(Collectors.toList());
+		}
+	}
+
+	static boolean isDataFile(String name) {
+		String lower = CompressedInput.stripSuffix(name).toLowerCase(Locale.ENGLISH);
+		return lower.endsWith(".dat") || lower.endsWith(".txt");
+	}
+}
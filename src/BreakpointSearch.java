@@ -0,0 +1,125 @@
+import java.util.stream.IntStream;
+
+/**
+ * <p>Автоматический выбор участков подгонки двух прямых</p>
+ * <p>Перебираются все точки разбиения данных на два участка, и выбирается разбиение с наименьшей
+ * суммой квадратов остатков двух прямых, подогнанных методом наименьших квадратов. Благодаря
+ * префиксным суммам ({@link FitStatistics#sse}) остаток каждого разбиения вычисляется за O(1), поэтому
+ * полный перебор занимает O(n) для каждого набора внешних границ.</p>
+ * <p>Дополнительно могут перебираться внешние границы: с каждого края отбрасывается от 0 до
+ * <code>maxTrim</code> доли точек. Разные наборы границ сравниваются по среднему квадрату остатка.
+ * Перебор делится на независимые части, которые выполняются параллельно.</p>
+ *
+ * @see Approximizer#autoFit
+ */
+class BreakpointSearch {
+
+	static final int MIN_POINTS = 3; // минимальное количество точек на участке
+	static final double MIN_SEGMENT = 0.05; // минимальная доля точек внешнего интервала на участке
+
+	/**
+	 * Лучшее найденное разбиение
+	 */
+	static class Candidate {
+		double cost = Double.POSITIVE_INFINITY; // средний квадрат остатка
+		int lo, split, hi; // внешние границы [lo, hi) и точка разбиения (индексы точек)
+
+		Candidate better(Candidate other) {
+			return other.cost < cost ? other : this;
+		}
+	}
+
+	/**
+	 * Находит оптимальные участки подгонки
+	 *
+	 * @param statistics накопленные статистики данных
+	 * @param maxTrim наибольшая доля точек, отбрасываемая с каждого края (0 - внешние границы не перебираются)
+	 * @param trimSteps количество шагов перебора внешних границ с каждого края
+	 * @return положения четырех граничных линий или null, если точек недостаточно
+	 */
+	static double[] search(FitStatistics statistics, double maxTrim, int trimSteps) {
+		DoubleColumn x = statistics.x;
+		int first = statistics.from, last = statistics.to;
+		while(last > first && Double.isNaN(x.get(last-1)))
+			last--;
+		final int end = last;
+		if(end - first < 2*MIN_POINTS)
+			return null;
+
+		int steps = maxTrim > 0 ? Math.max(1, trimSteps) : 0;
+		int configs = (steps+1)*(steps+1);
+		int blocks = Math.max(1, Runtime.getRuntime().availableProcessors()*4 / configs);
+
+		// Каждая задача - один набор внешних границ и часть точек разбиения
+		Candidate best = IntStream.range(0, configs*blocks).parallel()
+				.mapToObj(task -> {
+					int config = task / blocks;
+					int lo = trimmed(x, first, end, maxTrim, steps, config / (steps+1), false);
+					int hi = trimmed(x, first, end, maxTrim, steps, config % (steps+1), true);
+					return scan(statistics, lo, hi, task % blocks, blocks);
+				})
+				.reduce(new Candidate(), Candidate::better);
+
+		if(Double.isInfinite(best.cost))
+			return null;
+
+		double[] refX = new double[4];
+		refX[0] = best.lo == first ? Math.nextDown(x.get(first)) : (x.get(best.lo-1) + x.get(best.lo))/2;
+		refX[1] = refX[2] = (x.get(best.split-1) + x.get(best.split))/2;
+		refX[3] = best.hi == end ? Math.nextUp(x.get(end-1)) : (x.get(best.hi-1) + x.get(best.hi))/2;
+		return refX;
+	}
+
+	/**
+	 * Вычисляет внешнюю границу с учетом отброшенной доли точек.
+	 * Граница сдвигается так, чтобы не разделять точки с одинаковым x
+	 */
+	private static int trimmed(DoubleColumn x, int first, int end, double maxTrim, int steps, int step, boolean right) {
+		int n = end - first;
+		int trim = steps == 0 ? 0 : (int)Math.round(n*maxTrim*step/steps);
+		if(!right) {
+			int lo = first + Math.min(trim, n-1);
+			while(lo > first && x.get(lo-1) == x.get(lo))
+				lo--;
+			return lo;
+		} else {
+			int hi = end - Math.min(trim, n-1);
+			while(hi < end && x.get(hi-1) == x.get(hi))
+				hi++;
+			return hi;
+		}
+	}
+
+	/**
+	 * Перебирает часть точек разбиения внешнего интервала <code>[lo, hi)</code>
+	 *
+	 * @param block номер части
+	 * @param blocks количество частей
+	 */
+	private static Candidate scan(FitStatistics statistics, int lo, int hi, int block, int blocks) {
+		Candidate best = new Candidate();
+		int minSegment = Math.max(MIN_POINTS, (int)((hi - lo)*MIN_SEGMENT));
+		int first = lo + minSegment;
+		int last = hi - minSegment; // включительно
+		if(last < first)
+			return best;
+
+		long range = last - first + 1;
+		int from = first + (int)(range*block/blocks);
+		int to = first + (int)(range*(block+1)/blocks);
+		DoubleColumn x = statistics.x;
+		double dof = hi - lo - 4;
+		for(int k=from; k<to; k++) {
+			if(x.get(k-1) == x.get(k))
+				continue;
+			double cost = (statistics.sse(lo, k) + statistics.sse(k, hi))/dof;
+			if(cost < best.cost) {
+				best.cost = cost;
+				best.lo = lo;
+				best.split = k;
+				best.hi = hi;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,155 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Столбец из фрагментов фиксированного размера вне кучи</p>
+ * <p>Фрагменты размещаются либо в памяти вне кучи (<code>ByteBuffer.allocateDirect</code>), либо в отображенном
+ * в память временном файле. Во втором случае данные могут превышать размер оперативной памяти:
+ * неиспользуемые страницы вытесняются операционной системой на диск. Увеличение длины добавляет
+ * фрагменты без копирования имеющихся данных.</p>
+ * <p>Временный файл удаляется сразу после создания, если система это позволяет (данные доступны через
+ * открытый канал, место освобождается, когда канал закрыт и отображения сняты). Иначе файл удаляется,
+ * когда столбец становится недостижим. Файлы, оставшиеся после аварийного завершения программы,
+ * удаляются при первом обращении к классу.</p>
+ * <p>Каталог временных файлов задается свойством <code>approximizer.storage.dir</code>.</p>
+ *
+ * @see DoubleColumn
+ */
+class ChunkedColumn implements DoubleColumn {
+
+	static final int CHUNK_SHIFT = 20; // фрагмент - 2^20 чисел (8 МБ)
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	static final File DIRECTORY = new File(System.getProperty("approximizer.storage.dir",
+			System.getProperty("java.io.tmpdir")));
+	private static final Cleaner CLEANER = Cleaner.create();
+
+	static {
+		deleteStale();
+	}
+
+	final boolean mapped; // фрагменты в отображенном файле, иначе - в памяти вне кучи
+	int length; // количество элементов
+	DoubleBuffer[] chunks = new DoubleBuffer[0];
+	FileChannel channel; // канал временного файла отображенного столбца (закрывается, когда столбец недостижим)
+
+	/**
+	 * @param length количество элементов
+	 * @param mapped разместить фрагменты в отображенном временном файле
+	 */
+	ChunkedColumn(int length, boolean mapped) {
+		this.mapped = mapped;
+		resize(length);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public double get(int i) {
+		return chunks[i >>> CHUNK_SHIFT].get(i & CHUNK_MASK);
+	}
+
+	@Override
+	public void set(int i, double v) {
+		chunks[i >>> CHUNK_SHIFT].put(i & CHUNK_MASK, v);
+	}
+
+	@Override
+	public void move(int from, int to, int count) {
+		if(to > from) {
+			for(int i=count-1; i>=0; i--)
+				set(to+i, get(from+i));
+		} else {
+			for(int i=0; i<count; i++)
+				set(to+i, get(from+i));
+		}
+	}
+
+	@Override
+	public DoubleColumn resize(int length) {
+		int count = (int)(((long)length + CHUNK_MASK) >>> CHUNK_SHIFT);
+		if(count != chunks.length) {
+			DoubleBuffer[] resized = new DoubleBuffer[count];
+			System.arraycopy(chunks, 0, resized, 0, Math.min(count, chunks.length));
+			try {
+				for(int k=chunks.length; k<count; k++) {
+					resized[k] = allocateChunk(k);
+				}
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			chunks = resized;
+		}
+		this.length = length;
+		return this;
+	}
+
+	private DoubleBuffer allocateChunk(int k) throws IOException {
+		long bytes = (long)CHUNK_SIZE*Double.BYTES;
+		if(!mapped)
+			return ByteBuffer.allocateDirect((int)bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+
+		if(channel == null) {
+			Path path = Files.createTempFile(DIRECTORY.toPath(), "approximizer", ".column");
+			FileChannel opened = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			channel = opened;
+			// Открытый файл удаляется сразу там, где система это позволяет (в Windows - нет)
+			boolean deleted = path.toFile().delete();
+			CLEANER.register(this, () -> {
+				try {
+					opened.close();
+				} catch(IOException e) {
+					// Закрытие канала не влияет на данные
+				}
+				if(!deleted)
+					path.toFile().delete();
+			});
+		}
+		// Отображение остается действительным после закрытия канала
+		return channel.map(FileChannel.MapMode.READ_WRITE, k*bytes, bytes).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+
+	/**
+	 * Удаляет временные файлы столбцов, оставшиеся после аварийного завершения программы. Файлы работающих
+	 * процессов уже удалены или (в Windows) открыты и не удаляются
+	 */
+	private static void deleteStale() {
+		try(DirectoryStream<Path> stale = Files.newDirectoryStream(DIRECTORY.toPath(), "approximizer*.column")) {
+			for(Path path : stale) {
+				path.toFile().delete();
+			}
+		} catch(IOException | RuntimeException e) {
+			// Каталог недоступен: файлы будут удалены при следующем запуске
+		}
+	}
+
+	@Override
+	public int chunkCount() {
+		return chunks.length;
+	}
+
+	@Override
+	public int chunkStart(int k) {
+		return k << CHUNK_SHIFT;
+	}
+
+	@Override
+	public DoubleBuffer chunk(int k) {
+		DoubleBuffer chunk = chunks[k].duplicate();
+		chunk.limit(Math.min(CHUNK_SIZE, length - chunkStart(k)));
+		return chunk;
+	}
+}
@@ -0,0 +1,214 @@
+import java.nio.DoubleBuffer;
+
+/**
+ * <p>Проходы по столбцам данных при загрузке: деление на количество реплик с поиском диапазонов значений
+ * и сложение реплик</p>
+ * <p>Деление и поиск диапазонов обоих столбцов выполняются одним проходом. Внутренние циклы работают
+ * с массивами, а не с элементами буферов: сравнения в них компилируются в условные пересылки без ветвлений,
+ * а сложение реплик JIT-компилятор векторизует инструкциями SIMD. Фрагменты вне кучи копируются блоками
+ * во временные массивы, так что те же циклы используются для всех видов хранения.</p>
+ * <p>Диапазоны учитывают только конечные значения. Сравнения с NaN ложны, поэтому NaN пропускаются
+ * основным циклом. Бесконечности редки и не проверяются в нем: если найденный в блоке диапазон
+ * не конечен, блок просматривается повторно с пропуском таких значений.</p>
+ *
+ * @see Approximizer#loadFiles
+ * @see ReplicaLoader
+ */
+class ColumnKernels {
+
+	static final int BLOCK = 1 << 12; // размер блока при копировании фрагментов вне кучи
+
+	/**
+	 * Делит значения двух столбцов на число и находит диапазоны конечных значений обоих столбцов
+	 *
+	 * @param x первый столбец
+	 * @param y второй столбец (того же вида и длины)
+	 * @param divisor делитель (при делителе 1 столбцы не изменяются)
+	 * @return <code>{min x, max x, min y, max y}</code>; если конечных значений нет -
+	 * <code>{+∞, -∞, +∞, -∞}</code>
+	 */
+	static double[] divideAndRange(DoubleColumn x, DoubleColumn y, double divisor) {
+		if(x.getClass() != y.getClass() || x.length() != y.length())
+			throw new IllegalArgumentException("columns of different storage or length");
+		double[] range = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		double[] bx = null, by = null;
+		for(int k=0; k<x.chunkCount(); k++) {
+			DoubleBuffer xc = x.chunk(k), yc = y.chunk(k);
+			int n = xc.limit();
+			if(xc.hasArray() && yc.hasArray()) {
+				divideAndRange(xc.array(), xc.arrayOffset(), yc.array(), yc.arrayOffset(), n, divisor, range);
+				continue;
+			}
+			if(bx == null) {
+				bx = new double[BLOCK];
+				by = new double[BLOCK];
+			}
+			for(int j=0; j<n; j+=BLOCK) {
+				int len = Math.min(BLOCK, n - j);
+				xc.position(j);
+				xc.get(bx, 0, len);
+				yc.position(j);
+				yc.get(by, 0, len);
+				divideAndRange(bx, 0, by, 0, len, divisor, range);
+				if(divisor != 1) {
+					xc.position(j);
+					xc.put(bx, 0, len);
+					yc.position(j);
+					yc.put(by, 0, len);
+				}
+			}
+		}
+		return range;
+	}
+
+	/**
+	 * Находит диапазон конечных значений столбца на интервале индексов
+	 *
+	 * @param column столбец
+	 * @param from индекс первого элемента
+	 * @param to индекс, следующий за последним элементом
+	 * @return <code>{min, max}</code>; если конечных значений нет - <code>{+∞, -∞}</code>
+	 */
+	static double[] range(DoubleColumn column, int from, int to) {
+		double[] range = {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		double[] block = null;
+		for(int k=0; k<column.chunkCount(); k++) {
+			int start = column.chunkStart(k);
+			DoubleBuffer chunk = column.chunk(k);
+			int lo = Math.max(0, from - start), hi = Math.min(chunk.limit(), to - start);
+			if(lo >= hi)
+				continue;
+			if(chunk.hasArray()) {
+				range(chunk.array(), chunk.arrayOffset() + lo, hi - lo, range);
+				continue;
+			}
+			if(block == null)
+				block = new double[BLOCK];
+			for(int j=lo; j<hi; j+=BLOCK) {
+				int len = Math.min(BLOCK, hi - j);
+				chunk.position(j);
+				chunk.get(block, 0, len);
+				range(block, 0, len, range);
+			}
+		}
+		return range;
+	}
+
+	/**
+	 * Прибавляет к каждому элементу столбца <code>sum</code> соответствующий элемент столбца <code>values</code>
+	 * (длина <code>values</code> может быть больше, вид хранения столбцов может различаться)
+	 *
+	 * @param sum столбец сумм
+	 * @param values прибавляемые значения
+	 */
+	static void add(DoubleColumn sum, DoubleColumn values) {
+		double[] bs = null, bv = null;
+		int v = 0; // номер фрагмента values, содержащего текущий элемент
+		for(int k=0; k<sum.chunkCount(); k++) {
+			int start = sum.chunkStart(k);
+			DoubleBuffer sc = sum.chunk(k);
+			int n = sc.limit();
+
+			// Фрагмент сумм может пересекаться с несколькими фрагментами values
+			for(int j=0; j<n; ) {
+				while(values.chunkStart(v) + values.chunk(v).limit() <= start + j)
+					v++;
+				DoubleBuffer vc = values.chunk(v);
+				int vo = start + j - values.chunkStart(v);
+				int len = Math.min(n - j, vc.limit() - vo);
+				if(sc.hasArray() && vc.hasArray()) {
+					add(sc.array(), sc.arrayOffset() + j, vc.array(), vc.arrayOffset() + vo, len);
+				} else {
+					if(bs == null) {
+						bs = new double[BLOCK];
+						bv = new double[BLOCK];
+					}
+					for(int i=0; i<len; i+=BLOCK) {
+						int m = Math.min(BLOCK, len - i);
+						sc.position(j + i);
+						sc.get(bs, 0, m);
+						vc.position(vo + i);
+						vc.get(bv, 0, m);
+						add(bs, 0, bv, 0, m);
+						sc.position(j + i);
+						sc.put(bs, 0, m);
+					}
+				}
+				j += len;
+			}
+		}
+	}
+
+	/**
+	 * Делит элементы массивов и расширяет диапазоны
+	 */
+	private static void divideAndRange(double[] x, int xo, double[] y, int yo, int n, double divisor, double[] range) {
+		double minX = Double.POSITIVE_INFINITY, maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		if(divisor != 1) {
+			for(int i=0; i<n; i++) {
+				double a = x[xo+i] / divisor, b = y[yo+i] / divisor;
+				x[xo+i] = a;
+				y[yo+i] = b;
+				minX = a < minX ? a : minX;
+				maxX = a > maxX ? a : maxX;
+				minY = b < minY ? b : minY;
+				maxY = b > maxY ? b : maxY;
+			}
+		} else {
+			for(int i=0; i<n; i++) {
+				double a = x[xo+i], b = y[yo+i];
+				minX = a < minX ? a : minX;
+				maxX = a > maxX ? a : maxX;
+				minY = b < minY ? b : minY;
+				maxY = b > maxY ? b : maxY;
+			}
+		}
+		if(Double.isFinite(minX) && Double.isFinite(maxX) && Double.isFinite(minY) && Double.isFinite(maxY)) {
+			range[0] = Math.min(range[0], minX);
+			range[1] = Math.max(range[1], maxX);
+			range[2] = Math.min(range[2], minY);
+			range[3] = Math.max(range[3], maxY);
+		} else {
+			// В блоке есть бесконечности или нет ни одного числа
+			finiteRange(x, xo, n, range, 0);
+			finiteRange(y, yo, n, range, 2);
+		}
+	}
+
+	/**
+	 * Расширяет диапазон значениями массива
+	 */
+	private static void range(double[] a, int offset, int n, double[] range) {
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for(int i=offset, end=offset+n; i<end; i++) {
+			double v = a[i];
+			min = v < min ? v : min;
+			max = v > max ? v : max;
+		}
+		if(Double.isFinite(min) && Double.isFinite(max)) {
+			range[0] = Math.min(range[0], min);
+			range[1] = Math.max(range[1], max);
+		} else {
+			finiteRange(a, offset, n, range, 0);
+		}
+	}
+
+	/**
+	 * Расширяет диапазон <code>range[at], range[at+1]</code> конечными значениями массива
+	 */
+	private static void finiteRange(double[] a, int offset, int n, double[] range, int at) {
+		for(int i=offset, end=offset+n; i<end; i++) {
+			if(Double.isFinite(a[i])) {
+				range[at] = Math.min(range[at], a[i]);
+				range[at+1] = Math.max(range[at+1], a[i]);
+			}
+		}
+	}
+
+	private static void add(double[] s, int so, double[] v, int vo, int n) {
+		for(int i=0; i<n; i++) {
+			s[so+i] += v[vo+i];
+		}
+	}
+}
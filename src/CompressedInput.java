@@ -0,0 +1,444 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Чтение сжатых файлов с данными (<code>.gz</code>, <code>.xz</code>, <code>.zst</code>)</p>
+ * <p>Формат определяется по первым байтам файла. Распаковка выполняется в отдельном потоке и передает
+ * разбору блоки распакованного текста через ограниченную очередь, поэтому распаковка и разбор идут
+ * одновременно, а память ограничена несколькими блоками. Строка, разрезанная границей блоков,
+ * собирается в отдельном небольшом буфере; сами блоки разбираются на месте, без копирования.</p>
+ * <p>gzip распаковывается средствами JVM. Если файл состоит из членов BGZF (<code>bgzip</code>: каждый член
+ * не длиннее 64 КБ и хранит свою длину в заголовке), границы членов известны без распаковки, и группы
+ * членов распаковываются параллельно в общем пуле fork-join с сохранением порядка. xz и zstd
+ * распаковываются внешними программами <code>xz</code> и <code>zstd</code> (многопоточная распаковка
+ * многоблочных файлов xz - средствами самой программы).</p>
+ *
+ * @see DataFileParser#parse
+ */
+class CompressedInput {
+
+	static final int BLOCK_SIZE = 1 << 20; // размер блока распакованных данных
+	static final int QUEUE_SIZE = 4; // количество распакованных блоков, ожидающих разбора
+	static final int BGZF_MAX_MEMBER = 1 << 16; // наибольший размер члена BGZF до и после сжатия
+	static final int BGZF_MEMBERS = BLOCK_SIZE / BGZF_MAX_MEMBER; // количество членов BGZF в одном блоке
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0); // признак конца данных в очереди
+
+	/**
+	 * Поддерживаемые форматы сжатия
+	 */
+	enum Format {
+		GZIP(".gz", null, 0x1f, 0x8b),
+		XZ(".xz", new String[] {"xz", "-dc", "-T0"}, 0xfd, '7', 'z', 'X', 'Z', 0x00),
+		ZSTD(".zst", new String[] {"zstd", "-dcq"}, 0x28, 0xb5, 0x2f, 0xfd);
+
+		final String suffix; // расширение файла
+		final String[] command; // внешняя программа распаковки в стандартный вывод или null
+		final byte[] magic; // первые байты файла
+
+		Format(String suffix, String[] command, int... magic) {
+			this.suffix = suffix;
+			this.command = command;
+			this.magic = new byte[magic.length];
+			for(int i=0; i<magic.length; i++) {
+				this.magic[i] = (byte)magic[i];
+			}
+		}
+	}
+
+	/**
+	 * Определяет формат сжатия по первым байтам файла
+	 *
+	 * @param file файл с данными
+	 * @return формат сжатия или null, если файл не сжат или не читается
+	 */
+	static Format formatOf(File file) {
+		byte[] head = new byte[6];
+		int read = 0;
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.wrap(head);
+			while(buf.hasRemaining() && channel.read(buf) > 0);
+			read = buf.position();
+		} catch(IOException e) {
+			return null;
+		}
+		for(Format format : Format.values()) {
+			if(read >= format.magic.length && Arrays.equals(Arrays.copyOf(head, format.magic.length), format.magic))
+				return format;
+		}
+		return null;
+	}
+
+	/**
+	 * @param files файлы с данными
+	 * @return true, если хотя бы один из файлов сжат
+	 */
+	static boolean anyCompressed(File[] files) {
+		for(File file : files) {
+			if(formatOf(file) != null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param name имя файла
+	 * @return имя файла без расширения формата сжатия (<code>run.dat.gz</code> - <code>run.dat</code>)
+	 */
+	static String stripSuffix(String name) {
+		String lower = name.toLowerCase(Locale.ENGLISH);
+		for(Format format : Format.values()) {
+			if(lower.endsWith(format.suffix))
+				return name.substring(0, name.length() - format.suffix.length());
+		}
+		return name;
+	}
+
+	/**
+	 * Распаковывает и разбирает сжатый файл
+	 *
+	 * @param file файл с данными
+	 * @param format формат сжатия
+	 * @param parallelism желаемое количество параллельно распаковываемых групп членов BGZF
+	 * @return прочитанные столбцы
+	 * @throws IOException при ошибке чтения, распаковки или неверном формате данных
+	 */
+	static DataColumns parse(File file, Format format, int parallelism) throws IOException {
+		// Вызов из потока пула fork-join: задачи распаковки в общем пуле могли бы ждать освобождения этого потока
+		if(ForkJoinTask.inForkJoinPool())
+			parallelism = 1;
+		final int tasks = parallelism;
+		Pipe pipe = new Pipe(QUEUE_SIZE + Math.max(1, parallelism));
+		Thread decoder = new Thread(() -> {
+			try {
+				if(format == Format.GZIP)
+					decodeGzip(file, tasks, pipe);
+				else
+					decodeExternal(file, format, pipe);
+				pipe.put(END);
+			} catch(InterruptedException e) {
+				// Разбор прерван: никто не ждет данных
+			} catch(IOException | RuntimeException e) {
+				String message = e.getMessage() != null ? e.getMessage() : e.toString();
+				pipe.fail(message.startsWith(file.getName()) ? e : new IOException(file.getName() + ": " + message, e));
+			}
+		}, "decoder " + file.getName());
+		decoder.setDaemon(true);
+		decoder.start();
+		try {
+			return parse(pipe, file.getName());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Reading of " + file.getName() + " was interrupted", e);
+		} finally {
+			decoder.interrupt();
+		}
+	}
+
+	/**
+	 * Разбирает блоки из очереди в порядке поступления
+	 */
+	private static DataColumns parse(Pipe pipe, String source) throws IOException, InterruptedException {
+		DataColumns data = new DataColumns(1 << 16);
+		DataFileParser parser = new DataFileParser(source, 0);
+		ByteBuffer tail = ByteBuffer.allocate(DataFileParser.MAX_LINE_LENGTH); // начало строки, разрезанной границей блоков
+		long offset = 0; // смещение начала текущего блока в распакованных данных
+		while(true) {
+			ByteBuffer block = pipe.take();
+			if(block == END)
+				break;
+			int limit = block.limit();
+			int pos = 0;
+
+			// Дописать к незаконченной строке начало блока до конца строки
+			if(tail.position() > 0) {
+				while(pos < limit && block.get(pos) != '\n')
+					pos++;
+				if(pos < limit)
+					pos++;
+				if(pos > tail.remaining())
+					throw new IOException(String.format("%s: line at byte %d is too long", source, offset - tail.position()));
+				tail.put(block.duplicate().position(0).limit(pos));
+				if(tail.get(tail.position()-1) == '\n') {
+					parser.baseOffset = offset - (tail.position() - pos);
+					parser.parseLines(tail, 0, tail.position(), tail.position(), true, data);
+					tail.clear();
+				}
+			}
+
+			// Разобрать целые строки блока, остаток перенести в начало следующей строки
+			if(tail.position() == 0) {
+				parser.baseOffset = offset;
+				pos = parser.parseLines(block, pos, limit, limit, false, data);
+				if(limit - pos > tail.capacity())
+					throw new IOException(String.format("%s: line at byte %d is too long", source, offset + pos));
+				tail.put(block.duplicate().position(pos).limit(limit));
+			}
+			offset += limit;
+			pipe.recycle(block);
+		}
+
+		// Последняя строка без символа конца строки
+		if(tail.position() > 0) {
+			parser.baseOffset = offset - tail.position();
+			parser.parseLines(tail, 0, tail.position(), tail.position(), true, data);
+		}
+		return data;
+	}
+
+	/**
+	 * Распаковывает gzip: члены BGZF - параллельно, остальные члены - последовательно
+	 */
+	private static void decodeGzip(File file, int parallelism, Pipe pipe) throws IOException, InterruptedException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			long offset = 0;
+			ArrayDeque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+			ByteBuffer header = ByteBuffer.allocate(18);
+			while(offset < size) {
+
+				// Найти границы следующей группы членов BGZF по их заголовкам
+				long start = offset;
+				int members = 0;
+				while(members < BGZF_MEMBERS && offset < size) {
+					int length = bgzfLength(channel, offset, header);
+					if(length < 0)
+						break;
+					offset += length;
+					members++;
+				}
+				if(offset > size)
+					throw new IOException(file.getName() + ": file was truncated");
+				if(members == 0)
+					break;
+
+				ByteBuffer compressed = ByteBuffer.allocate((int)(offset - start));
+				while(compressed.hasRemaining() && channel.read(compressed, start + compressed.position()) > 0);
+				ByteBuffer out = pipe.obtain();
+				if(parallelism <= 1) {
+					pipe.put(inflateMembers(file, start, compressed.array(), members, out));
+					continue;
+				}
+				final int count = members;
+				pending.add(ForkJoinPool.commonPool().submit(() -> inflateMembers(file, start, compressed.array(), count, out)));
+				while(pending.size() >= parallelism)
+					pipe.put(result(pending.remove()));
+			}
+			while(!pending.isEmpty())
+				pipe.put(result(pending.remove()));
+
+			// Обычный gzip или члены без длины в заголовке: распаковать оставшуюся часть подряд
+			if(offset < size) {
+				channel.position(offset);
+				decodeStream(new GZIPInputStream(Channels.newInputStream(channel), 1 << 16), pipe);
+			}
+		}
+	}
+
+	/**
+	 * Читает заголовок члена gzip и находит в нем поле BGZF с длиной члена
+	 *
+	 * @return длина члена или -1, если это не член BGZF
+	 */
+	private static int bgzfLength(FileChannel channel, long offset, ByteBuffer header) throws IOException {
+		header.clear();
+		while(header.hasRemaining() && channel.read(header, offset + header.position()) > 0);
+		if(header.hasRemaining())
+			return -1;
+		// ID1 ID2 CM FLG MTIME(4) XFL OS XLEN(2), затем подполе SI1='B' SI2='C' SLEN=2 BSIZE(2)
+		if((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b || header.get(2) != 8 || (header.get(3) & 4) == 0)
+			return -1;
+		if(header.get(12) != 'B' || header.get(13) != 'C' || header.get(14) != 2 || header.get(15) != 0)
+			return -1;
+		return (header.get(16) & 0xff | (header.get(17) & 0xff) << 8) + 1;
+	}
+
+	/**
+	 * Распаковывает подряд идущие члены BGZF в блок, проверяя их контрольные суммы
+	 */
+	private static ByteBuffer inflateMembers(File file, long offset, byte[] compressed, int members, ByteBuffer out) throws IOException {
+		byte[] array = out.array();
+		int written = 0;
+		int p = 0;
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+		try {
+			for(int m=0; m<members; m++) {
+				int length = (compressed[p+16] & 0xff | (compressed[p+17] & 0xff) << 8) + 1;
+				int xlen = compressed[p+10] & 0xff | (compressed[p+11] & 0xff) << 8;
+				int data = p + 12 + xlen;
+				int trailer = p + length - 8;
+				int expected = readInt(compressed, trailer + 4);
+				if(data > trailer || expected < 0 || expected > array.length - written)
+					throw new IOException(file.getName() + ": invalid BGZF block at byte " + (offset + p));
+
+				inflater.reset();
+				inflater.setInput(compressed, data, trailer - data);
+				int n = 0;
+				while(n < expected && !inflater.finished()) {
+					int k = inflater.inflate(array, written + n, expected - n);
+					if(k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					n += k;
+				}
+				crc.reset();
+				crc.update(array, written, n);
+				if(n != expected || (int)crc.getValue() != readInt(compressed, trailer))
+					throw new IOException(file.getName() + ": corrupted BGZF block at byte " + (offset + p));
+				written += n;
+				p += length;
+			}
+		} catch(DataFormatException e) {
+			throw new IOException(file.getName() + ": corrupted BGZF block at byte " + (offset + p), e);
+		} finally {
+			inflater.end();
+		}
+		out.clear();
+		out.limit(written);
+		return out;
+	}
+
+	private static int readInt(byte[] b, int p) {
+		return b[p] & 0xff | (b[p+1] & 0xff) << 8 | (b[p+2] & 0xff) << 16 | (b[p+3] & 0xff) << 24;
+	}
+
+	private static ByteBuffer result(Future<ByteBuffer> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch(ExecutionException e) {
+			// Общий пул заворачивает исключения задачи в RuntimeException
+			for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+				if(cause instanceof IOException)
+					throw (IOException)cause;
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Распаковывает файл внешней программой, читая ее стандартный вывод
+	 */
+	private static void decodeExternal(File file, Format format, Pipe pipe) throws IOException, InterruptedException {
+		String[] command = Arrays.copyOf(format.command, format.command.length + 1);
+		command[command.length-1] = file.getPath();
+		Process process;
+		try {
+			process = new ProcessBuilder(command).start();
+		} catch(IOException e) {
+			throw new IOException(file.getName() + ": " + command[0] + " is required to read " + format.suffix + " files", e);
+		}
+		try {
+			process.getOutputStream().close();
+			decodeStream(process.getInputStream(), pipe);
+			String error = new String(process.getErrorStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+			if(process.waitFor() != 0) {
+				int eol = error.indexOf('\n');
+				throw new IOException(file.getName() + ": " + (error.isEmpty() ? command[0] + " failed"
+						: eol < 0 ? error : error.substring(0, eol)));
+			}
+		} finally {
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Читает поток распакованных данных блоками
+	 */
+	private static void decodeStream(InputStream in, Pipe pipe) throws IOException, InterruptedException {
+		try(InputStream stream = in) {
+			while(true) {
+				ByteBuffer out = pipe.obtain();
+				byte[] array = out.array();
+				int n = 0, k;
+				while(n < array.length && (k = stream.read(array, n, array.length - n)) > 0)
+					n += k;
+				if(n == 0) {
+					pipe.recycle(out);
+					return;
+				}
+				out.clear();
+				out.limit(n);
+				pipe.put(out);
+				if(Thread.interrupted())
+					throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Очередь блоков между потоками распаковки и разбора и запас свободных блоков для повторного использования
+	 */
+	private static class Pipe {
+		final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(QUEUE_SIZE + 1);
+		final BlockingQueue<ByteBuffer> free;
+		final int capacity; // наибольшее количество блоков
+		int allocated; // количество созданных блоков (изменяется только потоком распаковки)
+		volatile Exception error; // ошибка распаковки
+
+		Pipe(int capacity) {
+			this.capacity = capacity;
+			free = new ArrayBlockingQueue<>(capacity);
+		}
+
+		/**
+		 * Возвращает свободный блок, при необходимости ожидая, пока разбор освободит один из блоков
+		 */
+		ByteBuffer obtain() throws InterruptedException {
+			ByteBuffer buf = free.poll();
+			if(buf != null)
+				return buf;
+			if(allocated < capacity) {
+				allocated++;
+				return ByteBuffer.allocate(BLOCK_SIZE);
+			}
+			return free.take();
+		}
+
+		void recycle(ByteBuffer buf) {
+			free.offer(buf);
+		}
+
+		void put(ByteBuffer buf) throws InterruptedException {
+			full.put(buf);
+		}
+
+		/**
+		 * Передает разбору ошибку распаковки вместо следующего блока
+		 */
+		void fail(Exception e) {
+			error = e;
+			full.clear();
+			full.offer(END);
+		}
+
+		ByteBuffer take() throws IOException, InterruptedException {
+			ByteBuffer buf = full.take();
+			Exception e = error;
+			if(buf == END && e != null) {
+				if(e instanceof IOException)
+					throw (IOException)e;
+				throw new IOException(e.toString(), e);
+			}
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Двоичный кэш прочитанных файлов с данными</p>
+ * <p>После первого разбора текстового файла рядом с ним записывается файл <code>имя.apxc</code>:
+ * заголовок с размером, временем изменения и контрольной суммой исходного файла, количеством точек
+ * и их крайними конечными значениями, затем столбцы температуры и объема (числа double, порядок байтов
+ * little-endian). При следующем открытии кэш отображается в память и копируется в столбцы без разбора текста,
+ * а крайние значения возвращаются вместе со столбцами, так что для одного файла их не нужно искать заново.</p>
+ * <p>Если исходный файл изменился (другие размер, время изменения или контрольная сумма), кэш считается
+ * устаревшим и перестраивается. Контрольная сумма берется только по началу и концу файла (см. {@link #hash}),
+ * поэтому изменение в середине файла без изменения размера и времени изменения (например, копирование
+ * с сохранением времени <code>cp -p</code> или <code>rsync -t</code>) не обнаруживается: в этом случае
+ * файл кэша нужно удалить. Ошибки записи кэша (например, каталог только для чтения) не считаются
+ * ошибками чтения данных: файл просто разбирается при каждом открытии.</p>
+ *
+ * @see ReplicaLoader
+ */
+class DataCache {
+
+	static final String EXTENSION = ".apxc";
+	static final int MAGIC = 0x43585041; // "APXC"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 72;
+	static final int SAMPLE_SIZE = 1 << 16; // размер начала и конца файла, по которым вычисляется контрольная сумма
+
+	/**
+	 * Читает файл с данными из кэша, а если кэш отсутствует или устарел - разбирает файл и записывает кэш
+	 *
+	 * @param file файл с данными
+	 * @param parallelism желаемое количество параллельно разбираемых фрагментов
+	 * @return прочитанные столбцы
+	 * @throws IOException при ошибке чтения или неверном формате данных
+	 */
+	static DataColumns load(File file, int parallelism) throws IOException {
+		File sidecar = sidecarOf(file);
+		Instrumentation.LoadFileEvent event = new Instrumentation.LoadFileEvent();
+		event.begin();
+		long start = System.nanoTime();
+
+		// Атрибуты исходного файла запоминаются до разбора: если файл изменится во время разбора,
+		// записанный кэш окажется устаревшим при следующем открытии
+		long size = file.length();
+		long modified = file.lastModified();
+		long hash;
+		try {
+			hash = hash(file, size);
+		} catch(IOException e) {
+			// Файл изменяется прямо сейчас: прочитать его без кэша
+			return DataFileParser.parse(file, parallelism);
+		}
+
+		DataColumns data = read(sidecar, size, modified, hash);
+		if(data != null) {
+			Instrumentation.fileLoaded(event, file, data, true, System.nanoTime() - start);
+			return data;
+		}
+
+		data = DataFileParser.parse(file, parallelism);
+		if(data.bytes == size) {
+			try {
+				write(sidecar, data, size, modified, hash);
+			} catch(IOException e) {
+				sidecar.delete();
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * @param file файл с данными
+	 * @return файл кэша для этого файла
+	 */
+	static File sidecarOf(File file) {
+		return new File(file.getPath() + EXTENSION);
+	}
+
+	/**
+	 * Контрольная сумма начала и конца файла (CRC32). Вместе с размером и временем изменения
+	 * позволяет обнаружить изменение файла без его полного чтения. Это отпечаток файла, а не хэш содержимого:
+	 * изменение в середине файла того же размера и с тем же временем изменения он не обнаруживает
+	 */
+	static long hash(File file, long size) throws IOException {
+		CRC32 crc = new CRC32();
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate((int)Math.min(size, 2*SAMPLE_SIZE));
+			if(size <= 2*SAMPLE_SIZE) {
+				readFully(channel, buf, 0);
+			} else {
+				buf.limit(SAMPLE_SIZE);
+				readFully(channel, buf, 0);
+				buf.limit(2*SAMPLE_SIZE);
+				readFully(channel, buf, size - SAMPLE_SIZE);
+			}
+			buf.flip();
+			crc.update(buf);
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Читает столбцы из кэша
+	 *
+	 * @return прочитанные столбцы или null, если кэш отсутствует, поврежден или устарел
+	 */
+	static DataColumns read(File sidecar, long size, long modified, long hash) {
+		if(!sidecar.isFile())
+			return null;
+		try(FileChannel channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			if(length < HEADER_SIZE)
+				return null;
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION
+					|| buf.getLong(8) != size || buf.getLong(16) != modified || buf.getLong(24) != hash)
+				return null;
+			int count = buf.getInt(32);
+			if(count < 0 || length != HEADER_SIZE + 16L*count)
+				return null;
+
+			DataColumns data = new DataColumns(count);
+			data.size = count;
+			data.trim();
+			buf.position(HEADER_SIZE);
+			DoubleBuffer columns = buf.asDoubleBuffer();
+			for(DoubleColumn column : new DoubleColumn[] {data.x, data.y}) {
+				for(int k=0; k<column.chunkCount(); k++) {
+					DoubleBuffer chunk = column.chunk(k);
+					columns.limit(columns.position() + chunk.limit());
+					chunk.put(columns);
+				}
+			}
+			data.bytes = size;
+			data.range = new double[] {buf.getDouble(40), buf.getDouble(48), buf.getDouble(56), buf.getDouble(64)};
+			return data;
+		} catch(IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Записывает столбцы в кэш. Кэш сначала записывается во временный файл и затем переименовывается,
+	 * поэтому одновременно читающий процесс не увидит частично записанный кэш
+	 */
+	static void write(File sidecar, DataColumns data, long size, long modified, long hash) throws IOException {
+		// Крайние значения (NaN и бесконечности не учитываются)
+		double[] t = ColumnKernels.range(data.x, 0, data.size), v = ColumnKernels.range(data.y, 0, data.size);
+
+		Path target = sidecar.toPath();
+		Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), sidecar.getName(), ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+				buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(modified).putLong(hash)
+					.putInt(data.size).putInt(0)
+					.putDouble(t[0]).putDouble(t[1]).putDouble(v[0]).putDouble(v[1]);
+				for(DoubleColumn column : new DoubleColumn[] {data.x, data.y}) {
+					for(int j=0; j<data.size; j++) {
+						if(!buf.hasRemaining()) {
+							buf.flip();
+							writeFully(channel, buf);
+							buf.clear();
+						}
+						buf.putDouble(column.get(j));
+					}
+				}
+				buf.flip();
+				writeFully(channel, buf);
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while(buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if(n < 0)
+				throw new IOException("unexpected end of file");
+			position += n;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+		while(buf.hasRemaining())
+			channel.write(buf);
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * <p>Пара растущих столбцов данных (температура и объем)</p>
+ * <p>Используется при чтении файлов, когда количество строк заранее неизвестно:
+ * емкость удваивается по мере заполнения, поэтому добавление точки в среднем занимает O(1)
+ * и не требует отдельного прохода для подсчета строк. Вид хранения столбцов выбирается
+ * {@link DoubleColumn#allocate}: длинные столбцы не занимают кучу.</p>
+ */
+class DataColumns {
+
+	DoubleColumn x, y; // столбцы данных; заполнены первые size элементов
+	int size; // количество прочитанных точек
+	long bytes; // размер прочитанного файла в байтах
+	double[] range; // крайние конечные значения {min x, max x, min y, max y}, если известны (из кэша), иначе null
+
+	/**
+	 * @param capacity начальная емкость столбцов
+	 */
+	DataColumns(int capacity) {
+		capacity = Math.max(capacity, 16);
+		x = DoubleColumn.allocate(capacity);
+		y = DoubleColumn.allocate(capacity);
+		size = 0;
+	}
+
+	/**
+	 * Добавляет точку в конец столбцов
+	 *
+	 * @param xv значение по оси абсцисс
+	 * @param yv значение по оси ординат
+	 */
+	void add(double xv, double yv) {
+		if(size == x.length()) {
+			ensureCapacity(size+1);
+		}
+		x.set(size, xv);
+		y.set(size, yv);
+		size++;
+	}
+
+	/**
+	 * Добавляет все точки другого набора столбцов в конец этого
+	 *
+	 * @param other добавляемые столбцы
+	 */
+	void addAll(DataColumns other) {
+		ensureCapacity(size + other.size);
+		DoubleColumn.copy(other.x, 0, x, size, other.size);
+		DoubleColumn.copy(other.y, 0, y, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * Обеспечивает емкость столбцов не меньше заданной
+	 *
+	 * @param capacity требуемая емкость
+	 */
+	void ensureCapacity(int capacity) {
+		if(capacity > x.length()) {
+			int newCapacity = (int)Math.min(Integer.MAX_VALUE - 8, Math.max((long)capacity, x.length()*2L));
+			x = x.resize(newCapacity);
+			y = y.resize(newCapacity);
+		}
+	}
+
+	/**
+	 * Обрезает столбцы до количества прочитанных точек
+	 */
+	void trim() {
+		if(x.length() != size) {
+			x = x.resize(size);
+			y = y.resize(size);
+		}
+	}
+}
@@ -0,0 +1,352 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Чтение текстовых файлов с данными (два столбца: температура и объем)</p>
+ * <p>Файл отображается в память и делится на фрагменты, выровненные по границам строк.
+ * Фрагменты разбираются параллельно, числа читаются непосредственно из байтов без создания
+ * строк и промежуточных объектов. Строки-комментарии и пустые строки пропускаются.
+ * Сжатые файлы распаковываются и разбираются потоком ({@link CompressedInput}).</p>
+ * <p>Экземпляр класса хранит состояние разбора одного фрагмента и не является потокобезопасным.</p>
+ *
+ * @see Approximizer#loadFiles
+ */
+class DataFileParser {
+
+	static final long MIN_CHUNK_SIZE = 1 << 20; // минимальный размер фрагмента для параллельного разбора
+	static final long MAX_CHUNK_SIZE = 1 << 28; // максимальный размер фрагмента (ограничение отображения в память)
+	static final int MAX_LINE_LENGTH = 1 << 20; // максимальная длина строки
+
+	// Точные степени десяти, представимые в double
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	String source; // имя источника данных для сообщений об ошибках
+	long baseOffset; // смещение начала буфера от начала источника
+	double value; // последнее прочитанное число
+
+	/**
+	 * @param source имя источника данных для сообщений об ошибках
+	 * @param baseOffset смещение начала буфера от начала источника
+	 */
+	DataFileParser(String source, long baseOffset) {
+		this.source = source;
+		this.baseOffset = baseOffset;
+	}
+
+	/**
+	 * Читает файл с данными, разбивая его на фрагменты и разбирая их параллельно
+	 *
+	 * @param file файл с данными
+	 * @param parallelism желаемое количество параллельно разбираемых фрагментов
+	 * @return прочитанные столбцы
+	 * @throws IOException при ошибке чтения или неверном формате данных
+	 */
+	static DataColumns parse(File file, int parallelism) throws IOException {
+		Instrumentation.LoadFileEvent event = new Instrumentation.LoadFileEvent();
+		event.begin();
+		long start = System.nanoTime();
+		CompressedInput.Format format = CompressedInput.formatOf(file);
+		DataColumns data;
+		if(format != null) {
+			long size = file.length();
+			data = CompressedInput.parse(file, format, parallelism);
+			data.bytes = size;
+		} else {
+			data = parseFile(file, parallelism, Long.MAX_VALUE);
+		}
+		Instrumentation.fileLoaded(event, file, data, false, System.nanoTime() - start);
+		return data;
+	}
+
+	/**
+	 * Читает начало несжатого файла с данными (например, полные строки файла, который еще дописывается)
+	 *
+	 * @param file файл с данными
+	 * @param parallelism желаемое количество параллельно разбираемых фрагментов
+	 * @param length количество читаемых байтов от начала файла
+	 * @return прочитанные столбцы
+	 * @throws IOException при ошибке чтения или неверном формате данных
+	 */
+	static DataColumns parse(File file, int parallelism, long length) throws IOException {
+		Instrumentation.LoadFileEvent event = new Instrumentation.LoadFileEvent();
+		event.begin();
+		long start = System.nanoTime();
+		DataColumns data = parseFile(file, parallelism, length);
+		Instrumentation.fileLoaded(event, file, data, false, System.nanoTime() - start);
+		return data;
+	}
+
+	private static DataColumns parseFile(File file, int parallelism, long length) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = Math.min(channel.size(), length);
+
+			// Разбить файл на фрагменты
+			long chunks = Math.max(1, Math.min(parallelism, size / MIN_CHUNK_SIZE));
+			chunks = Math.max(chunks, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+			long chunkSize = Math.max(1, (size + chunks - 1) / chunks);
+
+			if(chunks == 1) {
+				DataColumns data = parseChunk(channel, file.getName(), size, 0, size);
+				data.bytes = size;
+				return data;
+			}
+
+			List<Callable<DataColumns>> tasks = new ArrayList<>();
+			for(long start = 0; start < size; start += chunkSize) {
+				final long from = start;
+				final long to = Math.min(size, start + chunkSize);
+				tasks.add(() -> parseChunk(channel, file.getName(), size, from, to));
+			}
+
+			// Разобрать фрагменты параллельно и объединить результаты в исходном порядке
+			List<Future<DataColumns>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+			DataColumns[] parts = new DataColumns[results.size()];
+			int total = 0;
+			for(int i=0; i<parts.length; i++) {
+				parts[i] = results.get(i).get();
+				total += parts[i].size;
+			}
+			DataColumns data = new DataColumns(total);
+			for(DataColumns part : parts) {
+				data.addAll(part);
+			}
+			data.bytes = size;
+			return data;
+
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Reading of " + file.getName() + " was interrupted", e);
+		} catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Разбирает строки, начинающиеся в заданном диапазоне байтов файла
+	 *
+	 * @param channel канал открытого файла
+	 * @param source имя файла
+	 * @param size размер файла
+	 * @param start начало диапазона
+	 * @param end конец диапазона
+	 * @return прочитанные столбцы
+	 * @throws IOException при ошибке чтения или неверном формате данных
+	 */
+	static DataColumns parseChunk(FileChannel channel, String source, long size, long start, long end) throws IOException {
+		// Отобразить фрагмент вместе с предшествующим байтом и запасом для последней строки
+		long mapStart = start == 0 ? 0 : start - 1;
+		long mapEnd = Math.min(size, end + MAX_LINE_LENGTH);
+		MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+		int limit = buf.limit();
+		int startLimit = (int)(end - mapStart);
+		boolean endOfInput = mapEnd == size;
+
+		DataColumns data = new DataColumns((int)((end - start) / 16));
+
+		// Пропустить строку, начатую в предыдущем фрагменте
+		int pos = 0;
+		if(start > 0) {
+			while(pos < limit && buf.get(pos) != '\n')
+				pos++;
+			pos++;
+		}
+
+		DataFileParser parser = new DataFileParser(source, mapStart);
+		pos = parser.parseLines(buf, pos, startLimit, limit, endOfInput, data);
+		if(pos < startLimit && !endOfInput) {
+			throw new IOException(String.format("%s: line at byte %d is too long", source, mapStart + pos));
+		}
+		return data;
+	}
+
+	/**
+	 * Разбирает строки буфера, начинающиеся до позиции <code>startLimit</code>.
+	 * Последняя строка без символа конца строки разбирается, только если достигнут конец данных
+	 *
+	 * @param buf буфер с текстом
+	 * @param pos позиция начала первой строки
+	 * @param startLimit граница позиций начала разбираемых строк
+	 * @param end конец данных в буфере
+	 * @param endOfInput буфер содержит окончание данных
+	 * @param out столбцы, в которые добавляются прочитанные точки
+	 * @return позиция начала первой неразобранной строки
+	 * @throws IOException при неверном формате данных
+	 */
+	int parseLines(ByteBuffer buf, int pos, int startLimit, int end, boolean endOfInput, DataColumns out) throws IOException {
+		while(pos < startLimit) {
+			int eol = pos;
+			while(eol < end && buf.get(eol) != '\n')
+				eol++;
+			if(eol == end && !endOfInput)
+				break;
+			parseLine(buf, pos, eol, out);
+			pos = eol < end ? eol + 1 : eol;
+		}
+		return pos;
+	}
+
+	/**
+	 * Разбирает одну строку: два числа, разделенные пробелами или табуляцией.
+	 * Остаток строки после второго числа не учитывается
+	 */
+	private void parseLine(ByteBuffer buf, int from, int to, DataColumns out) throws IOException {
+		int p = skipSeparators(buf, from, to);
+
+		// Пустая строка или комментарий
+		if(p == to || isComment(buf.get(p)))
+			return;
+
+		p = parseNumber(buf, p, to);
+		double xv = value;
+
+		int q = skipSeparators(buf, p, to);
+		if(q == to)
+			throw malformed(from);
+		parseNumber(buf, q, to);
+
+		out.add(xv, value);
+	}
+
+	/**
+	 * Читает число в позиции <code>p</code> и сохраняет его в поле <code>value</code>.
+	 * Числа, которые не удается точно прочитать быстрым способом, передаются в <code>Double.parseDouble</code>
+	 *
+	 * @return позиция после числа
+	 */
+	private int parseNumber(ByteBuffer buf, int p, int to) throws IOException {
+		int start = p;
+		byte c = buf.get(p);
+		boolean negative = false;
+		if(c == '-' || c == '+') {
+			negative = c == '-';
+			p++;
+		}
+
+		long mantissa = 0;
+		int significant = 0; // количество значащих цифр в mantissa
+		int exponent = 0;
+		boolean digits = false, exact = true;
+
+		// Целая часть
+		while(p < to && (c = buf.get(p)) >= '0' && c <= '9') {
+			digits = true;
+			if(significant < 18) {
+				mantissa = mantissa*10 + (c - '0');
+				if(mantissa != 0)
+					significant++;
+			} else {
+				exponent++;
+				if(c != '0')
+					exact = false;
+			}
+			p++;
+		}
+
+		// Дробная часть
+		if(p < to && buf.get(p) == '.') {
+			p++;
+			while(p < to && (c = buf.get(p)) >= '0' && c <= '9') {
+				digits = true;
+				if(significant < 18) {
+					mantissa = mantissa*10 + (c - '0');
+					if(mantissa != 0)
+						significant++;
+					exponent--;
+				} else if(c != '0') {
+					exact = false;
+				}
+				p++;
+			}
+		}
+
+		// Показатель степени
+		if(digits && p < to && ((c = buf.get(p)) == 'e' || c == 'E')) {
+			p++;
+			boolean negativeExp = false;
+			if(p < to && ((c = buf.get(p)) == '-' || c == '+')) {
+				negativeExp = c == '-';
+				p++;
+			}
+			int exp = 0;
+			boolean expDigits = false;
+			while(p < to && (c = buf.get(p)) >= '0' && c <= '9') {
+				expDigits = true;
+				if(exp < 100000)
+					exp = exp*10 + (c - '0');
+				p++;
+			}
+			if(!expDigits)
+				return parseToken(buf, start, to);
+			exponent += negativeExp ? -exp : exp;
+		}
+
+		// Число должно заканчиваться разделителем или концом строки
+		if(!digits || (p < to && !isSeparator(buf.get(p))))
+			return parseToken(buf, start, to);
+
+		if(!exact || mantissa > (1L << 53) || exponent < -22 || exponent > 22)
+			return parseToken(buf, start, to);
+
+		double v = (double)mantissa;
+		if(exponent >= 0)
+			v *= POW10[exponent];
+		else
+			v /= POW10[-exponent];
+		value = negative ? -v : v;
+		return p;
+	}
+
+	/**
+	 * Медленный путь: читает число с помощью <code>Double.parseDouble</code>
+	 *
+	 * @return позиция после числа
+	 */
+	private int parseToken(ByteBuffer buf, int start, int to) throws IOException {
+		int p = start;
+		while(p < to && !isSeparator(buf.get(p)))
+			p++;
+		byte[] token = new byte[p - start];
+		for(int i=0; i<token.length; i++)
+			token[i] = buf.get(start + i);
+		try {
+			value = Double.parseDouble(new String(token, StandardCharsets.ISO_8859_1));
+		} catch(NumberFormatException e) {
+			throw malformed(start);
+		}
+		return p;
+	}
+
+	private static int skipSeparators(ByteBuffer buf, int p, int to) {
+		while(p < to && isSeparator(buf.get(p)))
+			p++;
+		return p;
+	}
+
+	private static boolean isSeparator(byte c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\f';
+	}
+
+	private static boolean isComment(byte c) {
+		return c == '#' || c == '%' || c == '!' || c == ';' || c == '@' || c == '&';
+	}
+
+	private IOException malformed(int pos) {
+		return new IOException(String.format("%s: malformed data at byte %d", source, baseOffset + pos));
+	}
+}
@@ -0,0 +1,139 @@
+import java.nio.DoubleBuffer;
+import java.util.Locale;
+
+/**
+ * <p>Столбец чисел double фиксированной длины с доступом по индексу</p>
+ * <p>Данные хранятся фрагментами ({@link DoubleColumn#chunk}). Длинные проходы по данным (префиксные суммы,
+ * крайние значения, отрисовка) выполняются по фрагментам, а не поэлементными вызовами
+ * {@link DoubleColumn#get}. Реализации:</p>
+ * <ul>
+ * <li>{@link HeapColumn} - массив в куче, один фрагмент</li>
+ * <li>{@link ChunkedColumn} - фрагменты фиксированного размера вне кучи или в отображенном в память
+ * временном файле. Такие столбцы не занимают кучу, поэтому объем данных ограничен диском, а не <code>-Xmx</code></li>
+ * </ul>
+ * <p>Вид хранения выбирается свойством <code>approximizer.storage</code>: <code>heap</code>, <code>direct</code>,
+ * <code>mapped</code> или <code>auto</code> (по умолчанию): столбцы длиннее <code>AUTO_THRESHOLD</code>
+ * хранятся в отображенных файлах, остальные - в куче.</p>
+ */
+interface DoubleColumn {
+
+	String STORAGE = System.getProperty("approximizer.storage", "auto").toLowerCase(Locale.ENGLISH);
+
+	// Наибольшая длина столбца в куче в режиме auto: 1/32 наибольшего размера кучи
+	int AUTO_THRESHOLD = (int)Math.min(Integer.MAX_VALUE - 8, Runtime.getRuntime().maxMemory()/8/32);
+
+	/**
+	 * @return количество элементов
+	 */
+	int length();
+
+	double get(int i);
+
+	void set(int i, double v);
+
+	/**
+	 * Копирует элементы внутри столбца (области могут перекрываться)
+	 *
+	 * @param from индекс первого копируемого элемента
+	 * @param to индекс, в который копируется первый элемент
+	 * @param count количество элементов
+	 */
+	void move(int from, int to, int count);
+
+	/**
+	 * Возвращает столбец заданной длины с теми же начальными элементами.
+	 * Может вернуть этот же столбец, если изменение длины не требует копирования
+	 *
+	 * @param length новая длина
+	 * @return столбец новой длины
+	 */
+	DoubleColumn resize(int length);
+
+	/**
+	 * @return количество фрагментов
+	 */
+	int chunkCount();
+
+	/**
+	 * @param k номер фрагмента
+	 * @return индекс первого элемента фрагмента
+	 */
+	int chunkStart(int k);
+
+	/**
+	 * Возвращает фрагмент данных. Элемент с индексом <code>i</code> буфера - элемент столбца
+	 * с индексом <code>chunkStart(k) + i</code>, граница буфера (limit) - количество элементов фрагмента.
+	 * Буфер является представлением данных: запись в него меняет столбец
+	 *
+	 * @param k номер фрагмента
+	 * @return буфер фрагмента
+	 */
+	DoubleBuffer chunk(int k);
+
+	/**
+	 * Создает столбец в соответствии с выбранным видом хранения
+	 *
+	 * @param length количество элементов
+	 * @return столбец, заполненный нулями
+	 */
+	static DoubleColumn allocate(int length) {
+		switch(STORAGE) {
+		case "heap":
+			return new HeapColumn(length);
+		case "direct":
+			return new ChunkedColumn(length, false);
+		case "mapped":
+			return new ChunkedColumn(length, true);
+		default:
+			return length > AUTO_THRESHOLD ? new ChunkedColumn(length, true) : new HeapColumn(length);
+		}
+	}
+
+	/**
+	 * Создает столбец, содержащий копию массива
+	 *
+	 * @param values значения
+	 * @return столбец
+	 */
+	static DoubleColumn of(double... values) {
+		DoubleColumn column = allocate(values.length);
+		for(int k=0; k<column.chunkCount(); k++) {
+			DoubleBuffer chunk = column.chunk(k);
+			chunk.put(values, column.chunkStart(k), chunk.limit());
+		}
+		return column;
+	}
+
+	/**
+	 * Копирует элементы одного столбца в другой
+	 *
+	 * @param src исходный столбец
+	 * @param srcPos индекс первого копируемого элемента
+	 * @param dst столбец назначения
+	 * @param dstPos индекс, в который копируется первый элемент
+	 * @param count количество элементов
+	 */
+	static void copy(DoubleColumn src, int srcPos, DoubleColumn dst, int dstPos, int count) {
+		if(src == dst) {
+			src.move(srcPos, dstPos, count);
+			return;
+		}
+		if(src instanceof HeapColumn && dst instanceof HeapColumn) {
+			System.arraycopy(((HeapColumn)src).values, srcPos, ((HeapColumn)dst).values, dstPos, count);
+			return;
+		}
+		// Копирование по фрагментам исходного столбца
+		for(int k=0; k<src.chunkCount() && count > 0; k++) {
+			int start = src.chunkStart(k);
+			DoubleBuffer chunk = src.chunk(k);
+			if(srcPos >= start + chunk.limit())
+				continue;
+			int n = Math.min(count, start + chunk.limit() - srcPos);
+			for(int i=srcPos-start, end=i+n; i<end; i++) {
+				dst.set(dstPos++, chunk.get(i));
+			}
+			srcPos += n;
+			count -= n;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+import java.util.Locale;
+
+/**
+ * <p>Способ подгонки прямой к точкам участка</p>
+ *
+ * @see RobustFit
+ */
+enum Estimator {
+
+	OLS("OLS"), // метод наименьших квадратов
+	THEIL_SEN("Theil-Sen"), // медиана наклонов прямых через все пары точек (оценка Тейла-Сена)
+	HUBER("Huber"); // М-оценка Хьюбера: квадратичная функция потерь для малых остатков, линейная для больших
+
+	final String label; // название в интерфейсе и в результатах пакетного режима
+
+	Estimator(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * Находит способ подгонки по значению параметра командной строки
+	 *
+	 * @param value название: <code>ols</code>, <code>theil-sen</code> или <code>huber</code>
+	 * @return способ подгонки
+	 * @throws IllegalArgumentException если название неизвестно
+	 */
+	static Estimator parse(String value) {
+		for(Estimator estimator : values()) {
+			if(estimator.label.toLowerCase(Locale.ENGLISH).equals(value.toLowerCase(Locale.ENGLISH)))
+				return estimator;
+		}
+		throw new IllegalArgumentException("unknown estimator " + value);
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}
@@ -0,0 +1,153 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>Слежение за растущими файлами с данными (режим "Follow")</p>
+ * <p>Для каждого файла запоминается позиция конца последней разобранной строки. При опросе читаются
+ * и разбираются только байты, дописанные после этой позиции. Неполная последняя строка оставляется
+ * до следующего опроса. Новые строки разных реплик копятся в очередях и усредняются по номеру строки,
+ * как только строка с этим номером появится во всех файлах.</p>
+ * <p>Если при загрузке последняя строка файла была записана не полностью, загруженные данные содержат
+ * ее обрезанное значение. В этом случае данные читаются заново до конца последних полных строк
+ * ({@link #load}), а дописанная строка разбирается при опросе целиком.</p>
+ *
+ * @see Approximizer#follow
+ */
+class FileTailer {
+
+	static final int MAX_READ = 1 << 26; // наибольший объем данных, читаемый из одного файла за один опрос
+
+	File[] files; // отслеживаемые файлы
+	long[] offsets; // позиции конца последней разобранной строки
+	DataColumns[] pending; // прочитанные, но еще не усредненные строки каждого файла
+	int[] head; // индекс первой неусредненной строки в очереди
+
+	/**
+	 * Находит концы последних полных строк в уже прочитанной части файлов. Если они совпадают с размерами,
+	 * прочитанными при загрузке, опрос продолжает загруженные данные, иначе данные нужно прочитать заново
+	 * методом {@link #load}
+	 *
+	 * @param files отслеживаемые файлы
+	 * @param sizes размеры файлов в байтах, уже прочитанные при загрузке
+	 * @throws IOException если файл не удалось прочитать
+	 */
+	FileTailer(File[] files, long[] sizes) throws IOException {
+		this.files = files;
+		offsets = new long[files.length];
+		pending = new DataColumns[files.length];
+		head = new int[files.length];
+
+		for(int i=0; i<files.length; i++) {
+			pending[i] = new DataColumns(16);
+
+			// Найти конец последней полной строки в уже прочитанной части файла
+			try(FileChannel channel = FileChannel.open(files[i].toPath(), StandardOpenOption.READ)) {
+				long end = sizes[i];
+				ByteBuffer buf = ByteBuffer.allocate(4096);
+				long pos = end;
+				boolean found = false;
+				while(pos > 0 && !found) {
+					long start = Math.max(0, pos - buf.capacity());
+					buf.clear();
+					buf.limit((int)(pos - start));
+					channel.read(buf, start);
+					for(int k=buf.position()-1; k>=0; k--) {
+						if(buf.get(k) == '\n') {
+							pos = start + k + 1;
+							found = true;
+							break;
+						}
+					}
+					if(!found)
+						pos = start;
+				}
+				offsets[i] = pos;
+			}
+		}
+	}
+
+	/**
+	 * Читает полные строки файлов от начала до найденных концов и усредняет строки, имеющиеся во всех файлах.
+	 * Строки, которые есть не во всех файлах, остаются в очередях до следующих опросов
+	 *
+	 * @param parallelism желаемое количество параллельно разбираемых фрагментов одного файла
+	 * @return усредненные точки (по номеру строки, в порядке строк файлов)
+	 * @throws IOException при ошибке чтения или неверном формате данных
+	 */
+	DataColumns load(int parallelism) throws IOException {
+		for(int i=0; i<files.length; i++) {
+			pending[i] = DataFileParser.parse(files[i], parallelism, offsets[i]);
+			head[i] = 0;
+		}
+		return average();
+	}
+
+	/**
+	 * Читает дописанные строки всех файлов и усредняет строки, появившиеся во всех файлах
+	 *
+	 * @return новые усредненные точки (возможно, ни одной)
+	 * @throws IOException при ошибке чтения, неверном формате или если файл стал короче
+	 */
+	DataColumns poll() throws IOException {
+		for(int i=0; i<files.length; i++) {
+			try(FileChannel channel = FileChannel.open(files[i].toPath(), StandardOpenOption.READ)) {
+				long size = channel.size();
+				if(size < offsets[i])
+					throw new IOException(files[i].getName() + ": file was truncated");
+				if(size == offsets[i])
+					continue;
+
+				int length = (int)Math.min(size - offsets[i], MAX_READ);
+				ByteBuffer buf = ByteBuffer.allocate(length);
+				while(buf.hasRemaining() && channel.read(buf, offsets[i] + buf.position()) > 0);
+				int read = buf.position();
+
+				DataColumns rows = new DataColumns(read / 16);
+				int consumed = new DataFileParser(files[i].getName(), offsets[i]).parseLines(buf, 0, read, read, false, rows);
+				if(consumed == 0 && read == MAX_READ)
+					throw new IOException(String.format("%s: line at byte %d is too long", files[i].getName(), offsets[i]));
+				offsets[i] += consumed;
+				for(int j=0; j<rows.size; j++) {
+					pending[i].add(rows.x.get(j), rows.y.get(j));
+				}
+			}
+		}
+		return average();
+	}
+
+	/**
+	 * Усредняет строки, имеющиеся в очередях всех файлов, и удаляет их из очередей
+	 */
+	private DataColumns average() {
+		int available = Integer.MAX_VALUE;
+		for(int i=0; i<files.length; i++) {
+			available = Math.min(available, pending[i].size - head[i]);
+		}
+		DataColumns averaged = new DataColumns(available);
+		for(int j=0; j<available; j++) {
+			double xv = 0, yv = 0;
+			for(int i=0; i<files.length; i++) {
+				xv += pending[i].x.get(head[i]+j);
+				yv += pending[i].y.get(head[i]+j);
+			}
+			averaged.add(xv/files.length, yv/files.length);
+		}
+
+		// Удалить усредненные строки из очередей
+		for(int i=0; i<files.length; i++) {
+			head[i] += available;
+			if(head[i] > pending[i].size/2) {
+				DataColumns rest = new DataColumns(pending[i].size - head[i]);
+				DoubleColumn.copy(pending[i].x, head[i], rest.x, 0, pending[i].size - head[i]);
+				DoubleColumn.copy(pending[i].y, head[i], rest.y, 0, pending[i].size - head[i]);
+				rest.size = pending[i].size - head[i];
+				pending[i] = rest;
+				head[i] = 0;
+			}
+		}
+		return averaged;
+	}
+}
@@ -0,0 +1,701 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <p>Режим локального сервиса: долго работающий процесс, который держит прочитанные наборы данных
+ * в памяти и отвечает на запросы подгонки по HTTP</p>
+ * <p>Сервис слушает только адрес обратной петли. Запросы:</p>
+ * <ul>
+ * <li><code>/load?file=a.dat&amp;file=b.dat[&amp;merge=true&amp;step=0.5]</code> - читает набор данных
+ * (реплики усредняются по номеру строки или сливаются, как в окне) и возвращает его идентификатор;</li>
+ * <li><code>/fit?id=...&amp;windows=t1,t2,t3,t4</code> (или <code>fractions=f1,f2,f3,f4</code>,
+ * <code>estimator=huber</code>; вместо <code>id</code> можно передать <code>file</code>) - Tg и параметры прямых;</li>
+ * <li><code>/metrics</code> - счетчики, размер кэша и задержки запросов (медиана и 99-й перцентиль).</li>
+ * </ul>
+ * <p>Идентификатор набора данных вычисляется по путям файлов и параметрам слияния, поэтому повторная
+ * загрузка тех же файлов возвращает тот же набор, а одновременные загрузки одного набора читают его один раз.
+ * Наборы данных хранятся в кэше LRU, ограниченном по памяти; вытесненный набор перечитывается при следующем
+ * запросе (двоичный кэш {@link DataCache} делает это быстрым). Набор, файлы которого изменились после загрузки
+ * (другие размер или время изменения), перечитывается при следующем запросе. Описания наборов для запросов
+ * по <code>id</code> запоминаются для последних {@value #KNOWN_LIMIT} наборов; забытый набор снова
+ * загружается по файлам.</p>
+ * <p>Запросы подгонки к одному набору данных объединяются: запрос ставится в очередь набора, и тот из
+ * ожидающих потоков, которому удалось занять набор, выполняет подгонку для всех накопившихся запросов
+ * одним проходом с общими рабочими массивами (одинаковые запросы подгоняются один раз). Каждый запрос
+ * подгоняется по снимку набора, полученному при постановке в очередь. Остальные потоки
+ * только ждут своих результатов.</p>
+ * <p>Запуск: <code>java Approximizer --serve [--port N] [--memory MB] [--threads N]</code></p>
+ *
+ * @see Approximizer#main
+ * @see BatchRunner
+ */
+class FitServer {
+
+	static final String USAGE = String.join("\n",
+			"Usage: java Approximizer --serve [options]",
+			"Options:",
+			"  --port N                  loopback port to listen on (default 8765, 0 - any free port)",
+			"  --memory MB               memory limit of the data sets kept loaded (default: half of the heap)",
+			"  --threads N               number of request threads (default: twice the number of processors)",
+			"Requests:",
+			"  /load?file=F[&file=F2...][&merge=true][&step=T]   load a data set, returns its id",
+			"  /fit?id=ID&windows=t1,t2,t3,t4 (or fractions=...)[&estimator=huber]",
+			"  /metrics                                          counters and p50/p99 latency");
+
+	static final int DEFAULT_PORT = 8765;
+	static final int KNOWN_LIMIT = 1 << 16; // наибольшее количество запоминаемых описаний наборов данных
+
+	final long memoryLimit; // предел памяти загруженных наборов данных в байтах
+	final LinkedHashMap<String, Dataset> datasets = new LinkedHashMap<>(16, 0.75f, true); // кэш LRU (доступ под блокировкой this)
+	long memory; // память загруженных наборов данных (под блокировкой this)
+	final LinkedHashMap<String, Dataset> known = new LinkedHashMap<>(16, 0.75f, true); // описания наборов данных для загрузки по id (LRU, под блокировкой this)
+	final Map<String, CompletableFuture<Snapshot>> loading = new ConcurrentHashMap<>(); // загружаемые сейчас наборы
+
+	final Latency loadLatency = new Latency(), fitLatency = new Latency();
+	final LongAdder loads = new LongAdder(); // прочитано наборов данных
+	final LongAdder evictions = new LongAdder(); // вытеснено наборов данных
+	final LongAdder fitRequests = new LongAdder(); // запросов подгонки
+	final LongAdder batches = new LongAdder(); // проходов подгонки
+	final LongAdder fits = new LongAdder(); // выполненных подгонок (без повторов внутри прохода)
+	final LongAccumulator maxBatch = new LongAccumulator(Math::max, 0); // наибольшее количество запросов в проходе
+	final LongAdder errors = new LongAdder(); // запросов с ошибкой
+
+	/**
+	 * Набор данных: файлы, из которых он читается, и, пока он загружен, его снимок
+	 */
+	static class Dataset {
+		final String id;
+		final File[] files;
+		final boolean merge;
+		final double step;
+		Snapshot snapshot; // null, пока набор не загружен (изменяется под блокировкой сервиса)
+
+		final ConcurrentLinkedQueue<FitRequest> pending = new ConcurrentLinkedQueue<>(); // ожидающие запросы подгонки
+		final AtomicBoolean busy = new AtomicBoolean(); // набор занят проходом подгонки
+
+		Dataset(String id, File[] files, boolean merge, double step) {
+			this.id = id;
+			this.files = files;
+			this.merge = merge;
+			this.step = step;
+		}
+	}
+
+	/**
+	 * Загруженное состояние набора данных. Не изменяется после создания: при перезагрузке набора создается
+	 * новый снимок, а запросы, поставленные в очередь раньше, подгоняются по своему. Рабочие массивы подгонки
+	 * принадлежат снимку и освобождаются вместе с ним при вытеснении набора
+	 */
+	static class Snapshot {
+		final FitStatistics statistics;
+		final double min_t, max_t; // диапазон конечных значений температуры
+		final String skipped; // отчет об исключенных файлах или null
+		final long[] stamps; // размеры и времена изменения файлов на момент загрузки
+		final long bytes; // оценка занимаемой памяти
+		final RobustFit[] fitters = new RobustFit[Estimator.values().length]; // рабочие массивы (только для занявшего набор потока)
+
+		Snapshot(FitStatistics statistics, double min_t, double max_t, String skipped, long[] stamps) {
+			this.statistics = statistics;
+			this.min_t = min_t;
+			this.max_t = max_t;
+			this.skipped = skipped;
+			this.stamps = stamps;
+			// Столбцы данных и пять столбцов префиксных сумм (с весами - еще два)
+			bytes = 8L * statistics.x.length() * (statistics.w != null ? 9 : 7);
+		}
+	}
+
+	/**
+	 * Запрос подгонки, ожидающий в очереди набора данных
+	 */
+	static class FitRequest {
+		final Snapshot snapshot; // снимок набора данных на момент постановки в очередь
+		final double[] windows;
+		final boolean fractional; // границы заданы долями (min_t+max_t)
+		final Estimator estimator;
+		final CompletableFuture<String> result = new CompletableFuture<>(); // ответ JSON
+
+		FitRequest(Snapshot snapshot, double[] windows, boolean fractional, Estimator estimator) {
+			this.snapshot = snapshot;
+			this.windows = windows;
+			this.fractional = fractional;
+			this.estimator = estimator;
+		}
+
+		/**
+		 * @return ключ для объединения одинаковых запросов
+		 */
+		String key() {
+			return Arrays.toString(windows) + fractional + estimator;
+		}
+	}
+
+	/**
+	 * Гистограмма задержек с логарифмическими интервалами (4 интервала на удвоение, погрешность около 10%).
+	 * Запись - увеличение одного счетчика {@link LongAdder}, без блокировок
+	 */
+	static class Latency {
+		static final int BUCKETS = 4*40; // до 2^40 нс (около 18 минут)
+		final LongAdder[] counts = new LongAdder[BUCKETS];
+		final LongAdder total = new LongAdder();
+
+		Latency() {
+			for(int i=0; i<BUCKETS; i++) {
+				counts[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			int bucket = nanos <= 1 ? 0 : (int)Math.min(BUCKETS - 1, Math.floor(Math.log(nanos) / Math.log(2) * 4));
+			counts[bucket].increment();
+			total.increment();
+		}
+
+		/**
+		 * @param q уровень перцентиля (0..1)
+		 * @return задержка в миллисекундах (середина интервала гистограммы) или NaN, если запросов не было
+		 */
+		double percentile(double q) {
+			long n = total.sum();
+			if(n == 0)
+				return Double.NaN;
+			long rank = (long)Math.ceil(q * n);
+			long seen = 0;
+			for(int i=0; i<BUCKETS; i++) {
+				seen += counts[i].sum();
+				if(seen >= rank)
+					return Math.pow(2, (i + 0.5) / 4) / 1e6;
+			}
+			return Math.pow(2, BUCKETS / 4.0) / 1e6;
+		}
+	}
+
+	/**
+	 * Ошибка в параметрах запроса (ответ 400) или отсутствующий набор данных (ответ 404)
+	 */
+	static class RequestException extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		RequestException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * @param memoryLimit предел памяти загруженных наборов данных в байтах
+	 */
+	FitServer(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Разбирает параметры командной строки и запускает сервис. Сервис работает до завершения процесса
+	 *
+	 * @param args параметры командной строки (без ключа <code>--serve</code>)
+	 * @return код завершения: 0 - сервис запущен, 2 - неверные параметры или порт занят
+	 */
+	static int run(String[] args) {
+		int port = DEFAULT_PORT;
+		long memory = Runtime.getRuntime().maxMemory() / 2;
+		int threads = 2 * Runtime.getRuntime().availableProcessors();
+		try {
+			for(int i=0; i<args.length; i++) {
+				switch(args[i]) {
+				case "--port":
+					port = Integer.parseInt(args[++i]);
+					if(port < 0 || port > 65535)
+						throw new IllegalArgumentException("port must be in [0, 65535]");
+					break;
+				case "--memory":
+					memory = (long)(Double.parseDouble(args[++i]) * (1 << 20));
+					if(memory <= 0)
+						throw new IllegalArgumentException("memory limit must be positive");
+					break;
+				case "--threads":
+					threads = Integer.parseInt(args[++i]);
+					if(threads < 1)
+						throw new IllegalArgumentException("thread count must be positive");
+					break;
+				default:
+					throw new IllegalArgumentException("unknown option " + args[i]);
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			System.err.println("Missing option value");
+			System.err.println(USAGE);
+			return 2;
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			return 2;
+		}
+
+		try {
+			HttpServer server = new FitServer(memory).start(port, threads);
+			System.err.println("Listening on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/");
+			return 0;
+		} catch(IOException e) {
+			System.err.println(e.getMessage());
+			return 2;
+		}
+	}
+
+	/**
+	 * Запускает HTTP-сервер на адресе обратной петли
+	 *
+	 * @param port порт (0 - любой свободный)
+	 * @param threads количество потоков обработки запросов
+	 * @return запущенный сервер
+	 * @throws IOException если порт занят
+	 */
+	HttpServer start(int port, int threads) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/load", exchange -> handle(exchange, loadLatency, this::load));
+		server.createContext("/fit", exchange -> handle(exchange, fitLatency, this::fit));
+		server.createContext("/metrics", exchange -> handle(exchange, null, parameters -> metrics()));
+		server.setExecutor(Executors.newFixedThreadPool(threads));
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Обработчик запроса: параметры запроса - ответ
+	 */
+	interface Handler {
+		String handle(Map<String, List<String>> parameters) throws RequestException, IOException;
+	}
+
+	/**
+	 * Разбирает параметры запроса, вызывает обработчик, отправляет ответ и учитывает задержку
+	 */
+	private void handle(HttpExchange exchange, Latency latency, Handler handler) throws IOException {
+		long start = System.nanoTime();
+		int status = 200;
+		String body;
+		try {
+			body = handler.handle(parameters(exchange));
+		} catch(RequestException e) {
+			status = e.status;
+			body = "{\"error\":" + BatchRunner.jsonString(e.getMessage()) + "}";
+		} catch(IOException | RuntimeException e) {
+			status = 500;
+			body = "{\"error\":" + BatchRunner.jsonString(e.getMessage() != null ? e.getMessage() : e.toString()) + "}";
+		}
+		if(status != 200)
+			errors.increment();
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", latency == null ? "text/plain; charset=utf-8" : "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+		if(latency != null)
+			latency.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Параметры из строки запроса и из тела запроса POST (application/x-www-form-urlencoded)
+	 */
+	private static Map<String, List<String>> parameters(HttpExchange exchange) throws IOException {
+		Map<String, List<String>> parameters = new HashMap<>();
+		addParameters(parameters, exchange.getRequestURI().getRawQuery());
+		if(exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+			try(InputStream in = exchange.getRequestBody()) {
+				addParameters(parameters, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	private static void addParameters(Map<String, List<String>> parameters, String query) throws UnsupportedEncodingException {
+		if(query == null || query.isEmpty())
+			return;
+		for(String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+			String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq+1), "UTF-8");
+			parameters.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+		}
+	}
+
+	private static String parameter(Map<String, List<String>> parameters, String name) {
+		List<String> values = parameters.get(name);
+		return values == null ? null : values.get(values.size()-1);
+	}
+
+	/**
+	 * Запрос <code>/load</code>: загружает набор данных и возвращает его описание
+	 */
+	private String load(Map<String, List<String>> parameters) throws RequestException, IOException {
+		Dataset dataset = dataset(parameters);
+		Snapshot snapshot = loaded(dataset);
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"id\":").append(BatchRunner.jsonString(dataset.id));
+		sb.append(",\"points\":").append(snapshot.statistics.n);
+		sb.append(",\"min_t\":").append(BatchRunner.jsonNumber(snapshot.min_t));
+		sb.append(",\"max_t\":").append(BatchRunner.jsonNumber(snapshot.max_t));
+		if(snapshot.skipped != null)
+			sb.append(",\"skipped\":").append(BatchRunner.jsonString(snapshot.skipped));
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Запрос <code>/fit</code>: ставит запрос в очередь набора данных и ждет результата
+	 */
+	private String fit(Map<String, List<String>> parameters) throws RequestException, IOException {
+		String windows = parameter(parameters, "windows"), fractions = parameter(parameters, "fractions");
+		if((windows == null) == (fractions == null))
+			throw new RequestException(400, "either windows or fractions expected");
+		double[] refX;
+		Estimator estimator;
+		try {
+			String name = parameter(parameters, "estimator");
+			refX = BatchRunner.parseWindows(windows != null ? windows : fractions);
+			estimator = name == null ? Estimator.OLS : Estimator.parse(name);
+		} catch(IllegalArgumentException e) {
+			throw new RequestException(400, e.getMessage());
+		}
+		Dataset dataset = dataset(parameters);
+		FitRequest request = new FitRequest(loaded(dataset), refX, windows == null, estimator);
+		fitRequests.increment();
+
+		// Поставить запрос в очередь; если набор свободен - подогнать все накопившиеся запросы самому
+		dataset.pending.add(request);
+		do {
+			if(!dataset.busy.compareAndSet(false, true))
+				break;
+			try {
+				fitPending(dataset);
+			} finally {
+				dataset.busy.set(false);
+			}
+			// Запросы, добавленные после опустошения очереди, но до освобождения набора, подгоняются здесь же
+		} while(!dataset.pending.isEmpty());
+
+		try {
+			return request.result.join();
+		} catch(CompletionException e) {
+			Throwable cause = e.getCause();
+			throw new IOException(cause.getMessage() != null ? cause.getMessage() : cause.toString(), cause);
+		}
+	}
+
+	/**
+	 * Подгоняет все запросы из очереди набора данных одним проходом (вызывается только занявшим набор потоком).
+	 * Каждый запрос подгоняется по снимку, полученному при постановке в очередь: набор мог быть перезагружен
+	 * или вытеснен после этого. Одинаковые запросы одного снимка подгоняются один раз
+	 */
+	private void fitPending(Dataset dataset) {
+		Map<Snapshot, Map<String, String>> done = new HashMap<>(); // результаты внутри прохода по снимкам
+		int count = 0;
+		FitRequest request;
+		while((request = dataset.pending.poll()) != null) {
+			count++;
+			try {
+				Snapshot snapshot = request.snapshot;
+				Map<String, String> results = done.computeIfAbsent(snapshot, s -> new HashMap<>());
+				String key = request.key();
+				String result = results.get(key);
+				if(result == null) {
+					double[] refX = request.windows.clone();
+					if(request.fractional) {
+						for(int k=0; k<4; k++) {
+							refX[k] = (snapshot.min_t + snapshot.max_t) * request.windows[k];
+						}
+					}
+					int e = request.estimator.ordinal();
+					if(snapshot.fitters[e] == null)
+						snapshot.fitters[e] = new RobustFit(request.estimator);
+					result = toJson(dataset, request.estimator, refX, TgFit.of(snapshot.statistics, refX, snapshot.fitters[e]));
+					results.put(key, result);
+					fits.increment();
+				}
+				request.result.complete(result);
+			} catch(RuntimeException e) {
+				request.result.completeExceptionally(e);
+			}
+		}
+		if(count > 0) {
+			batches.increment();
+			maxBatch.accumulate(count);
+		}
+	}
+
+	private static String toJson(Dataset dataset, Estimator estimator, double[] refX, TgFit fit) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"id\":").append(BatchRunner.jsonString(dataset.id));
+		sb.append(",\"estimator\":").append(BatchRunner.jsonString(estimator.toString()));
+		sb.append(",\"windows\":[").append(BatchRunner.jsonNumber(refX[0]));
+		for(int k=1; k<refX.length; k++) {
+			sb.append(',').append(BatchRunner.jsonNumber(refX[k]));
+		}
+		sb.append(']');
+		sb.append(",\"tg\":").append(BatchRunner.jsonNumber(fit.tg));
+		sb.append(",\"v_tg\":").append(BatchRunner.jsonNumber(fit.v));
+		sb.append(",\"slope1\":").append(BatchRunner.jsonNumber(fit.ab1[0]));
+		sb.append(",\"intercept1\":").append(BatchRunner.jsonNumber(fit.ab1[1]));
+		sb.append(",\"n1\":").append(fit.n1);
+		sb.append(",\"slope2\":").append(BatchRunner.jsonNumber(fit.ab2[0]));
+		sb.append(",\"intercept2\":").append(BatchRunner.jsonNumber(fit.ab2[1]));
+		sb.append(",\"n2\":").append(fit.n2);
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Находит набор данных по параметру <code>id</code> или по файлам (<code>file</code>, <code>merge</code>,
+	 * <code>step</code>)
+	 */
+	private Dataset dataset(Map<String, List<String>> parameters) throws RequestException, IOException {
+		String id = parameter(parameters, "id");
+		Dataset dataset;
+		if(id != null) {
+			synchronized(this) {
+				dataset = known.get(id);
+			}
+			if(dataset == null)
+				throw new RequestException(404, "unknown data set " + id);
+		} else {
+			List<String> names = parameters.get("file");
+			if(names == null || names.isEmpty())
+				throw new RequestException(400, "id or file expected");
+			File[] files = new File[names.size()];
+			for(int i=0; i<files.length; i++) {
+				files[i] = new File(names.get(i)).getAbsoluteFile();
+			}
+			String step = parameter(parameters, "step");
+			boolean merge = step != null || Boolean.parseBoolean(parameter(parameters, "merge"));
+			double width;
+			try {
+				width = step == null ? 0 : Double.parseDouble(step);
+			} catch(NumberFormatException e) {
+				throw new RequestException(400, "invalid step " + step);
+			}
+			dataset = new Dataset(idOf(files, merge, width), files, merge, width);
+			synchronized(this) {
+				Dataset existing = known.putIfAbsent(dataset.id, dataset);
+				if(existing != null)
+					dataset = existing;
+				// Забыть давно не запрошенные наборы, кроме загруженных (их снова можно загрузить по файлам)
+				Iterator<Dataset> it = known.values().iterator();
+				while(known.size() > KNOWN_LIMIT && it.hasNext()) {
+					if(!datasets.containsKey(it.next().id))
+						it.remove();
+				}
+			}
+		}
+		return dataset;
+	}
+
+	/**
+	 * Загружает набор данных, если он не загружен или его файлы изменились после загрузки.
+	 * Одновременные запросы одного набора ждут одной загрузки
+	 *
+	 * @return снимок набора данных (остается пригодным, даже если набор будет вытеснен)
+	 */
+	private Snapshot loaded(Dataset dataset) throws RequestException, IOException {
+		Snapshot snapshot = current(dataset, stampsOf(dataset.files));
+		if(snapshot != null)
+			return snapshot;
+		CompletableFuture<Snapshot> mine = new CompletableFuture<>();
+		CompletableFuture<Snapshot> existing = loading.putIfAbsent(dataset.id, mine);
+		if(existing != null) {
+			try {
+				return existing.join();
+			} catch(CompletionException e) {
+				if(e.getCause() instanceof RequestException)
+					throw (RequestException)e.getCause();
+				throw new IOException(e.getCause().getMessage(), e.getCause());
+			}
+		}
+		try {
+			// Другой поток мог закончить загрузку между проверкой и putIfAbsent.
+			// Атрибуты файлов запоминаются до чтения: если файл изменится во время чтения,
+			// набор будет перечитан при следующем запросе
+			long[] stamps = stampsOf(dataset.files);
+			snapshot = current(dataset, stamps);
+			if(snapshot == null) {
+				snapshot = read(dataset, stamps);
+				synchronized(this) {
+					if(datasets.put(dataset.id, dataset) != null)
+						memory -= dataset.snapshot.bytes;
+					dataset.snapshot = snapshot;
+					memory += snapshot.bytes;
+					// Вытеснить давно не использованные наборы (последний загруженный остается в любом случае)
+					Iterator<Dataset> it = datasets.values().iterator();
+					while(memory > memoryLimit && datasets.size() > 1) {
+						Dataset evicted = it.next();
+						it.remove();
+						memory -= evicted.snapshot.bytes;
+						evicted.snapshot = null;
+						evictions.increment();
+					}
+				}
+			}
+			mine.complete(snapshot);
+			return snapshot;
+		} catch(RequestException | RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(dataset.id, mine);
+		}
+	}
+
+	/**
+	 * Возвращает снимок загруженного набора данных. Если файлы набора изменились после загрузки,
+	 * набор выгружается
+	 *
+	 * @param stamps текущие размеры и времена изменения файлов
+	 * @return снимок или null, если набор нужно загрузить
+	 */
+	private synchronized Snapshot current(Dataset dataset, long[] stamps) {
+		if(datasets.get(dataset.id) == null)
+			return null;
+		if(Arrays.equals(dataset.snapshot.stamps, stamps))
+			return dataset.snapshot;
+		datasets.remove(dataset.id);
+		memory -= dataset.snapshot.bytes;
+		dataset.snapshot = null;
+		return null;
+	}
+
+	/**
+	 * @return размеры и времена изменения файлов (для файла, которого нет, - нули)
+	 */
+	static long[] stampsOf(File[] files) {
+		long[] stamps = new long[2*files.length];
+		for(int i=0; i<files.length; i++) {
+			stamps[2*i] = files[i].length();
+			stamps[2*i+1] = files[i].lastModified();
+		}
+		return stamps;
+	}
+
+	/**
+	 * Читает файлы набора данных так же, как окно приложения: реплики усредняются по номеру строки
+	 * или сливаются на общую сетку температуры
+	 *
+	 * @param stamps размеры и времена изменения файлов, запомненные до чтения
+	 * @return снимок набора данных
+	 */
+	private Snapshot read(Dataset dataset, long[] stamps) throws RequestException {
+		FitStatistics statistics;
+		String report;
+		double[] range;
+		if(dataset.merge) {
+			ReplicaMerger merger = new ReplicaMerger(dataset.files, dataset.step);
+			report = merger.report();
+			if(merger.size < 2)
+				throw new RequestException(400, report != null ? report : "not enough data points");
+			statistics = new FitStatistics(merger.t, merger.volume, merger.weights);
+			range = ColumnKernels.range(statistics.x, statistics.from, statistics.to);
+		} else {
+			ReplicaLoader loader = new ReplicaLoader(dataset.files);
+			report = loader.report();
+			if(loader.usedFiles.length == 0 || loader.t.length() < 2)
+				throw new RequestException(400, report != null ? report : "not enough data points");
+			DoubleColumn t = loader.t, volume = loader.volume;
+			range = ColumnKernels.divideAndRange(t, volume, loader.usedFiles.length);
+			FitStatistics.sortByX(t, volume);
+			statistics = new FitStatistics(t, volume);
+		}
+		// Диапазон конечных значений (NaN при сортировке оказываются в конце столбца температуры)
+		if(range[0] > range[1])
+			throw new RequestException(400, "no finite temperature values");
+		loads.increment();
+		return new Snapshot(statistics, range[0], range[1], report, stamps);
+	}
+
+	/**
+	 * Идентификатор набора данных: начало SHA-256 от путей файлов и параметров слияния
+	 */
+	static String idOf(File[] files, boolean merge, double step) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			sha.update((merge + "," + step).getBytes(StandardCharsets.UTF_8));
+			for(File file : files) {
+				sha.update((byte)0);
+				sha.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+			}
+			byte[] digest = sha.digest();
+			StringBuilder hex = new StringBuilder();
+			for(int i=0; i<8; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Запрос <code>/metrics</code>: счетчики в текстовом виде, по одному на строку
+	 */
+	private String metrics() {
+		int count, remembered;
+		long used;
+		synchronized(this) {
+			count = datasets.size();
+			remembered = known.size();
+			used = memory;
+		}
+		StringBuilder sb = new StringBuilder();
+		metric(sb, "datasets_loaded", count);
+		metric(sb, "datasets_known", remembered);
+		metric(sb, "memory_bytes", used);
+		metric(sb, "memory_limit_bytes", memoryLimit);
+		metric(sb, "loads_total", loads.sum());
+		metric(sb, "evictions_total", evictions.sum());
+		metric(sb, "load_requests_total", loadLatency.total.sum());
+		metric(sb, "load_latency_p50_ms", loadLatency.percentile(0.5));
+		metric(sb, "load_latency_p99_ms", loadLatency.percentile(0.99));
+		metric(sb, "fit_requests_total", fitRequests.sum());
+		metric(sb, "fit_batches_total", batches.sum());
+		metric(sb, "fit_batch_max", maxBatch.get());
+		metric(sb, "fits_total", fits.sum());
+		metric(sb, "fit_latency_p50_ms", fitLatency.percentile(0.5));
+		metric(sb, "fit_latency_p99_ms", fitLatency.percentile(0.99));
+		metric(sb, "errors_total", errors.sum());
+		sb.append("# ").append(Instrumentation.snapshot()).append('\n');
+		return sb.toString();
+	}
+
+	private static void metric(StringBuilder sb, String name, double value) {
+		sb.append(name).append(' ');
+		if(value == Math.rint(value) && !Double.isInfinite(value))
+			sb.append((long)value);
+		else
+			sb.append(String.format(Locale.ENGLISH, "%.4f", value));
+		sb.append('\n');
+	}
+}
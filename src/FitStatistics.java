@@ -0,0 +1,421 @@
+import java.nio.DoubleBuffer;
+
+/**
+ * <p>Накопленные статистики для подгонки прямой методом наименьших квадратов</p>
+ * <p>Данные хранятся отсортированными по оси абсцисс. Для каждой точки запоминаются
+ * префиксные суммы x, y, x*y, x*x и y*y, вычисленные с компенсацией ошибки округления (суммирование Кэхэна).
+ * Поэтому подгонка на любом интервале сводится к двум двоичным поискам и разности префиксных сумм,
+ * а не к проходу по всем данным.</p>
+ * <p>Точки можно добавлять по одной ({@link FitStatistics#insert}). Массивы имеют запас емкости с обоих концов,
+ * а префиксные суммы хранятся с точностью до постоянного слагаемого, поэтому точка, расширяющая диапазон x
+ * в любую сторону, добавляется за O(1). Точка внутри диапазона вставляется со сдвигом ближайшего к ней конца.</p>
+ * <p>Данные и префиксные суммы хранятся в столбцах {@link DoubleColumn}, поэтому для больших данных
+ * они размещаются вне кучи. Префиксные суммы строятся одним проходом по фрагментам столбцов.</p>
+ * <p>Точкам могут быть заданы веса (например, обратные дисперсии средних по интервалам температуры,
+ * {@link ReplicaMerger}). Тогда префиксные суммы накапливают w*x, w*y и т.д., дополнительно хранятся суммы
+ * весов, и подгонка минимизирует взвешенную сумму квадратов остатков. Без весов все веса равны 1.</p>
+ *
+ * @see TgFit
+ */
+class FitStatistics {
+
+	DoubleColumn x, y; // данные, отсортированные по возрастанию x; заняты элементы с индексами [from, to)
+	DoubleColumn w; // веса точек или null, если все веса равны 1
+	DoubleColumn sx, sy, sxy, sx2, sy2; // префиксные суммы: разность элементов hi и lo - сумма по точкам [lo, hi)
+	DoubleColumn sw; // префиксные суммы весов или null, если веса не заданы
+	int from, to; // диапазон индексов занятых элементов
+	int n; // количество точек
+	int version; // номер изменения данных, увеличивается при добавлении точек
+
+	/**
+	 * Строит префиксные суммы по данным, уже отсортированным по возрастанию x
+	 *
+	 * @param x абсциссы (отсортированы по возрастанию)
+	 * @param y ординаты (столбец того же вида, что и абсциссы)
+	 * @see FitStatistics#sortByX
+	 */
+	FitStatistics(DoubleColumn x, DoubleColumn y) {
+		this(x, y, null);
+	}
+
+	/**
+	 * Строит взвешенные префиксные суммы по данным, уже отсортированным по возрастанию x
+	 *
+	 * @param x абсциссы (отсортированы по возрастанию)
+	 * @param y ординаты (столбец того же вида, что и абсциссы)
+	 * @param w положительные веса точек (столбец того же вида) или null
+	 */
+	FitStatistics(DoubleColumn x, DoubleColumn y, DoubleColumn w) {
+		if(x.getClass() != y.getClass() || x.length() != y.length()
+				|| (w != null && (w.getClass() != x.getClass() || w.length() != x.length())))
+			throw new IllegalArgumentException("columns of different storage or length");
+		this.x = x;
+		this.y = y;
+		this.w = w;
+		n = x.length();
+		from = 0;
+		to = n;
+		sx = DoubleColumn.allocate(n+1);
+		sy = DoubleColumn.allocate(n+1);
+		sxy = DoubleColumn.allocate(n+1);
+		sx2 = DoubleColumn.allocate(n+1);
+		sy2 = DoubleColumn.allocate(n+1);
+		if(w != null)
+			sw = DoubleColumn.allocate(n+1);
+
+		// Текущие суммы и компенсации ошибок округления
+		double s_x = 0, s_y = 0, s_xy = 0, s_x2 = 0, s_y2 = 0, s_w = 0;
+		double c_x = 0, c_y = 0, c_xy = 0, c_x2 = 0, c_y2 = 0, c_w = 0;
+		double v, tmp;
+		for(int k=0; k<x.chunkCount(); k++) {
+			int start = x.chunkStart(k);
+			DoubleBuffer xc = x.chunk(k), yc = y.chunk(k), wc = w == null ? null : w.chunk(k);
+			for(int j=0; j<xc.limit(); j++) {
+				double xi = xc.get(j), yi = yc.get(j);
+				int i = start + j;
+
+				// С весами накапливаются w*x, w*y, w*x*y, w*x*x, w*y*y (при весе 1 - те же числа, что и без весов)
+				double wi = 1;
+				if(wc != null) {
+					wi = wc.get(j);
+					v = wi - c_w;
+					tmp = s_w + v;
+					c_w = (tmp - s_w) - v;
+					s_w = tmp;
+					sw.set(i+1, s_w);
+				}
+				double wx = wi*xi, wy = wi*yi;
+
+				v = wx - c_x;
+				tmp = s_x + v;
+				c_x = (tmp - s_x) - v;
+				s_x = tmp;
+
+				v = wy - c_y;
+				tmp = s_y + v;
+				c_y = (tmp - s_y) - v;
+				s_y = tmp;
+
+				v = wx*yi - c_xy;
+				tmp = s_xy + v;
+				c_xy = (tmp - s_xy) - v;
+				s_xy = tmp;
+
+				v = wx*xi - c_x2;
+				tmp = s_x2 + v;
+				c_x2 = (tmp - s_x2) - v;
+				s_x2 = tmp;
+
+				v = wy*yi - c_y2;
+				tmp = s_y2 + v;
+				c_y2 = (tmp - s_y2) - v;
+				s_y2 = tmp;
+
+				sx.set(i+1, s_x);
+				sy.set(i+1, s_y);
+				sxy.set(i+1, s_xy);
+				sx2.set(i+1, s_x2);
+				sy2.set(i+1, s_y2);
+			}
+		}
+	}
+
+	/**
+	 * Осуществляет подгонку прямой (<code>y = A*x + B</code>) к точкам, лежащим строго внутри интервала
+	 *
+	 * @param x_start Начало интервала
+	 * @param x_finish Конец интервала
+	 * @return массив, содержащий пару параметров A и B
+	 */
+	double[] fit(double x_start, double x_finish) {
+		Instrumentation.FitEvent event = new Instrumentation.FitEvent();
+		event.begin();
+		int lo = firstAbove(x_start);
+		int hi = Math.max(lo, firstNotBelow(x_finish));
+		int count = hi - lo;
+		double weight = weight(lo, hi);
+
+		double xymean = sxy.get(hi) - sxy.get(lo);
+		double xmean = sx.get(hi) - sx.get(lo);
+		double ymean = sy.get(hi) - sy.get(lo);
+		double x2mean = sx2.get(hi) - sx2.get(lo);
+
+		double[] ab = new double[2];
+		ab[0] = (weight*xymean-xmean*ymean)/(weight*x2mean-xmean*xmean);
+		ab[1] = (ymean-ab[0]*xmean)/weight;
+
+		Instrumentation.fits.increment();
+		if(event.shouldCommit()) {
+			event.start = x_start;
+			event.finish = x_finish;
+			event.points = count;
+			event.estimator = Estimator.OLS.label;
+			event.commit();
+		}
+		return ab;
+	}
+
+	/**
+	 * Возвращает количество точек, лежащих строго внутри интервала
+	 *
+	 * @param x_start Начало интервала
+	 * @param x_finish Конец интервала
+	 * @return количество точек
+	 */
+	int count(double x_start, double x_finish) {
+		int lo = firstAbove(x_start);
+		return Math.max(0, firstNotBelow(x_finish) - lo);
+	}
+
+	/**
+	 * Возвращает сумму весов точек с индексами <code>[lo, hi)</code> (без весов - количество точек)
+	 *
+	 * @param lo индекс первой точки
+	 * @param hi индекс, следующий за последней точкой
+	 * @return сумма весов
+	 */
+	double weight(int lo, int hi) {
+		return sw == null ? hi - lo : sw.get(hi) - sw.get(lo);
+	}
+
+	/**
+	 * Возвращает (взвешенную) сумму квадратов отклонений точек с индексами <code>[lo, hi)</code>
+	 * от прямой, подогнанной к ним методом наименьших квадратов
+	 *
+	 * @param lo индекс первой точки
+	 * @param hi индекс, следующий за последней точкой
+	 * @return сумма квадратов остатков
+	 */
+	double sse(int lo, int hi) {
+		double count = weight(lo, hi);
+		double Sx = sx.get(hi) - sx.get(lo);
+		double Sy = sy.get(hi) - sy.get(lo);
+		double Sxx = (sx2.get(hi) - sx2.get(lo)) - Sx*Sx/count;
+		double Sxy = (sxy.get(hi) - sxy.get(lo)) - Sx*Sy/count;
+		double Syy = (sy2.get(hi) - sy2.get(lo)) - Sy*Sy/count;
+		double sse = Sxx > 0 ? Syy - Sxy*Sxy/Sxx : Syy;
+		return sse > 0 ? sse : 0;
+	}
+
+	/**
+	 * Находит индекс первой точки, у которой <code>x > value</code>
+	 * (значения NaN при сортировке оказываются в конце и считаются большими)
+	 */
+	int firstAbove(double value) {
+		int lo = from, hi = to;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(x.get(mid) <= value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Находит индекс первой точки, у которой <code>x >= value</code>
+	 * (значения NaN при сортировке оказываются в конце и считаются большими)
+	 */
+	int firstNotBelow(double value) {
+		int lo = from, hi = to;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(x.get(mid) < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Добавляет точку с сохранением порядка по возрастанию x.
+	 * Префиксные суммы обновляются от места вставки до ближайшего конца.
+	 * Если точкам заданы веса, вес новой точки равен 1
+	 *
+	 * @param xv значение по оси абсцисс
+	 * @param yv значение по оси ординат
+	 */
+	void insert(double xv, double yv) {
+		int pos = insertionPoint(xv);
+		if(pos - from >= to - pos) {
+			// Ближе к концу: сдвинуть точки [pos, to) вправо
+			if(to == x.length())
+				grow();
+			pos = insertionPoint(xv);
+			x.move(pos, pos+1, to-pos);
+			y.move(pos, pos+1, to-pos);
+			x.set(pos, xv);
+			y.set(pos, yv);
+			if(w != null) {
+				w.move(pos, pos+1, to-pos);
+				w.set(pos, 1);
+			}
+			to++;
+			for(int i=pos; i<to; i++) {
+				double xi = x.get(i), yi = y.get(i);
+				double wi = w == null ? 1 : w.get(i);
+				sx.set(i+1, sx.get(i) + wi*xi);
+				sy.set(i+1, sy.get(i) + wi*yi);
+				sxy.set(i+1, sxy.get(i) + wi*xi*yi);
+				sx2.set(i+1, sx2.get(i) + wi*xi*xi);
+				sy2.set(i+1, sy2.get(i) + wi*yi*yi);
+				if(sw != null)
+					sw.set(i+1, sw.get(i) + wi);
+			}
+		} else {
+			// Ближе к началу: сдвинуть точки [from, pos) влево
+			if(from == 0)
+				grow();
+			pos = insertionPoint(xv);
+			x.move(from, from-1, pos-from);
+			y.move(from, from-1, pos-from);
+			if(w != null)
+				w.move(from, from-1, pos-from);
+			from--;
+			pos--;
+			x.set(pos, xv);
+			y.set(pos, yv);
+			if(w != null)
+				w.set(pos, 1);
+			for(int i=pos; i>=from; i--) {
+				double xi = x.get(i), yi = y.get(i);
+				double wi = w == null ? 1 : w.get(i);
+				sx.set(i, sx.get(i+1) - wi*xi);
+				sy.set(i, sy.get(i+1) - wi*yi);
+				sxy.set(i, sxy.get(i+1) - wi*xi*yi);
+				sx2.set(i, sx2.get(i+1) - wi*xi*xi);
+				sy2.set(i, sy2.get(i+1) - wi*yi*yi);
+				if(sw != null)
+					sw.set(i, sw.get(i+1) - wi);
+			}
+		}
+		n++;
+		version++;
+	}
+
+	private int insertionPoint(double xv) {
+		// Значения NaN хранятся в конце
+		return Double.isNaN(xv) ? to : firstAbove(xv);
+	}
+
+	/**
+	 * Копирует занятые элементы данных (без префиксных сумм), чтобы подогнать их в другом потоке,
+	 * пока к этим статистикам добавляются точки. Статистики по копии строятся конструктором
+	 *
+	 * @return <code>{x, y, w}</code> длины n (w - null, если веса не заданы)
+	 */
+	DoubleColumn[] copyPoints() {
+		DoubleColumn[] points = {DoubleColumn.allocate(n), DoubleColumn.allocate(n), w == null ? null : DoubleColumn.allocate(n)};
+		DoubleColumn.copy(x, from, points[0], 0, n);
+		DoubleColumn.copy(y, from, points[1], 0, n);
+		if(w != null)
+			DoubleColumn.copy(w, from, points[2], 0, n);
+		return points;
+	}
+
+	/**
+	 * Увеличивает емкость столбцов вдвое, оставляя одинаковый запас с обоих концов
+	 */
+	private void grow() {
+		int capacity = Math.max(16, x.length()*2);
+		int shift = (capacity - n)/2 - from;
+		x = moved(x, capacity, shift, from, to);
+		y = moved(y, capacity, shift, from, to);
+		sx = moved(sx, capacity+1, shift, from, to+1);
+		sy = moved(sy, capacity+1, shift, from, to+1);
+		sxy = moved(sxy, capacity+1, shift, from, to+1);
+		sx2 = moved(sx2, capacity+1, shift, from, to+1);
+		sy2 = moved(sy2, capacity+1, shift, from, to+1);
+		if(w != null) {
+			w = moved(w, capacity, shift, from, to);
+			sw = moved(sw, capacity+1, shift, from, to+1);
+		}
+		from += shift;
+		to += shift;
+	}
+
+	private static DoubleColumn moved(DoubleColumn a, int capacity, int shift, int lo, int hi) {
+		DoubleColumn b = DoubleColumn.allocate(capacity);
+		DoubleColumn.copy(a, lo, b, lo+shift, hi-lo);
+		return b;
+	}
+
+	/**
+	 * <p>Сортирует пары (x, y) по возрастанию x на месте</p>
+	 * <p>Данные моделирования обычно уже монотонны (нагрев или охлаждение),
+	 * поэтому сначала проверяются случаи упорядоченных и обратно упорядоченных данных</p>
+	 *
+	 * @param x абсциссы
+	 * @param y ординаты, переставляются вместе с абсциссами
+	 */
+	static void sortByX(DoubleColumn x, DoubleColumn y) {
+		int n = x.length();
+		boolean ascending = true, descending = true;
+		for(int i=1; i<n && (ascending || descending); i++) {
+			int cmp = Double.compare(x.get(i-1), x.get(i));
+			if(cmp > 0)
+				ascending = false;
+			else if(cmp < 0)
+				descending = false;
+		}
+		if(ascending)
+			return;
+		if(descending) {
+			for(int i=0, j=n-1; i<j; i++, j--)
+				swap(x, y, i, j);
+			return;
+		}
+		quickSort(x, y, 0, n-1);
+	}
+
+	private static void quickSort(DoubleColumn x, DoubleColumn y, int left, int right) {
+		while(right - left > 16) {
+			// Опорный элемент - медиана трех
+			int mid = (left + right) >>> 1;
+			if(Double.compare(x.get(mid), x.get(left)) < 0) swap(x, y, mid, left);
+			if(Double.compare(x.get(right), x.get(left)) < 0) swap(x, y, right, left);
+			if(Double.compare(x.get(right), x.get(mid)) < 0) swap(x, y, right, mid);
+			double pivot = x.get(mid);
+
+			int i = left, j = right;
+			while(i <= j) {
+				while(Double.compare(x.get(i), pivot) < 0) i++;
+				while(Double.compare(x.get(j), pivot) > 0) j--;
+				if(i <= j) {
+					swap(x, y, i, j);
+					i++;
+					j--;
+				}
+			}
+
+			// Рекурсия по меньшей части, цикл по большей
+			if(j - left < right - i) {
+				quickSort(x, y, left, j);
+				left = i;
+			} else {
+				quickSort(x, y, i, right);
+				right = j;
+			}
+		}
+
+		// Короткие участки - сортировка вставками
+		for(int i=left+1; i<=right; i++) {
+			double xv = x.get(i), yv = y.get(i);
+			int j = i - 1;
+			while(j >= left && Double.compare(x.get(j), xv) > 0) {
+				x.set(j+1, x.get(j));
+				y.set(j+1, y.get(j));
+				j--;
+			}
+			x.set(j+1, xv);
+			y.set(j+1, yv);
+		}
+	}
+
+	private static void swap(DoubleColumn x, DoubleColumn y, int i, int j) {
+		double tmp = x.get(i); x.set(i, x.get(j)); x.set(j, tmp);
+		tmp = y.get(i); y.set(i, y.get(j)); y.set(j, tmp);
+	}
+}
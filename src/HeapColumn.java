@@ -0,0 +1,72 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Столбец в виде массива в куче</p>
+ *
+ * @see DoubleColumn
+ */
+class HeapColumn implements DoubleColumn {
+
+	double[] values;
+
+	/**
+	 * @param length количество элементов
+	 */
+	HeapColumn(int length) {
+		values = new double[length];
+	}
+
+	/**
+	 * @param values массив значений (используется без копирования)
+	 */
+	HeapColumn(double[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public int length() {
+		return values.length;
+	}
+
+	@Override
+	public double get(int i) {
+		return values[i];
+	}
+
+	@Override
+	public void set(int i, double v) {
+		values[i] = v;
+	}
+
+	@Override
+	public void move(int from, int to, int count) {
+		System.arraycopy(values, from, values, to, count);
+	}
+
+	@Override
+	public DoubleColumn resize(int length) {
+		// В режиме auto длинный столбец переносится из кучи в отображенный файл
+		if(length > values.length && STORAGE.equals("auto") && length > AUTO_THRESHOLD) {
+			DoubleColumn column = new ChunkedColumn(length, true);
+			DoubleColumn.copy(this, 0, column, 0, values.length);
+			return column;
+		}
+		return new HeapColumn(Arrays.copyOf(values, length));
+	}
+
+	@Override
+	public int chunkCount() {
+		return 1;
+	}
+
+	@Override
+	public int chunkStart(int k) {
+		return 0;
+	}
+
+	@Override
+	public DoubleBuffer chunk(int k) {
+		return DoubleBuffer.wrap(values);
+	}
+}
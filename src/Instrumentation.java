@@ -0,0 +1,139 @@
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * <p>Измерение производительности: события JDK Flight Recorder и счетчики</p>
+ * <p>События чтения файла, подгонки прямой и отрисовки кадра записываются, только если запись JFR
+ * запущена (например, <code>java -XX:StartFlightRecording=filename=approximizer.jfr ...</code>),
+ * иначе их создание сводится к проверке флага. Счетчики ведутся всегда: это несколько
+ * {@link LongAdder}, поэтому их обновление из разных потоков не создает конкуренции.
+ * Снимок счетчиков выводится в пакетном режиме с ключом <code>--stats</code>.</p>
+ *
+ * @see Approximizer#paintComponent
+ * @see BatchRunner
+ */
+class Instrumentation {
+
+	static final LongAdder files = new LongAdder(); // прочитано файлов
+	static final LongAdder cachedFiles = new LongAdder(); // из них прочитано из двоичного кэша
+	static final LongAdder bytes = new LongAdder(); // прочитано байтов
+	static final LongAdder lines = new LongAdder(); // прочитано точек
+	static final LongAdder loadNanos = new LongAdder(); // время чтения файлов
+	static final LongAdder fits = new LongAdder(); // подогнано прямых
+	static final LongAdder resultHits = new LongAdder(); // результатов пакетного режима найдено в кэше
+	static final LongAdder resultMisses = new LongAdder(); // результатов пакетного режима не найдено в кэше
+	static final LongAdder frames = new LongAdder(); // нарисовано кадров
+	static final LongAdder frameNanos = new LongAdder(); // время отрисовки кадров
+
+	/**
+	 * Чтение одного файла с данными
+	 */
+	@Name("approximizer.LoadFile")
+	@Label("Load Data File")
+	@Category("Approximizer")
+	@Description("Parsing of a data file or reading of its binary cache")
+	@StackTrace(false)
+	static class LoadFileEvent extends Event {
+		@Label("File")
+		String file;
+
+		@Label("Size")
+		@DataAmount
+		long bytes;
+
+		@Label("Points")
+		int lines;
+
+		@Label("From Cache")
+		boolean cached;
+	}
+
+	/**
+	 * Подгонка одной прямой
+	 */
+	@Name("approximizer.Fit")
+	@Label("Fit Line")
+	@Category("Approximizer")
+	@Description("Fit of a line to the points of one window")
+	@StackTrace(false)
+	static class FitEvent extends Event {
+		@Label("Window Start")
+		double start;
+
+		@Label("Window End")
+		double finish;
+
+		@Label("Points")
+		int points;
+
+		@Label("Estimator")
+		String estimator;
+	}
+
+	/**
+	 * Отрисовка одного кадра
+	 */
+	@Name("approximizer.Frame")
+	@Label("Paint Frame")
+	@Category("Approximizer")
+	@Description("One paintComponent call with data")
+	@StackTrace(false)
+	static class FrameEvent extends Event {
+		@Label("Width")
+		int width;
+
+		@Label("Height")
+		int height;
+
+		@Label("Points")
+		int points;
+
+		@Label("Static Layer Rebuilt")
+		boolean rebuilt;
+	}
+
+	/**
+	 * Учитывает прочитанный файл и записывает событие, начатое перед чтением
+	 *
+	 * @param event событие чтения, для которого уже вызван <code>begin()</code>
+	 * @param file файл с данными
+	 * @param data прочитанные столбцы
+	 * @param cached данные прочитаны из двоичного кэша
+	 * @param nanos время чтения
+	 */
+	static void fileLoaded(LoadFileEvent event, File file, DataColumns data, boolean cached, long nanos) {
+		files.increment();
+		if(cached)
+			cachedFiles.increment();
+		bytes.add(data.bytes);
+		lines.add(data.size);
+		loadNanos.add(nanos);
+		if(event.shouldCommit()) {
+			event.file = file.getPath();
+			event.bytes = data.bytes;
+			event.lines = data.size;
+			event.cached = cached;
+			event.commit();
+		}
+	}
+
+	/**
+	 * @return снимок счетчиков одной строкой
+	 */
+	static String snapshot() {
+		long frameCount = frames.sum();
+		return String.format(Locale.ENGLISH,
+				"files=%d cached=%d bytes=%d points=%d load_ms=%.3f fits=%d result_hits=%d result_misses=%d frames=%d frame_ms_avg=%.3f",
+				files.sum(), cachedFiles.sum(), bytes.sum(), lines.sum(), loadNanos.sum()/1e6,
+				fits.sum(), resultHits.sum(), resultMisses.sum(), frameCount, frameCount == 0 ? 0 : frameNanos.sum()/1e6/frameCount);
+	}
+}
@@ -0,0 +1,101 @@
+import java.awt.Graphics;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Упрощенное представление ломаной данных для отрисовки</p>
+ * <p>Подряд идущие точки, попадающие в один столбец пикселей, заменяются вертикальным отрезком
+ * от минимального до максимального значения в столбце. Соседние столбцы соединяются отрезком
+ * от последней точки одного столбца к первой точке следующего. Получаемое изображение совпадает
+ * с попарной отрисовкой всех точек, но количество вызовов <code>drawLine</code> зависит от ширины
+ * графика, а не от количества точек. Данные читаются по фрагментам столбцов.</p>
+ *
+ * @see Approximizer#paintComponent
+ */
+class PlotDecimator {
+
+	int runs; // количество серий точек с одинаковой координатой x на холсте
+	int[] px; // координата x серии на холсте
+	int[] first, last, min, max; // координаты y первой, последней, минимальной и максимальной точек серии
+	boolean[] single; // серия состоит из одной точки
+
+	/**
+	 * Строит огибающую по столбцам пикселей
+	 *
+	 * @param t данные по оси абсцисс
+	 * @param volume данные по оси ординат
+	 * @param from индекс первой точки
+	 * @param to индекс, следующий за последней точкой
+	 * @param plotXOrig координата x начала графика на холсте
+	 * @param plotWidth ширина графика на холсте
+	 * @param min_t минимальное значение по оси абсцисс
+	 * @param max_t максимальное значение по оси абсцисс
+	 * @param plotYOrig координата y начала графика на холсте
+	 * @param plotHeight высота графика на холсте
+	 * @param min_volume минимальное значение по оси ординат
+	 * @param max_volume максимальное значение по оси ординат
+	 */
+	PlotDecimator(DoubleColumn t, DoubleColumn volume, int from, int to,
+			int plotXOrig, int plotWidth, double min_t, double max_t,
+			int plotYOrig, int plotHeight, double min_volume, double max_volume) {
+
+		int capacity = Math.max(1, Math.min(to-from, plotWidth*2+2));
+		px = new int[capacity];
+		first = new int[capacity];
+		last = new int[capacity];
+		min = new int[capacity];
+		max = new int[capacity];
+		single = new boolean[capacity];
+		runs = 0;
+
+		int k = -1;
+		for(int c=0; c<t.chunkCount(); c++) {
+			int start = t.chunkStart(c);
+			DoubleBuffer tc = t.chunk(c), vc = volume.chunk(c);
+			int lo = Math.max(0, from - start), hi = Math.min(tc.limit(), to - start);
+			for(int i=lo; i<hi; i++) {
+				// Те же преобразования, что и в Approximizer#x и Approximizer#y
+				int x = plotXOrig + (int)(plotWidth*(tc.get(i)-min_t)/(max_t-min_t));
+				int y = plotYOrig - (int)(plotHeight*(vc.get(i)-min_volume)/(max_volume-min_volume));
+
+				if(k >= 0 && px[k] == x) {
+					last[k] = y;
+					if(y < min[k]) min[k] = y;
+					if(y > max[k]) max[k] = y;
+					single[k] = false;
+				} else {
+					if(++k == px.length)
+						grow();
+					px[k] = x;
+					first[k] = last[k] = min[k] = max[k] = y;
+					single[k] = true;
+				}
+			}
+		}
+		runs = k + 1;
+	}
+
+	/**
+	 * Рисует огибающую данных
+	 *
+	 * @param g холст
+	 */
+	void draw(Graphics g) {
+		for(int k=0; k<runs; k++) {
+			if(!single[k])
+				g.drawLine(px[k], min[k], px[k], max[k]);
+			if(k+1 < runs)
+				g.drawLine(px[k], last[k], px[k+1], first[k+1]);
+		}
+	}
+
+	private void grow() {
+		int capacity = px.length*2;
+		px = Arrays.copyOf(px, capacity);
+		first = Arrays.copyOf(first, capacity);
+		last = Arrays.copyOf(last, capacity);
+		min = Arrays.copyOf(min, capacity);
+		max = Arrays.copyOf(max, capacity);
+		single = Arrays.copyOf(single, capacity);
+	}
+}
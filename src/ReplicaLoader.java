@@ -0,0 +1,210 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Параллельное чтение файлов нескольких ячеек моделирования (реплик) с одинаковыми условиями</p>
+ * <p>Файлы читаются одновременно ограниченным пулом потоков. Каждый поток прибавляет прочитанные данные
+ * к своим частичным суммам, после чего частичные суммы всех потоков складываются. Частичные суммы
+ * ведутся отдельно для каждой длины файла, поэтому файл с отличающимся количеством точек не портит
+ * остальные данные: он исключается, а причина исключения сохраняется в отчете по этому файлу.</p>
+ * <p>Разобранные файлы сохраняются в двоичном кэше ({@link DataCache}), поэтому повторное открытие
+ * не требует разбора текста.</p>
+ * <p>Опорной считается длина первого файла, а если его прочитать не удалось - длина, общая для
+ * наибольшего числа файлов.</p>
+ *
+ * @see Approximizer#loadFiles
+ */
+class ReplicaLoader {
+
+	File[] files; // все файлы реплик
+	String[] problems; // причина исключения каждого файла или null, если файл использован
+	File[] usedFiles; // файлы, данные которых вошли в сумму
+	long[] sizes; // размеры файлов в байтах на момент чтения
+	long[] usedSizes; // размеры использованных файлов в байтах на момент чтения
+	double[][] ranges; // крайние значения каждого файла, прочитанные из кэша, или null
+	double[] range; // крайние значения сумм, если известны (один использованный файл, прочитанный из кэша), иначе null
+	int lines; // количество точек в каждом использованном файле
+	DoubleColumn t, volume; // суммы данных по использованным файлам (не поделенные на их количество)
+
+	/**
+	 * Частичные суммы одного потока для файлов одной длины
+	 */
+	private static class Stripe {
+		DoubleColumn t, volume;
+		boolean[] files; // файлы, вошедшие в сумму
+
+		Stripe(int lines, int fileCount) {
+			t = DoubleColumn.allocate(lines);
+			volume = DoubleColumn.allocate(lines);
+			files = new boolean[fileCount];
+		}
+
+		void add(DoubleColumn x, DoubleColumn y) {
+			ColumnKernels.add(t, x);
+			ColumnKernels.add(volume, y);
+		}
+
+		void add(Stripe other) {
+			add(other.t, other.volume);
+			for(int i=0; i<files.length; i++) {
+				files[i] |= other.files[i];
+			}
+		}
+	}
+
+	/**
+	 * Читает файлы реплик и суммирует их данные по номеру строки
+	 *
+	 * @param files файлы реплик
+	 */
+	ReplicaLoader(File[] files) {
+		this.files = files;
+		problems = new String[files.length];
+		sizes = new long[files.length];
+		ranges = new double[files.length][];
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		int threads = Math.max(1, Math.min(files.length, processors));
+		int parallelism = Math.max(1, processors / threads); // количество фрагментов при разборе одного файла
+
+		AtomicInteger next = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Map<Integer, Stripe>>> results = new ArrayList<>();
+		try {
+			for(int k=0; k<threads; k++) {
+				results.add(pool.submit(() -> {
+					// Частичные суммы потока по длинам файлов
+					Map<Integer, Stripe> stripes = new HashMap<>();
+					int i;
+					while((i = next.getAndIncrement()) < files.length) {
+						try {
+							DataColumns data = DataCache.load(files[i], parallelism);
+							Stripe stripe = stripes.get(data.size);
+							if(stripe == null) {
+								stripe = new Stripe(data.size, files.length);
+								stripes.put(data.size, stripe);
+							}
+							stripe.add(data.x, data.y);
+							stripe.files[i] = true;
+							sizes[i] = data.bytes;
+							ranges[i] = data.range;
+						} catch(IOException e) {
+							String message = e instanceof NoSuchFileException ? "file not found"
+									: e.getMessage() != null ? e.getMessage() : e.toString();
+							problems[i] = message.startsWith(files[i].getName()) ? message : files[i].getName() + ": " + message;
+						}
+					}
+					return stripes;
+				}));
+			}
+
+			// Сложить частичные суммы всех потоков
+			Map<Integer, Stripe> total = new HashMap<>();
+			for(Future<Map<Integer, Stripe>> result : results) {
+				for(Map.Entry<Integer, Stripe> entry : result.get().entrySet()) {
+					Stripe stripe = total.get(entry.getKey());
+					if(stripe == null)
+						total.put(entry.getKey(), entry.getValue());
+					else
+						stripe.add(entry.getValue());
+				}
+			}
+			reduce(total);
+
+		} catch(Exception e) {
+			// Ошибка выполнения потока: считать все файлы непрочитанными
+			for(int i=0; i<files.length; i++) {
+				problems[i] = e.toString();
+			}
+			usedFiles = new File[0];
+			usedSizes = new long[0];
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Выбирает опорную длину файлов и заполняет отчет по исключенным файлам
+	 */
+	private void reduce(Map<Integer, Stripe> total) {
+		// Опорная длина - длина первого файла или наиболее частая длина
+		Integer reference = null;
+		int best = 0;
+		for(Map.Entry<Integer, Stripe> entry : total.entrySet()) {
+			int count = 0;
+			for(boolean used : entry.getValue().files)
+				if(used) count++;
+			if(entry.getValue().files[0]) {
+				reference = entry.getKey();
+				break;
+			}
+			if(count > best || (count == best && entry.getKey() > reference)) {
+				best = count;
+				reference = entry.getKey();
+			}
+		}
+
+		List<File> used = new ArrayList<>();
+		if(reference != null) {
+			Stripe stripe = total.get(reference);
+			lines = reference;
+			t = stripe.t;
+			volume = stripe.volume;
+			for(int i=0; i<files.length; i++) {
+				if(stripe.files[i]) {
+					used.add(files[i]);
+				}
+			}
+		}
+
+		// Файлы другой длины исключаются
+		for(Map.Entry<Integer, Stripe> entry : total.entrySet()) {
+			if(reference != null && entry.getKey().intValue() == reference.intValue())
+				continue;
+			boolean[] filesOfLength = entry.getValue().files;
+			for(int i=0; i<files.length; i++) {
+				if(filesOfLength[i]) {
+					problems[i] = String.format("%s: %d points, expected %d", files[i].getName(), entry.getKey(), reference);
+				}
+			}
+		}
+
+		usedFiles = used.toArray(new File[used.size()]);
+		usedSizes = new long[usedFiles.length];
+		for(int i=0, k=0; i<files.length; i++) {
+			if(k < usedFiles.length && files[i] == usedFiles[k]) {
+				usedSizes[k++] = sizes[i];
+				if(usedFiles.length == 1)
+					range = ranges[i];
+			}
+		}
+	}
+
+	/**
+	 * Формирует отчет о файлах, исключенных при загрузке
+	 *
+	 * @return отчет по одной строке на файл или null, если использованы все файлы
+	 */
+	String report() {
+		StringBuilder sb = null;
+		for(int i=0; i<files.length; i++) {
+			if(problems[i] != null) {
+				if(sb == null)
+					sb = new StringBuilder();
+				else
+					sb.append('\n');
+				sb.append(problems[i]);
+			}
+		}
+		return sb == null ? null : sb.toString();
+	}
+}
@@ -0,0 +1,438 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Слияние реплик, измеренных при разных температурах, на общую сетку температуры</p>
+ * <p>{@link ReplicaLoader} усредняет реплики по номеру строки, поэтому требует одинаковых температур
+ * во всех файлах. Здесь все файлы читаются одновременно блоками, строки каждого файла идут по возрастанию
+ * температуры (файлы охлаждения читаются с конца), а общий порядок строк всех файлов дает k-путевое
+ * слияние двоичной кучей за O(n log k). Строки распределяются по интервалам температуры одинаковой ширины,
+ * и для каждого интервала за один проход накапливаются средние температуры и объема и сумма квадратов
+ * отклонений объема (метод Уэлфорда). В памяти находятся только текущие блоки файлов и результат слияния.</p>
+ * <p>Ширина интервала по умолчанию - наибольший средний шаг температуры реплик (по их первым блокам
+ * или, для файлов, прочитанных целиком, по всем строкам),
+ * поэтому в интервал попадает примерно по одной строке каждой реплики. Каждый интервал дает одну точку
+ * со средними значениями и весом, обратным дисперсии среднего объема ({@link FitStatistics#w}). Дисперсия
+ * интервала сглаживается к общей дисперсии всех интервалов, как если бы к интервалу была добавлена одна
+ * строка с общей дисперсией: так интервалы из одной строки и с совпавшими значениями получают конечный вес.</p>
+ * <p>Если строки файла не монотонны по температуре, файл читается целиком, сортируется, и слияние
+ * повторяется. Сжатые файлы ({@link CompressedInput}) всегда читаются целиком. Строки с температурой NaN
+ * и с бесконечным или неопределенным (NaN) объемом пропускаются: иначе сумма квадратов отклонений интервала
+ * и общая дисперсия стали бы NaN, и веса интервалов потеряли бы смысл.</p>
+ *
+ * @see Approximizer#loadFiles
+ * @see BatchRunner
+ */
+class ReplicaMerger {
+
+	static final int BLOCK_SIZE = 1 << 16; // размер блока файла, читаемого за один раз (строки длиннее не допускаются)
+
+	File[] files; // все файлы реплик
+	String[] problems; // причина исключения каждого файла или null, если файл использован
+	File[] usedFiles; // файлы, данные которых вошли в результат
+	double step; // ширина интервала температуры
+	int size; // количество интервалов (точек результата)
+	DoubleColumn t, volume, weights; // средние по интервалам, отсортированные по температуре, и их веса
+
+	/**
+	 * Ошибка чтения одной реплики во время слияния
+	 */
+	private static class ReplicaException extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int replica;
+		final boolean unsorted; // строки файла не монотонны по температуре
+
+		ReplicaException(int replica, boolean unsorted, String message) {
+			super(message);
+			this.replica = replica;
+			this.unsorted = unsorted;
+		}
+	}
+
+	/**
+	 * Текущая строка одной реплики. Строки выдаются по возрастанию температуры
+	 */
+	private abstract static class Cursor {
+		int replica; // номер файла
+		double x, y; // текущая строка
+		double step; // средний шаг температуры
+
+		/**
+		 * Переходит к следующей строке
+		 *
+		 * @return false, если строки закончились
+		 */
+		abstract boolean advance() throws ReplicaException;
+
+		/**
+		 * Освобождает файл
+		 */
+		void close() {
+		}
+	}
+
+	/**
+	 * Последовательное чтение файла блоками с начала или с конца
+	 */
+	private static class FileCursor extends Cursor {
+		final File file;
+		final FileChannel channel; // открыт на все время слияния
+		final long size;
+		final boolean descending; // температура в файле убывает: блоки читаются с конца, строки блока - в обратном порядке
+		final ByteBuffer buf = ByteBuffer.allocate(BLOCK_SIZE);
+		final DataColumns rows = new DataColumns(1024); // строки текущего блока
+		long position; // при чтении с начала - начало непрочитанной части, с конца - ее конец
+		int next; // номер следующей строки блока
+		int lines; // количество прочитанных строк
+
+		/**
+		 * Открывает файл и определяет направление изменения температуры по первой и последней строкам
+		 */
+		FileCursor(File file, int replica) throws IOException {
+			this.file = file;
+			this.replica = replica;
+			size = file.length();
+			if(!file.isFile())
+				throw new NoSuchFileException(file.getPath());
+
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try {
+				readForward();
+				if(rows.size == 0)
+					throw new IOException(file.getName() + ": no data points");
+				double first = rows.x.get(0);
+				position = size;
+				readBackward();
+				descending = rows.size > 0 && rows.x.get(rows.size-1) < first;
+				if(!descending) {
+					position = 0;
+					readForward();
+				}
+			} catch(IOException | RuntimeException e) {
+				channel.close();
+				throw e;
+			}
+			int last = rows.size - 1;
+			step = last > 0 ? Math.abs(rows.x.get(last) - rows.x.get(0))/last : 0;
+			next = descending ? rows.size - 1 : 0;
+			lines = rows.size;
+			x = Double.NEGATIVE_INFINITY;
+		}
+
+		@Override
+		boolean advance() throws ReplicaException {
+			double previous = x;
+			try {
+				while(true) {
+					if(descending ? next < 0 : next >= rows.size) {
+						if(descending ? position == 0 : position == size) {
+							Instrumentation.files.increment();
+							Instrumentation.bytes.add(size);
+							Instrumentation.lines.add(lines);
+							return false;
+						}
+						if(descending)
+							readBackward();
+						else
+							readForward();
+						next = descending ? rows.size - 1 : 0;
+						lines += rows.size;
+						continue;
+					}
+					x = rows.x.get(next);
+					y = rows.y.get(next);
+					next += descending ? -1 : 1;
+					if(Double.isNaN(x) || !Double.isFinite(y))
+						continue;
+					if(x < previous)
+						throw new ReplicaException(replica, true, file.getName() + ": temperature is not monotonic");
+					return true;
+				}
+			} catch(IOException e) {
+				throw new ReplicaException(replica, false, e.getMessage() != null ? e.getMessage() : e.toString());
+			}
+		}
+
+		@Override
+		void close() {
+			try {
+				channel.close();
+			} catch(IOException e) {
+				// Файл только читался
+			}
+		}
+
+		/**
+		 * Читает и разбирает блок, начинающийся в позиции <code>position</code>
+		 */
+		private void readForward() throws IOException {
+			int read = read(position, (int)Math.min(BLOCK_SIZE, size - position));
+			boolean endOfInput = position + read == size;
+			rows.size = 0;
+			int consumed = new DataFileParser(file.getName(), position).parseLines(buf, 0, read, read, endOfInput, rows);
+			if(consumed == 0 && !endOfInput)
+				throw new IOException(String.format("%s: line at byte %d is too long", file.getName(), position));
+			position += consumed;
+		}
+
+		/**
+		 * Читает и разбирает полные строки блока, заканчивающегося в позиции <code>position</code>
+		 */
+		private void readBackward() throws IOException {
+			long start = Math.max(0, position - BLOCK_SIZE);
+			int read = read(start, (int)(position - start));
+
+			// Начало первой строки блока: строка, начатая до блока, будет прочитана со следующим блоком
+			int p = 0;
+			if(start > 0) {
+				while(p < read && buf.get(p) != '\n')
+					p++;
+				if(p == read)
+					throw new IOException(String.format("%s: line at byte %d is too long", file.getName(), start));
+				p++;
+			}
+			rows.size = 0;
+			new DataFileParser(file.getName(), start).parseLines(buf, p, read, read, true, rows);
+			position = start + p;
+		}
+
+		private int read(long from, int length) throws IOException {
+			buf.clear();
+			buf.limit(length);
+			while(buf.hasRemaining() && channel.read(buf, from + buf.position()) > 0);
+			if(buf.hasRemaining())
+				throw new IOException(file.getName() + ": file was truncated");
+			return length;
+		}
+	}
+
+	/**
+	 * Строки файла, прочитанного целиком и отсортированного по температуре
+	 */
+	private static class ColumnCursor extends Cursor {
+		final DataColumns data;
+		int next;
+
+		ColumnCursor(File file, int replica) throws IOException {
+			this.replica = replica;
+			data = DataCache.load(file, 1);
+			data.trim();
+			FitStatistics.sortByX(data.x, data.y);
+			int last = data.size - 1;
+			while(last > 0 && Double.isNaN(data.x.get(last)))
+				last--;
+			step = last > 0 ? (data.x.get(last) - data.x.get(0))/last : 0;
+		}
+
+		@Override
+		boolean advance() {
+			while(next < data.size) {
+				x = data.x.get(next);
+				y = data.y.get(next);
+				next++;
+				if(!Double.isNaN(x) && Double.isFinite(y))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Сливает реплики на общую сетку температуры
+	 *
+	 * @param files файлы реплик
+	 * @param step ширина интервала температуры или 0 - выбрать по данным
+	 */
+	ReplicaMerger(File[] files, double step) {
+		this.files = files;
+		problems = new String[files.length];
+		boolean[] unsorted = new boolean[files.length];
+
+		// Каждая ошибка исключает файл или переводит его в чтение целиком, после чего слияние повторяется
+		while(true) {
+			Cursor[] cursors = open(unsorted);
+			double width = step;
+			double origin = -width/2; // заданная ширина: интервалы с центрами в точках, кратных ширине
+			if(!(width > 0)) {
+				for(Cursor cursor : cursors) {
+					if(cursor != null && cursor.step > width)
+						width = cursor.step;
+				}
+			}
+			try {
+				List<Cursor> started = new ArrayList<>();
+				for(Cursor cursor : cursors) {
+					if(cursor != null && cursor.advance())
+						started.add(cursor);
+				}
+
+				// Ширина по данным: начало сетки - первая температура реплики, задавшей шаг, с отступом
+				// в половину интервала, чтобы строки этой реплики оказались в серединах интервалов
+				if(!(step > 0)) {
+					for(Cursor cursor : started) {
+						if(cursor.step == width) {
+							origin = cursor.x - width/2;
+							break;
+						}
+					}
+				}
+				this.step = width;
+				merge(started.toArray(new Cursor[started.size()]), width, origin);
+				break;
+			} catch(ReplicaException e) {
+				if(e.unsorted && !unsorted[e.replica])
+					unsorted[e.replica] = true;
+				else
+					problems[e.replica] = e.getMessage();
+			} finally {
+				for(Cursor cursor : cursors) {
+					if(cursor != null)
+						cursor.close();
+				}
+			}
+		}
+
+		List<File> used = new ArrayList<>();
+		for(int i=0; i<files.length; i++) {
+			if(problems[i] == null)
+				used.add(files[i]);
+		}
+		usedFiles = used.toArray(new File[used.size()]);
+	}
+
+	/**
+	 * Открывает все неисключенные файлы. Файлы, которые не удалось открыть, исключаются
+	 *
+	 * @param unsorted файлы, читаемые целиком
+	 * @return курсоры файлов (null для исключенных)
+	 */
+	private Cursor[] open(boolean[] unsorted) {
+		Cursor[] cursors = new Cursor[files.length];
+		for(int i=0; i<files.length; i++) {
+			if(problems[i] != null)
+				continue;
+			try {
+				// Сжатый файл нельзя читать блоками с конца: он распаковывается целиком (и кэшируется)
+				cursors[i] = unsorted[i] || CompressedInput.formatOf(files[i]) != null
+						? new ColumnCursor(files[i], i) : new FileCursor(files[i], i);
+			} catch(IOException e) {
+				String message = e instanceof NoSuchFileException ? "file not found"
+						: e.getMessage() != null ? e.getMessage() : e.toString();
+				problems[i] = message.startsWith(files[i].getName()) ? message : files[i].getName() + ": " + message;
+			}
+		}
+		return cursors;
+	}
+
+	/**
+	 * Сливает строки курсоров по возрастанию температуры и накапливает статистики интервалов
+	 *
+	 * @param heap курсоры, уже стоящие на первой строке
+	 * @param width ширина интервала (не положительная - интервал из строк с одинаковой температурой)
+	 * @param origin начало сетки
+	 */
+	private void merge(Cursor[] heap, double width, double origin) throws ReplicaException {
+		int count = heap.length;
+		for(int i=count/2-1; i>=0; i--) {
+			siftDown(heap, count, i);
+		}
+
+		DataColumns means = new DataColumns(1024); // средние температура и объем интервалов
+		DataColumns moments = new DataColumns(1024); // количество строк и сумма квадратов отклонений объема
+		double binEnd = Double.NEGATIVE_INFINITY; // граница, с которой начинается следующий интервал
+		long n = 0;
+		double meanX = 0, meanY = 0, m2 = 0;
+		while(count > 0) {
+			Cursor top = heap[0];
+			double xv = top.x, yv = top.y;
+			if(xv >= binEnd) {
+				if(n > 0) {
+					means.add(meanX, meanY);
+					moments.add(n, m2);
+				}
+				n = 0;
+				meanX = meanY = m2 = 0;
+				binEnd = width > 0 ? origin + (Math.floor((xv - origin)/width) + 1)*width : Math.nextUp(xv);
+				if(binEnd <= xv)
+					binEnd = Math.nextUp(xv);
+			}
+
+			// Метод Уэлфорда
+			n++;
+			meanX += (xv - meanX)/n;
+			double delta = yv - meanY;
+			meanY += delta/n;
+			m2 += delta*(yv - meanY);
+
+			if(!top.advance())
+				heap[0] = heap[--count];
+			siftDown(heap, count, 0);
+		}
+		if(n > 0) {
+			means.add(meanX, meanY);
+			moments.add(n, m2);
+		}
+
+		// Общая дисперсия по интервалам из нескольких строк
+		double pooledM2 = 0, pooledDof = 0;
+		for(int i=0; i<moments.size; i++) {
+			pooledM2 += moments.y.get(i);
+			pooledDof += moments.x.get(i) - 1;
+		}
+		double pooled = pooledDof > 0 ? pooledM2/pooledDof : 0;
+
+		// Вес - обратная дисперсия среднего: n/s^2, где s^2 = (m2 + pooled)/n
+		for(int i=0; i<moments.size; i++) {
+			double rows = moments.x.get(i);
+			moments.y.set(i, pooled > 0 ? rows*rows/(moments.y.get(i) + pooled) : rows);
+		}
+
+		means.trim();
+		moments.trim();
+		size = means.size;
+		t = means.x;
+		volume = means.y;
+		weights = moments.y;
+	}
+
+	private static void siftDown(Cursor[] heap, int count, int i) {
+		Cursor item = heap[i];
+		while(true) {
+			int child = 2*i + 1;
+			if(child >= count)
+				break;
+			if(child + 1 < count && heap[child+1].x < heap[child].x)
+				child++;
+			if(heap[child].x >= item.x)
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = item;
+	}
+
+	/**
+	 * Формирует отчет о файлах, исключенных при слиянии
+	 *
+	 * @return отчет по одной строке на файл или null, если использованы все файлы
+	 */
+	String report() {
+		StringBuilder sb = null;
+		for(int i=0; i<files.length; i++) {
+			if(problems[i] != null) {
+				if(sb == null)
+					sb = new StringBuilder();
+				else
+					sb.append('\n');
+				sb.append(problems[i]);
+			}
+		}
+		return sb == null ? null : sb.toString();
+	}
+}
@@ -0,0 +1,321 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * <p>Дисковый кэш результатов пакетного режима</p>
+ * <p>Ключ результата - SHA-256 от содержимого файлов набора данных и параметров обработки
+ * (участки подгонки, способ подгонки, модель перехода, доверительный интервал, слияние), поэтому
+ * результат повторно используется для неизменившихся данных независимо от имени и расположения файлов. Хэш содержимого
+ * файла запоминается в кэше под ключом из пути, размера, времени изменения и контрольной суммы начала
+ * и конца файла ({@link DataCache#hash}), так что при повторном запуске неизменившийся файл не читается
+ * целиком. Поэтому хэш содержимого пересчитывается, только если изменился этот отпечаток: изменение
+ * в середине файла без изменения размера и времени изменения (<code>cp -p</code>, <code>rsync -t</code>)
+ * дает прежний результат, пока запись не будет вытеснена или каталог кэша не будет очищен.</p>
+ * <p>Каждая запись - отдельный небольшой файл <code>каталог/xx/ключ.tgr</code>. Запись сначала пишется
+ * во временный файл и переименовывается, поэтому несколько процессов могут одновременно читать
+ * и пополнять один кэш. Время изменения записи обновляется при каждом попадании и служит часами LRU:
+ * когда общий размер записей превышает предел, самые давно использованные удаляются. Удаление
+ * выполняет один процесс за раз (блокировка файла <code>.lock</code> в каталоге кэша). Поврежденная
+ * или удаленная другим процессом запись считается отсутствующей.</p>
+ *
+ * @see BatchRunner
+ */
+class ResultCache {
+
+	static final String EXTENSION = ".tgr";
+	static final int MAGIC = 0x52585041; // "APXR"
+	static final int VERSION = 3;
+	static final long DEFAULT_LIMIT = 256L << 20; // предел размера кэша по умолчанию
+	static final long STALE_TEMP_MILLIS = 3600_000; // возраст брошенных временных файлов, после которого они удаляются
+
+	private static final int RESULT_SIZE = 4 + 8*4 + 8*4 + 4*2 + 8 + 1 + 8*3; // точки, границы, прямые, ширина перехода, интервал
+	private static final byte DIGEST = 0; // запись: хэш содержимого файла
+	private static final byte RESULT = 1; // запись: результат обработки набора данных
+
+	final File dir; // каталог кэша
+	final long limit; // предел общего размера записей в байтах
+	final AtomicLong written = new AtomicLong(); // записано байтов с последней очистки
+
+	/**
+	 * @param dir каталог кэша (создается при необходимости)
+	 * @param limit предел общего размера записей в байтах
+	 * @throws IOException если каталог не удалось создать
+	 */
+	ResultCache(File dir, long limit) throws IOException {
+		this.dir = dir;
+		this.limit = limit;
+		Files.createDirectories(dir.toPath());
+	}
+
+	/**
+	 * Вычисляет ключ результата для набора данных
+	 *
+	 * @param settings параметры обработки в каноническом текстовом виде
+	 * @param files файлы набора данных
+	 * @return ключ или null, если файл не удалось прочитать (тогда результат не кэшируется)
+	 */
+	byte[] key(String settings, File[] files) {
+		try {
+			MessageDigest sha = sha256();
+			sha.update(settings.getBytes(StandardCharsets.UTF_8));
+			sha.update((byte)0);
+			for(File file : files) {
+				sha.update(contentDigest(file));
+			}
+			return sha.digest();
+		} catch(IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Хэш содержимого файла: из кэша, если файл не изменился с прошлого вычисления, иначе по всем байтам файла
+	 */
+	private byte[] contentDigest(File file) throws IOException {
+		long size = file.length();
+		long modified = file.lastModified();
+		MessageDigest sha = sha256();
+		sha.update(file.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+		sha.update(ByteBuffer.allocate(24).putLong(size).putLong(modified).putLong(DataCache.hash(file, size)).flip());
+		byte[] stamp = sha.digest();
+
+		ByteBuffer entry = read(DIGEST, stamp);
+		if(entry != null && entry.remaining() == 32) {
+			byte[] digest = new byte[32];
+			entry.get(digest);
+			return digest;
+		}
+
+		sha.reset();
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			while(channel.read(buf) > 0) {
+				buf.flip();
+				sha.update(buf);
+				buf.clear();
+			}
+		}
+		byte[] digest = sha.digest();
+		write(DIGEST, stamp, ByteBuffer.wrap(digest));
+		return digest;
+	}
+
+	/**
+	 * Ищет результат в кэше
+	 *
+	 * @param key ключ результата
+	 * @return результат без имени файла или null, если его нет в кэше
+	 */
+	BatchRunner.Result get(byte[] key) {
+		ByteBuffer buf = read(RESULT, key);
+		if(buf == null || buf.remaining() != RESULT_SIZE) {
+			Instrumentation.resultMisses.increment();
+			return null;
+		}
+		BatchRunner.Result result = new BatchRunner.Result();
+		result.points = buf.getInt();
+		result.refX = new double[4];
+		for(int k=0; k<4; k++) {
+			result.refX[k] = buf.getDouble();
+		}
+		double[] ab1 = {buf.getDouble(), buf.getDouble()};
+		double[] ab2 = {buf.getDouble(), buf.getDouble()};
+		result.fit = new TgFit(ab1, ab2, buf.getInt(), buf.getInt());
+		result.fit.width = buf.getDouble();
+		boolean confidence = buf.get() != 0;
+		double lo = buf.getDouble(), hi = buf.getDouble(), level = buf.getDouble();
+		if(confidence)
+			result.confidence = new TgConfidence(result.refX, result.fit.tg, lo, hi, level);
+		Instrumentation.resultHits.increment();
+		return result;
+	}
+
+	/**
+	 * Сохраняет успешный результат в кэше. Ошибки записи не считаются ошибками обработки
+	 *
+	 * @param key ключ результата
+	 * @param result результат обработки
+	 */
+	void put(byte[] key, BatchRunner.Result result) {
+		ByteBuffer buf = ByteBuffer.allocate(RESULT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(result.points);
+		for(double boundary : result.refX) {
+			buf.putDouble(boundary);
+		}
+		TgFit fit = result.fit;
+		buf.putDouble(fit.ab1[0]).putDouble(fit.ab1[1]).putDouble(fit.ab2[0]).putDouble(fit.ab2[1]);
+		buf.putInt(fit.n1).putInt(fit.n2);
+		buf.putDouble(fit.width);
+		TgConfidence confidence = result.confidence;
+		buf.put((byte)(confidence != null ? 1 : 0));
+		buf.putDouble(confidence != null ? confidence.lo : 0)
+			.putDouble(confidence != null ? confidence.hi : 0)
+			.putDouble(confidence != null ? confidence.level : 0);
+		buf.flip();
+		write(RESULT, key, buf);
+	}
+
+	/**
+	 * Читает запись и отмечает ее использование
+	 *
+	 * @return данные записи (после заголовка) или null, если записи нет или она повреждена
+	 */
+	private ByteBuffer read(byte kind, byte[] key) {
+		File file = entryOf(key);
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			if(length < 9 + key.length || length > 1 << 16)
+				return null;
+			ByteBuffer buf = ByteBuffer.allocate((int)length).order(ByteOrder.LITTLE_ENDIAN);
+			while(buf.hasRemaining() && channel.read(buf) > 0);
+			buf.flip();
+			if(buf.remaining() != length || buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.get() != kind)
+				return null;
+			for(byte b : key) {
+				if(buf.get() != b)
+					return null;
+			}
+			file.setLastModified(System.currentTimeMillis());
+			return buf;
+		} catch(IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Записывает запись через временный файл и при превышении предела размера очищает кэш
+	 */
+	private void write(byte kind, byte[] key, ByteBuffer data) {
+		File file = entryOf(key);
+		Path temp = null;
+		try {
+			Path parent = Files.createDirectories(file.toPath().getParent());
+			temp = Files.createTempFile(parent, file.getName(), ".tmp");
+			ByteBuffer header = ByteBuffer.allocate(9 + key.length).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).put(kind).put(key).flip();
+			try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer[] parts = {header, data.duplicate()};
+				while(parts[0].hasRemaining() || parts[1].hasRemaining())
+					channel.write(parts);
+			}
+			try {
+				Files.move(temp, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch(AtomicMoveNotSupportedException e) {
+				Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			if(written.addAndGet(header.limit() + data.remaining()) > limit/4)
+				evict();
+		} catch(IOException e) {
+			// Кэш недоступен для записи: результат просто не сохраняется
+		} finally {
+			if(temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch(IOException e) {
+					// Временный файл удалит следующая очистка
+				}
+			}
+		}
+	}
+
+	/**
+	 * Удаляет самые давно использованные записи, пока общий размер не станет меньше 3/4 предела.
+	 * Если очистку уже выполняет другой процесс, ничего не делает
+	 */
+	synchronized void evict() {
+		written.set(0);
+		try(FileChannel lockChannel = FileChannel.open(new File(dir, ".lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				FileLock lock = lockChannel.tryLock()) {
+			if(lock == null)
+				return;
+
+			class Entry {
+				Path path;
+				long size, used;
+			}
+			List<Entry> entries = new ArrayList<>();
+			long total = 0;
+			long now = System.currentTimeMillis();
+			try(Stream<Path> paths = Files.walk(dir.toPath(), 2)) {
+				for(Path path : (Iterable<Path>)paths::iterator) {
+					String name = path.getFileName().toString();
+					boolean temp = name.endsWith(".tmp");
+					if(!temp && !name.endsWith(EXTENSION))
+						continue;
+					try {
+						BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+						if(!attributes.isRegularFile())
+							continue;
+						if(temp) {
+							if(now - attributes.lastModifiedTime().toMillis() > STALE_TEMP_MILLIS)
+								Files.deleteIfExists(path);
+							continue;
+						}
+						Entry entry = new Entry();
+						entry.path = path;
+						entry.size = attributes.size();
+						entry.used = attributes.lastModifiedTime().toMillis();
+						entries.add(entry);
+						total += entry.size;
+					} catch(IOException e) {
+						// Запись удалена другим процессом
+					}
+				}
+			}
+			if(total <= limit)
+				return;
+
+			entries.sort(Comparator.comparingLong(e -> e.used));
+			for(Entry entry : entries) {
+				if(total <= limit/4*3)
+					break;
+				try {
+					Files.deleteIfExists(entry.path);
+					total -= entry.size;
+				} catch(IOException e) {
+					// Запись используется: удалить при следующей очистке
+				}
+			}
+		} catch(IOException | RuntimeException e) {
+			// Очистка не обязательна для правильности результатов
+		}
+	}
+
+	/**
+	 * @return файл записи с заданным ключом
+	 */
+	private File entryOf(byte[] key) {
+		StringBuilder hex = new StringBuilder(key.length*2);
+		for(byte b : key) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return new File(new File(dir, hex.substring(0, 2)), hex + EXTENSION);
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // SHA-256 обязателен в любой реализации Java
+		}
+	}
+}
@@ -0,0 +1,618 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Устойчивая к выбросам подгонка прямой к точкам участка</p>
+ * <p>Оценка Тейла-Сена - медиана наклонов прямых через все пары точек с разными x. Вместо перебора O(n^2) пар
+ * медиана находится рандомизированным отбором за O(n log n). Точки упорядочены по x, поэтому количество пар
+ * с наклоном между θ1 и θ2 равно количеству инверсий при переупорядочении точек по <code>y - θ1*x</code>
+ * в порядок по <code>y - θ2*x</code> и считается сортировкой слиянием. Интервал наклонов, содержащий медиану,
+ * сужается по случайной выборке пар из него (пары выбираются во время той же сортировки), пока в нем
+ * не останется O(n) пар; они перечисляются, и медиана выбирается среди них. Свободный член - медиана
+ * <code>y - A*x</code>.</p>
+ * <p>Оценка Хьюбера вычисляется итеративно перевзвешенным методом наименьших квадратов, начиная с обычной
+ * подгонки. Масштаб остатков - их медианное абсолютное значение.</p>
+ * <p>Веса точек ({@link FitStatistics#w}) учитываются только методом наименьших квадратов.</p>
+ * <p>Координаты точек переставляются при сортировке вместе с номерами точек, поэтому сравнения читают память
+ * последовательно. Рабочие массивы создаются один раз и используются повторно, результаты для двух последних наборов точек
+ * запоминаются, поэтому подгонку можно выполнять при каждой перерисовке во время буксировки граничных линий.
+ * При вызове из пула fork-join (пакетный режим) сортировка больших участков выполняется параллельно.
+ * Экземпляр не потокобезопасен.</p>
+ *
+ * @see Estimator
+ * @see TgFit#of(FitStatistics, double[], RobustFit)
+ */
+class RobustFit {
+
+	static final double HUBER_K = 1.345; // порог Хьюбера в единицах масштаба остатков
+	static final double MAD_SCALE = 1.4826; // отношение стандартного отклонения к медианному абсолютному отклонению
+	static final int HUBER_ITERATIONS = 100;
+	static final double HUBER_TOLERANCE = 1e-10; // изменение подогнанных значений (в единицах масштаба) для остановки
+	static final int THEIL_SEN_ROUNDS = 64; // наибольшее количество сужений интервала наклонов
+	static final int PARALLEL_THRESHOLD = 1 << 15; // наименьшая длина части, сортируемой в отдельной задаче
+	private static final int INSERTION_THRESHOLD = 32;
+	private static final long NEVER = 1L << 62; // пропуск, при котором ни одна пара не выбирается
+
+	final Estimator estimator;
+	long seed = TgConfidence.DEFAULT_SEED; // начальное значение генераторов выборок пар
+
+	// Точки участка в текущем порядке: x отсчитывается от x0, номер точки - место в порядке по x,
+	// а при одинаковых x - по y. После загрузки точки расположены в порядке номеров
+	private int n;
+	private double x0;
+	private double[] xs = new double[0], ys = new double[0];
+	private int[] index = new int[0];
+	private double[] xb = new double[0], yb = new double[0]; // буферы слияния
+	private int[] ib = new int[0];
+	private double theta; // наклон текущего прохода: точки упорядочиваются по y - θ*x
+	private double maxY, maxX, minDx; // наибольшие |y| и |x|, наименьшее расстояние между разными x
+	private double[] samples = new double[0]; // наклоны выбранных пар, модули остатков оценки Хьюбера
+	private int capacity; // количество используемых элементов samples
+	private final AtomicInteger sampled = new AtomicInteger(); // количество выбранных пар в текущем проходе
+	private double probability; // вероятность выбора пары в текущем проходе
+	private double logSkip; // log(1 - probability)
+	private long pass; // номер прохода, входит в начальные значения генераторов
+
+	// Результаты двух последних подгонок
+	private final FitStatistics[] cachedStatistics = new FitStatistics[2];
+	private final int[] cachedVersion = new int[2], cachedLo = new int[2], cachedHi = new int[2];
+	private final double[][] cachedAb = new double[2][];
+	private final double[] cachedWidth = new double[2]; // полуширина начального интервала наклонов для соседнего участка
+	private int cacheNext;
+	private double width; // полуширина начального интервала наклонов для участка, соседнего с текущим
+
+	/**
+	 * @param estimator способ подгонки
+	 */
+	RobustFit(Estimator estimator) {
+		this.estimator = estimator;
+	}
+
+	/**
+	 * Осуществляет подгонку прямой (<code>y = A*x + B</code>) к точкам, лежащим строго внутри интервала
+	 *
+	 * @param statistics накопленные статистики данных
+	 * @param x_start Начало интервала
+	 * @param x_finish Конец интервала
+	 * @return массив, содержащий пару параметров A и B
+	 * @see FitStatistics#fit
+	 */
+	double[] fit(FitStatistics statistics, double x_start, double x_finish) {
+		if(estimator == Estimator.OLS)
+			return statistics.fit(x_start, x_finish);
+
+		int lo = statistics.firstAbove(x_start);
+		int hi = Math.max(lo, statistics.firstNotBelow(x_finish));
+
+		// Результат для того же набора точек или для пересекающегося с ним (начальное приближение)
+		int slot = -1, overlap = 0;
+		for(int c=0; c<2; c++) {
+			if(cachedStatistics[c] != statistics)
+				continue;
+			if(cachedVersion[c] == statistics.version && cachedLo[c] == lo && cachedHi[c] == hi)
+				return cachedAb[c];
+			int common = Math.min(hi, cachedHi[c]) - Math.max(lo, cachedLo[c]);
+			if(common > overlap) {
+				slot = c;
+				overlap = common;
+			}
+		}
+
+		Instrumentation.FitEvent event = new Instrumentation.FitEvent();
+		event.begin();
+		load(statistics, lo, hi);
+		double[] guess = slot >= 0 ? cachedAb[slot] : null;
+		double[] ab = estimator == Estimator.THEIL_SEN
+				? theilSen(guess, slot >= 0 ? cachedWidth[slot] : 0) : huber(guess);
+
+		// Результат заменяет тот, который использован как начальное приближение
+		if(slot < 0) {
+			slot = cacheNext;
+			cacheNext ^= 1;
+		}
+		cachedStatistics[slot] = statistics;
+		cachedVersion[slot] = statistics.version;
+		cachedLo[slot] = lo;
+		cachedHi[slot] = hi;
+		cachedAb[slot] = ab;
+		cachedWidth[slot] = width;
+
+		Instrumentation.fits.increment();
+		if(event.shouldCommit()) {
+			event.start = x_start;
+			event.finish = x_finish;
+			event.points = n;
+			event.estimator = estimator.label;
+			event.commit();
+		}
+		return ab;
+	}
+
+	/**
+	 * Копирует точки <code>[lo, hi)</code> в рабочие массивы
+	 */
+	private void load(FitStatistics statistics, int lo, int hi) {
+		n = hi - lo;
+		if(xs.length < n) {
+			xs = new double[n];
+			ys = new double[n];
+			index = new int[n];
+			xb = new double[n];
+			yb = new double[n];
+			ib = new int[n];
+		}
+		capacity = 2*n + 64;
+		if(samples.length < capacity)
+			samples = new double[capacity];
+		copy(statistics.x, lo, xs, n);
+		copy(statistics.y, lo, ys, n);
+
+		// Отсчет x от среднего уменьшает ошибки округления в y - θ*x
+		double sum = 0;
+		for(int i=0; i<n; i++) {
+			sum += xs[i];
+		}
+		x0 = n > 0 ? sum/n : 0;
+		for(int i=0; i<n; i++) {
+			xs[i] -= x0;
+		}
+		for(int i=1, start=0; i<=n; i++) {
+			if(i == n || xs[i] != xs[start]) {
+				if(i - start > 1)
+					Arrays.sort(ys, start, i);
+				start = i;
+			}
+		}
+		for(int i=0; i<n; i++) {
+			index[i] = i;
+		}
+	}
+
+	private static void copy(DoubleColumn column, int from, double[] dst, int count) {
+		for(int k=0; k<column.chunkCount(); k++) {
+			int start = column.chunkStart(k);
+			DoubleBuffer chunk = column.chunk(k);
+			int lo = Math.max(0, from - start), hi = Math.min(chunk.limit(), from + count - start);
+			if(lo < hi) {
+				chunk.position(lo);
+				chunk.get(dst, start + lo - from, hi - lo);
+			}
+		}
+	}
+
+	/**
+	 * Вычисляет оценку Тейла-Сена для загруженных точек
+	 *
+	 * @param guess результат подгонки соседнего участка или null
+	 * @param guessWidth полуширина начального интервала наклонов около результата для соседнего участка
+	 * @return параметры A и B
+	 */
+	private double[] theilSen(double[] guess, double guessWidth) {
+		// Количество пар с разными x и начальный интервал наклонов. Наклон прямой через две точки -
+		// взвешенное среднее наклонов между промежуточными соседними по x точками, поэтому наименьший
+		// и наибольший наклоны достигаются на парах точек соседних групп с одинаковым x
+		long pairs = (long)n*(n-1)/2;
+		double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+		maxY = 0;
+		minDx = Double.POSITIVE_INFINITY;
+		for(int i=1, start=0, previous=-1; i<=n; i++) {
+			maxY = Math.max(maxY, Math.abs(ys[i-1]));
+			if(i == n || xs[i] != xs[start]) {
+				long size = i - start;
+				pairs -= size*(size-1)/2;
+				if(previous >= 0) {
+					double dx = xs[start] - xs[previous];
+					lo = Math.min(lo, (ys[start] - ys[start-1])/dx);
+					hi = Math.max(hi, (ys[i-1] - ys[previous])/dx);
+					minDx = Math.min(minDx, dx);
+				}
+				previous = start;
+				start = i;
+			}
+		}
+		width = 0;
+		if(pairs == 0 || !(lo <= hi) || Double.isInfinite(lo) || Double.isInfinite(hi))
+			return new double[] {Double.NaN, Double.NaN};
+		maxX = Math.max(-xs[0], xs[n-1]);
+		lo -= resolution(lo);
+		hi += resolution(hi);
+
+		// Ранги нижней и верхней медиан среди всех наклонов (с единицы)
+		long k1 = (pairs + 1)/2, k2 = pairs/2 + 1;
+
+		// Границы, между которыми заведомо лежат медианы, и количества пар с наклоном меньше них
+		double floor = lo, ceiling = hi;
+		long floorBelow = 0, ceilingBelow = pairs;
+
+		// Первый интервал: около результата подгонки пересекающегося участка или по случайной выборке пар
+		long estimate = pairs; // ожидаемое количество пар в интервале
+		if(guess != null && guessWidth > 0 && guess[0] - guessWidth > lo && guess[0] + guessWidth < hi) {
+			lo = guess[0] - guessWidth;
+			hi = guess[0] + guessWidth;
+			estimate = capacity/2;
+		} else if(pairs > capacity/2) {
+			SplittableRandom random = new SplittableRandom(seed);
+			int m = 0;
+			while(m < capacity/2) {
+				int i = random.nextInt(n), j = random.nextInt(n);
+				if(xs[i] != xs[j])
+					samples[m++] = (ys[j] - ys[i])/(xs[j] - xs[i]);
+			}
+			Arrays.sort(samples, 0, m);
+			double delta = 3*Math.sqrt(m);
+			int iLo = (int)Math.max(0, Math.floor((double)m*k1/pairs - delta) - 1);
+			int iHi = (int)Math.min(m - 1, Math.ceil((double)m*k2/pairs + delta) - 1);
+			lo = Math.max(lo, samples[iLo] - resolution(samples[iLo]));
+			hi = Math.min(hi, samples[iHi] + resolution(samples[iHi]));
+			estimate = Math.max(1, pairs*(iHi - iLo + 1)/m);
+		}
+
+		// При θ меньше всех наклонов порядок по y - θ*x совпадает с порядком номеров точек
+		long below = lo > floor ? pass(lo, 0) : 0; // количество пар с наклоном меньше lo
+		double slope;
+		for(int round=0; ; round++) {
+			if(round > THEIL_SEN_ROUNDS) {
+				slope = lo + (hi - lo)/2;
+				break;
+			}
+
+			// Перечислить пары интервала, если их ожидается немного, иначе выбрать около capacity/2 пар
+			double probability = estimate <= capacity/2 ? 1 : capacity/2.0/estimate;
+			long count = pass(hi, probability);
+			int m = sampled.get();
+
+			// Сузить известные границы. Если медианы оказались вне интервала (интервал по начальному
+			// приближению или неудачная выборка), интервалом становится промежуток между границами
+			if(k1 > below + count) {
+				floor = hi;
+				floorBelow = below + count;
+			} else if(k1 > below) {
+				floor = lo;
+				floorBelow = below;
+			}
+			if(k2 <= below) {
+				ceiling = lo;
+				ceilingBelow = below;
+			} else if(k2 <= below + count) {
+				ceiling = hi;
+				ceilingBelow = below + count;
+			}
+			if(floor != lo || ceiling != hi) {
+				if(floor != hi)
+					pass(floor, 0);
+				lo = floor;
+				hi = ceiling;
+				below = floorBelow;
+				estimate = ceilingBelow - floorBelow;
+				continue;
+			}
+			long r1 = k1 - below, r2 = k2 - below; // ранги медиан в интервале
+
+			if(probability == 1 && m <= capacity) {
+				// Выбрать медианы среди всех пар интервала
+				Arrays.sort(samples, 0, m);
+				slope = m == 0 ? lo : (samples[(int)Math.min(r1, m)-1] + samples[(int)Math.min(r2, m)-1])/2;
+				// Интервал для соседнего участка: около capacity/2 пар при той же плотности наклонов
+				width = (hi - lo)*(capacity/4.0)/Math.max(1, m);
+				break;
+			}
+			if(hi - lo <= 3*resolution(lo + (hi - lo)/2)) {
+				// Интервал не шире ошибки округления: наклоны в нем неразличимы
+				slope = lo + (hi - lo)/2;
+				width = hi - lo;
+				break;
+			}
+
+			double newLo = lo, newHi = hi;
+			if(probability == 1) {
+				// Пар оказалось больше, чем помещается в массив: нужна выборка
+				estimate = count;
+			} else {
+				// Новый интервал - квантили выборки вокруг ожидаемых положений медиан с запасом в три стандартных
+				// отклонения. Границы отодвигаются на ошибку округления, чтобы пары с наклоном, равным квантили, попали внутрь
+				m = Math.min(m, capacity);
+				Arrays.sort(samples, 0, m);
+				double delta = 3*Math.sqrt(m);
+				long iLo = (long)Math.floor((double)m*r1/count - delta) - 1;
+				long iHi = (long)Math.ceil((double)m*r2/count + delta) - 1;
+				if(iLo >= 0 && iLo < m)
+					newLo = Math.max(lo, samples[(int)iLo] - resolution(samples[(int)iLo]));
+				if(iHi >= 0 && iHi < m)
+					newHi = Math.min(hi, samples[(int)iHi] + resolution(samples[(int)iHi]));
+				long selected = Math.min(iHi, m - 1) - Math.max(iLo, 0) + 1;
+				estimate = Math.max(1, m > 0 ? count*selected/m : count);
+				if(newLo == lo && newHi == hi) {
+					if(count <= capacity) {
+						// Выборка слишком мала, чтобы сузить интервал, но все пары помещаются в массив
+						estimate = capacity/2;
+					} else {
+						// Интервал не сужается из-за множества равных наклонов: проверить, не равна ли им медиана
+						double v = samples[(int)Math.min(m - 1, (long)m*r1/count)];
+						newLo = Math.max(lo, v - resolution(v));
+						newHi = Math.min(hi, v + resolution(v));
+					}
+				}
+			}
+			below += count - pass(newLo, 0);
+			lo = newLo;
+			hi = newHi;
+		}
+
+		// Свободный член - медиана y - A*x
+		for(int i=0; i<n; i++) {
+			samples[i] = ys[i] - slope*xs[i];
+		}
+		double b = median(samples, n);
+		return new double[] {slope, b - slope*x0};
+	}
+
+	/**
+	 * Оценивает ошибку округления наклона: пары, наклон которых отличается от θ больше, чем на эту величину,
+	 * упорядочиваются по <code>y - θ*x</code> без ошибок
+	 */
+	private double resolution(double theta) {
+		return 8*Math.ulp(1.0)*(maxY + Math.abs(theta)*maxX)/minDx + Double.MIN_NORMAL;
+	}
+
+	/**
+	 * Упорядочивает точки по <code>y - θ*x</code>, начиная с текущего порядка,
+	 * и выбирает каждую инверсию (пару, поменявшую порядок) с заданной вероятностью
+	 *
+	 * @param theta наклон
+	 * @param probability вероятность выбора пары: 0 - только подсчет, 1 - перечисление всех пар
+	 * @return количество инверсий
+	 */
+	private long pass(double theta, double probability) {
+		this.theta = theta;
+		this.probability = probability;
+		logSkip = Math.log1p(-Math.min(probability, 1));
+		sampled.set(0);
+		pass++;
+		if(n > PARALLEL_THRESHOLD && ForkJoinTask.inForkJoinPool())
+			return new SortTask(0, n).invoke();
+		return sort(0, n);
+	}
+
+	/**
+	 * Задача параллельной сортировки: части сортируются в отдельных задачах, затем сливаются
+	 */
+	private class SortTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		final int from, to;
+
+		SortTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Long compute() {
+			if(to - from <= PARALLEL_THRESHOLD)
+				return sort(from, to);
+			int mid = (from + to) >>> 1;
+			SortTask left = new SortTask(from, mid), right = new SortTask(mid, to);
+			invokeAll(left, right);
+			return left.join() + right.join() + merge(from, mid, to);
+		}
+	}
+
+	private long sort(int from, int to) {
+		if(to - from <= INSERTION_THRESHOLD)
+			return insertionSort(from, to);
+		int mid = (from + to) >>> 1;
+		return sort(from, mid) + sort(mid, to) + merge(from, mid, to);
+	}
+
+	private long insertionSort(int from, int to) {
+		SplittableRandom random = random(from, to);
+		long skip = skip(random);
+		long inversions = 0;
+		for(int i=from+1; i<to; i++) {
+			double x = xs[i], y = ys[i];
+			int id = index[i];
+			double key = y - theta*x;
+			int j = i - 1;
+			while(j >= from) {
+				double other = ys[j] - theta*xs[j];
+				if(!(key < other || (key == other && id < index[j])))
+					break;
+				inversions++;
+				if(skip == 0) {
+					sample(xs[j], ys[j], index[j], x, y, id);
+					skip = skip(random);
+				} else {
+					skip--;
+				}
+				xs[j+1] = xs[j];
+				ys[j+1] = ys[j];
+				index[j+1] = index[j];
+				j--;
+			}
+			xs[j+1] = x;
+			ys[j+1] = y;
+			index[j+1] = id;
+		}
+		return inversions;
+	}
+
+	private long merge(int from, int mid, int to) {
+		double last = ys[mid-1] - theta*xs[mid-1], first = ys[mid] - theta*xs[mid];
+		if(last < first || (last == first && index[mid-1] < index[mid]))
+			return 0;
+		System.arraycopy(xs, from, xb, from, to - from);
+		System.arraycopy(ys, from, yb, from, to - from);
+		System.arraycopy(index, from, ib, from, to - from);
+		SplittableRandom random = random(from, to);
+		long skip = skip(random);
+		long inversions = 0;
+		int i = from, j = mid, k = from;
+		while(i < mid && j < to) {
+			double a = yb[i] - theta*xb[i], b = yb[j] - theta*xb[j];
+			if(b < a || (b == a && ib[j] < ib[i])) {
+				// Точка правой части меняет порядок со всеми оставшимися точками левой части
+				int c = mid - i;
+				inversions += c;
+				while(skip < c) {
+					int p = i + (int)skip;
+					sample(xb[p], yb[p], ib[p], xb[j], yb[j], ib[j]);
+					skip += 1 + skip(random);
+				}
+				skip -= c;
+				xs[k] = xb[j];
+				ys[k] = yb[j];
+				index[k++] = ib[j++];
+			} else {
+				xs[k] = xb[i];
+				ys[k] = yb[i];
+				index[k++] = ib[i++];
+			}
+		}
+		while(i < mid) {
+			xs[k] = xb[i];
+			ys[k] = yb[i];
+			index[k++] = ib[i++];
+		}
+		return inversions;
+	}
+
+	private SplittableRandom random(int from, int to) {
+		if(probability <= 0 || probability >= 1)
+			return null;
+		return new SplittableRandom(seed + pass*0x9E3779B97F4A7C15L + ((long)from << 32) + to);
+	}
+
+	/**
+	 * @return количество пропускаемых перед следующей выбранной пар (геометрическое распределение)
+	 */
+	private long skip(SplittableRandom random) {
+		if(probability >= 1)
+			return 0;
+		if(probability <= 0)
+			return NEVER;
+		return (long)Math.min(Math.log(1 - random.nextDouble())/logSkip, NEVER);
+	}
+
+	/**
+	 * Запоминает наклон пары точек, поменявших порядок
+	 */
+	private void sample(double xa, double ya, int ia, double xc, double yc, int ic) {
+		double dx = ia < ic ? xc - xa : xa - xc;
+		if(dx > 0) {
+			int slot = sampled.getAndIncrement();
+			if(slot < capacity)
+				samples[slot] = (ia < ic ? yc - ya : ya - yc)/dx;
+		}
+	}
+
+	/**
+	 * Вычисляет оценку Хьюбера для загруженных точек
+	 *
+	 * @param guess результат подгонки пересекающегося участка или null
+	 * @return параметры A и B
+	 */
+	private double[] huber(double[] guess) {
+		// Начальное приближение - результат для пересекающегося участка или метод наименьших квадратов
+		// (x отсчитывается от среднего)
+		double a, b;
+		if(guess != null && !Double.isNaN(guess[0]) && !Double.isNaN(guess[1])) {
+			a = guess[0];
+			b = guess[1] + a*x0;
+		} else {
+			double sy = 0, sxy = 0, sx2 = 0;
+			for(int i=0; i<n; i++) {
+				sy += ys[i];
+				sxy += xs[i]*ys[i];
+				sx2 += xs[i]*xs[i];
+			}
+			a = sxy/sx2;
+			b = sy/n;
+		}
+		double span = n > 0 ? xs[n-1] - xs[0] : 0;
+
+		for(int iteration=0; iteration<HUBER_ITERATIONS; iteration++) {
+			for(int i=0; i<n; i++) {
+				samples[i] = Math.abs(ys[i] - (a*xs[i] + b));
+			}
+			double scale = MAD_SCALE*median(samples, n);
+			if(!(scale > 0))
+				break;
+			double threshold = HUBER_K*scale;
+
+			// Взвешенный метод наименьших квадратов: вес 1 для малых остатков, threshold/|r| для больших
+			double sw = 0, swx = 0, swy = 0, swxy = 0, swx2 = 0;
+			for(int i=0; i<n; i++) {
+				double xi = xs[i], yi = ys[i];
+				double r = Math.abs(yi - (a*xi + b));
+				double w = r <= threshold ? 1 : threshold/r;
+				sw += w;
+				swx += w*xi;
+				swy += w*yi;
+				swxy += w*xi*yi;
+				swx2 += w*xi*xi;
+			}
+			double xm = swx/sw, ym = swy/sw;
+			double na = (swxy - swx*ym)/(swx2 - swx*xm);
+			double nb = ym - na*xm;
+			double change = Math.abs(na - a)*span + Math.abs(nb - b);
+			a = na;
+			b = nb;
+			if(!(change > HUBER_TOLERANCE*scale))
+				break;
+		}
+		return new double[] {a, b - a*x0};
+	}
+
+	/**
+	 * Находит медиану первых <code>n</code> элементов массива (элементы переставляются)
+	 */
+	static double median(double[] a, int n) {
+		if(n == 0)
+			return Double.NaN;
+		int k = n/2;
+		if(n % 2 == 1)
+			return select(a, n, k);
+		double lower = select(a, n, k-1);
+		double upper = a[k];
+		for(int i=k+1; i<n; i++) {
+			if(a[i] < upper)
+				upper = a[i];
+		}
+		return (lower + upper)/2;
+	}
+
+	/**
+	 * Находит k-й по возрастанию (с нуля) из первых <code>n</code> элементов массива быстрым выбором.
+	 * После выполнения элементы до k-го не больше, а после - не меньше его
+	 */
+	static double select(double[] a, int n, int k) {
+		int left = 0, right = n - 1;
+		while(right > left) {
+			// Опорный элемент - медиана трех
+			int mid = (left + right) >>> 1;
+			double x = a[left], y = a[mid], z = a[right];
+			double pivot = Math.max(Math.min(x, y), Math.min(Math.max(x, y), z));
+
+			int i = left, j = right;
+			while(i <= j) {
+				while(a[i] < pivot) i++;
+				while(a[j] > pivot) j--;
+				if(i <= j) {
+					double tmp = a[i]; a[i] = a[j]; a[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+			if(k <= j)
+				right = j;
+			else if(k >= i)
+				left = i;
+			else
+				return a[k];
+		}
+		return a[k];
+	}
+}
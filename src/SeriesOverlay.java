@@ -0,0 +1,295 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * <p>Наложение многих наборов данных (серий) на одном графике</p>
+ * <p>Каждый файл - отдельная серия со своими префиксными суммами, рабочими массивами подгонки и
+ * огибающей для отрисовки. Огибающие строятся один раз (при загрузке и изменении размера окна) и
+ * рисуются в изображение неизменяемых слоев, поэтому при буксировке граничных линий кадр состоит
+ * только из подгонки и нескольких отрезков на серию.</p>
+ * <p>Все серии подгоняются для общих положений граничных линий одним пакетным проходом в общем пуле
+ * fork-join: диапазон серий делится пополам, пока в нем не останется немного работы. Повторный проход
+ * для тех же положений и того же способа подгонки не выполняется. Результаты показываются в таблице
+ * Tg по сериям ({@link #table}).</p>
+ *
+ * @see Approximizer#loadOverlay
+ */
+class SeriesOverlay {
+
+	static final int OLS_BATCH = 64; // количество серий в одной задаче при подгонке наименьшими квадратами
+	static final long BATCH_POINTS = 1 << 16; // наибольшее количество точек в одной задаче при робастной подгонке
+
+	/**
+	 * Один набор данных
+	 */
+	static class Series {
+		File file;
+		FitStatistics statistics;
+		RobustFit fitter; // рабочие массивы подгонки (у каждой серии свои: серии подгоняются параллельно)
+		PlotDecimator decimator; // огибающая для отрисовки, сбрасывается при изменении размера
+		Color color;
+		TgFit fit; // результат последней подгонки
+	}
+
+	Series[] series; // загруженные серии в порядке файлов
+	String[] problems; // причина исключения каждого файла или null, если файл загружен
+	File[] files; // все выбранные файлы
+	File[] usedFiles; // файлы загруженных серий
+	double min_t, max_t, min_volume, max_volume; // общий диапазон данных всех серий
+	int points; // общее количество точек
+	long[] cumulativePoints; // количество точек в сериях до данной (для деления на задачи)
+	double[] fittedRefX; // положения граничных линий последней подгонки
+	Estimator fittedEstimator; // способ последней подгонки
+	Table table = new Table();
+
+	/**
+	 * Читает файлы параллельно, каждый файл - отдельная серия
+	 *
+	 * @param files файлы с данными
+	 */
+	SeriesOverlay(File[] files) {
+		this.files = files;
+		problems = new String[files.length];
+		Series[] loaded = new Series[files.length];
+
+		int threads = Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for(int i=0; i<files.length; i++) {
+				final int k = i;
+				results.add(pool.submit(() -> {
+					try {
+						loaded[k] = load(files[k]);
+					} catch(IOException e) {
+						String message = e instanceof NoSuchFileException ? "file not found"
+								: e.getMessage() != null ? e.getMessage() : e.toString();
+						problems[k] = message.startsWith(files[k].getName()) ? message : files[k].getName() + ": " + message;
+					}
+				}));
+			}
+			for(Future<?> result : results) {
+				result.get();
+			}
+		} catch(Exception e) {
+			// Ошибка выполнения потока: считать все файлы непрочитанными
+			Arrays.fill(loaded, null);
+			Arrays.fill(problems, e.toString());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		List<Series> used = new ArrayList<>();
+		List<File> usedFiles = new ArrayList<>();
+		for(int i=0; i<files.length; i++) {
+			if(loaded[i] != null) {
+				used.add(loaded[i]);
+				usedFiles.add(files[i]);
+			}
+		}
+		series = used.toArray(new Series[used.size()]);
+		this.usedFiles = usedFiles.toArray(new File[usedFiles.size()]);
+
+		// Общий диапазон данных. Цвета серий - оттенки, равномерно разнесенные по кругу (шаг - золотое сечение)
+		min_t = min_volume = Double.POSITIVE_INFINITY;
+		max_t = max_volume = Double.NEGATIVE_INFINITY;
+		cumulativePoints = new long[series.length+1];
+		for(int i=0; i<series.length; i++) {
+			Series s = series[i];
+			s.color = Color.getHSBColor((float)(i*0.618033988749895 % 1), 0.85f, 0.8f);
+			FitStatistics statistics = s.statistics;
+			// Конечные значения (NaN при сортировке оказываются в конце столбца температуры)
+			double[] rangeT = ColumnKernels.range(statistics.x, statistics.from, statistics.to);
+			double[] rangeV = ColumnKernels.range(statistics.y, statistics.from, statistics.to);
+			min_t = Math.min(min_t, rangeT[0]);
+			max_t = Math.max(max_t, rangeT[1]);
+			min_volume = Math.min(min_volume, rangeV[0]);
+			max_volume = Math.max(max_volume, rangeV[1]);
+			cumulativePoints[i+1] = cumulativePoints[i] + statistics.n;
+		}
+		points = (int)Math.min(Integer.MAX_VALUE, cumulativePoints[series.length]);
+	}
+
+	/**
+	 * Читает одну серию и строит ее префиксные суммы
+	 */
+	private static Series load(File file) throws IOException {
+		DataColumns data = DataCache.load(file, 1);
+		data.trim();
+		if(data.size < 2)
+			throw new IOException("not enough data points");
+		FitStatistics.sortByX(data.x, data.y);
+		Series s = new Series();
+		s.file = file;
+		s.statistics = new FitStatistics(data.x, data.y);
+		return s;
+	}
+
+	/**
+	 * Формирует отчет о файлах, исключенных при загрузке
+	 *
+	 * @return отчет по одной строке на файл или null, если загружены все файлы
+	 */
+	String report() {
+		StringBuilder sb = null;
+		for(int i=0; i<files.length; i++) {
+			if(problems[i] != null) {
+				if(sb == null)
+					sb = new StringBuilder();
+				else
+					sb.append('\n');
+				sb.append(problems[i]);
+			}
+		}
+		return sb == null ? null : sb.toString();
+	}
+
+	/**
+	 * Подгоняет прямые всех серий для заданных положений граничных линий.
+	 * Если положения и способ подгонки не изменились с прошлого вызова, ничего не делает
+	 *
+	 * @param refX положения четырех граничных линий
+	 * @param estimator способ подгонки прямых
+	 * @return true, если результаты подгонки обновлены
+	 */
+	boolean fit(double[] refX, Estimator estimator) {
+		if(estimator == fittedEstimator && Arrays.equals(refX, fittedRefX))
+			return false;
+		if(estimator != fittedEstimator) {
+			for(Series s : series) {
+				s.fitter = new RobustFit(estimator);
+			}
+		}
+		final double[] windows = refX.clone();
+		FitTask task = new FitTask(0, series.length, windows, estimator);
+		if(ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			ForkJoinPool.commonPool().invoke(task);
+		fittedRefX = windows;
+		fittedEstimator = estimator;
+		table.fireTableRowsUpdated(0, series.length-1);
+		return true;
+	}
+
+	/**
+	 * Задача подгонки диапазона серий: делится пополам, пока в диапазоне не останется немного работы
+	 * (подгонка наименьшими квадратами не зависит от количества точек, робастная - пропорциональна ему)
+	 */
+	private class FitTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final int from, to;
+		final double[] refX;
+		final Estimator estimator;
+
+		FitTask(int from, int to, double[] refX, Estimator estimator) {
+			this.from = from;
+			this.to = to;
+			this.refX = refX;
+			this.estimator = estimator;
+		}
+
+		@Override
+		protected void compute() {
+			boolean small = estimator == Estimator.OLS
+					? to - from <= OLS_BATCH
+					: cumulativePoints[to] - cumulativePoints[from] <= BATCH_POINTS;
+			if(to - from <= 1 || small) {
+				for(int i=from; i<to; i++) {
+					Series s = series[i];
+					s.fit = TgFit.of(s.statistics, refX, s.fitter);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new FitTask(from, mid, refX, estimator), new FitTask(mid, to, refX, estimator));
+			}
+		}
+	}
+
+	/**
+	 * Сбрасывает огибающие всех серий (при изменении размера графика)
+	 */
+	void invalidate() {
+		for(Series s : series) {
+			s.decimator = null;
+		}
+	}
+
+	/**
+	 * Рисует огибающие данных всех серий, строя недостающие
+	 *
+	 * @param g холст
+	 * @param plotXOrig координата x начала графика на холсте
+	 * @param plotWidth ширина графика на холсте
+	 * @param plotYOrig координата y начала графика на холсте
+	 * @param plotHeight высота графика на холсте
+	 */
+	void drawData(Graphics g, int plotXOrig, int plotWidth, int plotYOrig, int plotHeight) {
+		for(Series s : series) {
+			if(s.decimator == null) {
+				s.decimator = new PlotDecimator(s.statistics.x, s.statistics.y, s.statistics.from, s.statistics.to,
+						plotXOrig, plotWidth, min_t, max_t,
+						plotYOrig, plotHeight, min_volume, max_volume);
+			}
+			g.setColor(s.color);
+			s.decimator.draw(g);
+		}
+	}
+
+	/**
+	 * Таблица Tg по сериям. Строки обновляются после каждой подгонки
+	 */
+	class Table extends AbstractTableModel {
+		private static final long serialVersionUID = 1L;
+		final String[] columns = {"Series", "Tg", "V(Tg)", "n1", "n2"};
+
+		@Override
+		public int getRowCount() {
+			return series == null ? 0 : series.length;
+		}
+
+		@Override
+		public int getColumnCount() {
+			return columns.length;
+		}
+
+		@Override
+		public String getColumnName(int column) {
+			return columns[column];
+		}
+
+		@Override
+		public Class<?> getColumnClass(int column) {
+			return column == 0 ? String.class : column <= 2 ? Double.class : Integer.class;
+		}
+
+		@Override
+		public Object getValueAt(int row, int column) {
+			Series s = series[row];
+			if(column == 0)
+				return s.file.getName();
+			if(s.fit == null)
+				return null;
+			switch(column) {
+			case 1: return s.fit.tg;
+			case 2: return s.fit.v;
+			case 3: return s.fit.n1;
+			default: return s.fit.n2;
+			}
+		}
+	}
+}
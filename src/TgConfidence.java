@@ -0,0 +1,200 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+/**
+ * <p>Доверительный интервал температуры стеклования</p>
+ * <p>Бутстреп: точки каждого участка подгонки выбираются случайно с возвращением, по выборке заново
+ * подгоняются прямые и вычисляется Tg. Границы интервала - квантили полученного распределения Tg.
+ * Повторные выборки распределяются между ядрами. У каждой выборки свой поток случайных чисел
+ * {@link SplittableRandom}, отделенный от начального значения в порядке номеров выборок, поэтому результат
+ * зависит только от начального значения и количества выборок, а не от количества ядер. Суммы накапливаются
+ * в локальных переменных без создания объектов.
+ * Вычисление можно прервать флагом отмены.</p>
+ * <p>Складной нож (jackknife): Tg вычисляется с исключением каждой точки участков по очереди.
+ * Исключение точки - вычитание ее вклада из сумм, поэтому метод требует одного прохода по участкам.</p>
+ * <p>Если точкам заданы веса ({@link FitStatistics#w}), оба метода подгоняют прямые с этими весами.</p>
+ *
+ * @see TgFit
+ */
+class TgConfidence {
+
+	static final int DEFAULT_REPLICATES = 200;
+	static final double DEFAULT_LEVEL = 0.95;
+	static final long DEFAULT_SEED = 0x5DEECE66DL;
+
+	double[] refX; // границы участков, для которых вычислен интервал
+	double tg; // температура стеклования по всем точкам
+	double lo, hi; // границы доверительного интервала
+	double level; // доверительная вероятность
+
+	TgConfidence(double[] refX, double tg, double lo, double hi, double level) {
+		this.refX = refX.clone();
+		this.tg = tg;
+		this.lo = lo;
+		this.hi = hi;
+		this.level = level;
+	}
+
+	/**
+	 * Вычисляет доверительный интервал Tg бутстрепом
+	 *
+	 * @param statistics накопленные статистики данных
+	 * @param refX положения четырех граничных линий
+	 * @param replicates количество повторных выборок
+	 * @param level доверительная вероятность
+	 * @param seed начальное значение генератора случайных чисел
+	 * @param cancelled флаг отмены вычисления
+	 * @return доверительный интервал или null, если вычисление отменено
+	 */
+	static TgConfidence bootstrap(FitStatistics statistics, double[] refX, int replicates, double level,
+			long seed, AtomicBoolean cancelled) {
+		DoubleColumn x = statistics.x, y = statistics.y, weights = statistics.w;
+		int lo1 = statistics.firstAbove(refX[0]), hi1 = Math.max(lo1, statistics.firstNotBelow(refX[1]));
+		int lo2 = statistics.firstAbove(refX[2]), hi2 = Math.max(lo2, statistics.firstNotBelow(refX[3]));
+		TgFit fit = TgFit.of(statistics, refX);
+		if(hi1 - lo1 < 2 || hi2 - lo2 < 2)
+			return new TgConfidence(refX, fit.tg, Double.NaN, Double.NaN, level);
+
+		// Независимые потоки случайных чисел для каждой повторной выборки и части выборок для ядер
+		SplittableRandom root = new SplittableRandom(seed);
+		SplittableRandom[] randoms = new SplittableRandom[replicates];
+		for(int r=0; r<replicates; r++) {
+			randoms[r] = root.split();
+		}
+		int parts = Math.max(1, Math.min(replicates, Runtime.getRuntime().availableProcessors()*2));
+
+		double[] tgs = new double[replicates];
+		IntStream.range(0, parts).parallel().forEach(p -> {
+			int from = (int)((long)replicates*p/parts);
+			int to = (int)((long)replicates*(p+1)/parts);
+			for(int r=from; r<to && !cancelled.get(); r++) {
+				SplittableRandom random = randoms[r];
+				double a1 = 0, b1 = 0, a2 = 0, b2 = 0;
+				for(int w=0; w<2; w++) {
+					int lo = w == 0 ? lo1 : lo2;
+					int n = (w == 0 ? hi1 : hi2) - lo;
+					double sw = 0, sx = 0, sy = 0, sxy = 0, sx2 = 0;
+					for(int k=0; k<n; k++) {
+						int i = lo + random.nextInt(n);
+						double xi = x.get(i), yi = y.get(i);
+						double wi = weights == null ? 1 : weights.get(i);
+						sw += wi;
+						sx += wi*xi;
+						sy += wi*yi;
+						sxy += wi*xi*yi;
+						sx2 += wi*xi*xi;
+					}
+					double a = (sw*sxy-sx*sy)/(sw*sx2-sx*sx);
+					double b = (sy-a*sx)/sw;
+					if(w == 0) { a1 = a; b1 = b; } else { a2 = a; b2 = b; }
+				}
+				tgs[r] = (b2-b1)/(a1-a2);
+			}
+		});
+		if(cancelled.get())
+			return null;
+
+		// Квантили распределения Tg
+		Arrays.sort(tgs);
+		int valid = replicates;
+		while(valid > 0 && Double.isNaN(tgs[valid-1]))
+			valid--;
+		if(valid == 0)
+			return new TgConfidence(refX, fit.tg, Double.NaN, Double.NaN, level);
+		double alpha = (1 - level)/2;
+		return new TgConfidence(refX, fit.tg, quantile(tgs, valid, alpha), quantile(tgs, valid, 1 - alpha), level);
+	}
+
+	/**
+	 * Вычисляет доверительный интервал Tg методом складного ножа (нормальное приближение)
+	 *
+	 * @param statistics накопленные статистики данных
+	 * @param refX положения четырех граничных линий
+	 * @param level доверительная вероятность
+	 * @return доверительный интервал
+	 */
+	static TgConfidence jackknife(FitStatistics statistics, double[] refX, double level) {
+		DoubleColumn x = statistics.x, y = statistics.y, weights = statistics.w;
+		int[] lo = {statistics.firstAbove(refX[0]), statistics.firstAbove(refX[2])};
+		int[] hi = {Math.max(lo[0], statistics.firstNotBelow(refX[1])), Math.max(lo[1], statistics.firstNotBelow(refX[3]))};
+		TgFit fit = TgFit.of(statistics, refX);
+
+		// Суммы по участкам
+		double[][] sums = new double[2][];
+		double[] total = {statistics.weight(lo[0], hi[0]), statistics.weight(lo[1], hi[1])}; // суммы весов
+		for(int w=0; w<2; w++) {
+			sums[w] = new double[] {
+				statistics.sx.get(hi[w]) - statistics.sx.get(lo[w]),
+				statistics.sy.get(hi[w]) - statistics.sy.get(lo[w]),
+				statistics.sxy.get(hi[w]) - statistics.sxy.get(lo[w]),
+				statistics.sx2.get(hi[w]) - statistics.sx2.get(lo[w])
+			};
+		}
+
+		// Исключить каждую точку по очереди: среднее и сумма квадратов отклонений (метод Уэлфорда)
+		long count = 0;
+		double mean = 0, m2 = 0;
+		for(int w=0; w<2; w++) {
+			double[] own = sums[w], other = sums[1-w];
+			double on = total[1-w];
+			double oa = (on*other[2]-other[0]*other[1])/(on*other[3]-other[0]*other[0]);
+			double ob = (other[1]-oa*other[0])/on;
+			for(int i=lo[w]; i<hi[w]; i++) {
+				double xi = x.get(i), yi = y.get(i);
+				double wi = weights == null ? 1 : weights.get(i);
+				double n = total[w] - wi;
+				double sx = own[0]-wi*xi, sy = own[1]-wi*yi, sxy = own[2]-wi*xi*yi, sx2 = own[3]-wi*xi*xi;
+				double a = (n*sxy-sx*sy)/(n*sx2-sx*sx);
+				double b = (sy-a*sx)/n;
+				double t = w == 0 ? (ob-b)/(a-oa) : (b-ob)/(oa-a);
+				if(Double.isNaN(t))
+					continue;
+				count++;
+				double delta = t - mean;
+				mean += delta/count;
+				m2 += delta*(t - mean);
+			}
+		}
+		if(count < 2)
+			return new TgConfidence(refX, fit.tg, Double.NaN, Double.NaN, level);
+
+		double se = Math.sqrt((count - 1.0)/count*m2);
+		double z = normalQuantile(1 - (1 - level)/2);
+		return new TgConfidence(refX, fit.tg, fit.tg - z*se, fit.tg + z*se, level);
+	}
+
+	private static double quantile(double[] sorted, int n, double p) {
+		double pos = p*(n - 1);
+		int i = (int)Math.floor(pos);
+		if(i >= n - 1)
+			return sorted[n-1];
+		return sorted[i] + (pos - i)*(sorted[i+1] - sorted[i]);
+	}
+
+	/**
+	 * Квантиль стандартного нормального распределения (приближение Акклама)
+	 */
+	static double normalQuantile(double p) {
+		double[] a = {-3.969683028665376e+01, 2.209460984245205e+02, -2.759285104469687e+02,
+				1.383577518672690e+02, -3.066479806614716e+01, 2.506628277459239e+00};
+		double[] b = {-5.447609879822406e+01, 1.615858368580409e+02, -1.556989798598866e+02,
+				6.680131188771972e+01, -1.328068155288572e+01};
+		double[] c = {-7.784894002430293e-03, -3.223964580411365e-01, -2.400758277161838e+00,
+				-2.549732539343734e+00, 4.374664141464968e+00, 2.938163982698783e+00};
+		double[] d = {7.784695709041462e-03, 3.224671290700398e-01, 2.445134137142996e+00,
+				3.754408661907416e+00};
+		double q, r;
+		if(p < 0.02425) {
+			q = Math.sqrt(-2*Math.log(p));
+			return (((((c[0]*q+c[1])*q+c[2])*q+c[3])*q+c[4])*q+c[5])/((((d[0]*q+d[1])*q+d[2])*q+d[3])*q+1);
+		} else if(p > 1 - 0.02425) {
+			q = Math.sqrt(-2*Math.log(1-p));
+			return -(((((c[0]*q+c[1])*q+c[2])*q+c[3])*q+c[4])*q+c[5])/((((d[0]*q+d[1])*q+d[2])*q+d[3])*q+1);
+		}
+		q = p - 0.5;
+		r = q*q;
+		return (((((a[0]*r+a[1])*r+a[2])*r+a[3])*r+a[4])*r+a[5])*q/(((((b[0]*r+b[1])*r+b[2])*r+b[3])*r+b[4])*r+1);
+	}
+}
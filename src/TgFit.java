@@ -0,0 +1,62 @@
+/**
+ * <p>Результат определения температуры стеклования по двум прямым</p>
+ * <p>Прямые <code>y = A*x + B</code> подгоняются к двум участкам данных. Точка пересечения
+ * прямых дает температуру стеклования Tg и объем V при этой температуре.</p>
+ * <p>Для плавных моделей перехода ({@link TransitionFit}) прямые - асимптоты подогнанной кривой,
+ * дополнительно известна ширина перехода.</p>
+ *
+ * @see Approximizer#paintComponent
+ */
+class TgFit {
+
+	double[] ab1, ab2; // параметры A и B первой и второй прямой
+	int n1, n2; // количество точек на участках подгонки
+	double tg, v; // температура стеклования и объем в точке пересечения прямых
+	double width; // ширина перехода плавной модели (0 - излом двух прямых)
+
+	/**
+	 * @param ab1 параметры первой прямой
+	 * @param ab2 параметры второй прямой
+	 * @param n1 количество точек на первом участке
+	 * @param n2 количество точек на втором участке
+	 */
+	TgFit(double[] ab1, double[] ab2, int n1, int n2) {
+		this.ab1 = ab1;
+		this.ab2 = ab2;
+		this.n1 = n1;
+		this.n2 = n2;
+		tg = (ab2[1]-ab1[1])/(ab1[0]-ab2[0]);
+		v = (ab1[0]*tg+ab1[1]);
+	}
+
+	/**
+	 * Подгоняет прямые к участкам, заданным граничными линиями
+	 *
+	 * @param statistics накопленные статистики данных
+	 * @param refX положения четырех граничных линий
+	 * @return результат подгонки
+	 */
+	static TgFit of(FitStatistics statistics, double[] refX) {
+		return new TgFit(
+				statistics.fit(refX[0], refX[1]),
+				statistics.fit(refX[2], refX[3]),
+				statistics.count(refX[0], refX[1]),
+				statistics.count(refX[2], refX[3]));
+	}
+
+	/**
+	 * Подгоняет прямые к участкам, заданным граничными линиями, выбранным способом
+	 *
+	 * @param statistics накопленные статистики данных
+	 * @param refX положения четырех граничных линий
+	 * @param fitter способ подгонки и его рабочие массивы
+	 * @return результат подгонки
+	 */
+	static TgFit of(FitStatistics statistics, double[] refX, RobustFit fitter) {
+		return new TgFit(
+				fitter.fit(statistics, refX[0], refX[1]),
+				fitter.fit(statistics, refX[2], refX[3]),
+				statistics.count(refX[0], refX[1]),
+				statistics.count(refX[2], refX[3]));
+	}
+}
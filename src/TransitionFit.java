@@ -0,0 +1,417 @@
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * <p>Подгонка плавной модели перехода ({@link TransitionModel}) ко всем точкам данных</p>
+ * <p>Пять параметров модели (Tg, V, M, D и логарифм ширины перехода W) находятся методом Левенберга-Марквардта,
+ * минимизирующим (взвешенную, если точкам заданы веса) сумму квадратов остатков. Температура и объем
+ * приводятся к интервалу [-1, 1], чтобы параметры были одного порядка. Строки якобиана не хранятся:
+ * за один проход по данным вычисляются остатки и сразу накапливаются матрица J^T*J и вектор J^T*r,
+ * поэтому память не зависит от количества точек. Рабочие массивы экземпляра создаются один раз,
+ * итерации не создают объектов.</p>
+ * <p>Чтобы не остановиться в локальном минимуме, подгонка запускается параллельно из нескольких начальных
+ * приближений: Tg в равномерно расположенных точках данных и в точке излома оптимальных двух прямых
+ * ({@link BreakpointSearch}), с несколькими начальными ширинами. Наклоны начальных приближений - прямые,
+ * подогнанные по обе стороны от Tg по префиксным суммам. Перебор выполняется на равномерной выборке
+ * не более <code>SAMPLE_SIZE</code> точек, а лучший результат уточняется по всем точкам.
+ * Экземпляр не потокобезопасен.</p>
+ *
+ * @see Approximizer#updateTransition
+ */
+class TransitionFit {
+
+	static final int PARAMETERS = 5; // Tg, V, M, D, ln W
+	static final int SAMPLE_SIZE = 1 << 14; // наибольшее количество точек выборки для перебора начальных приближений
+	static final int TG_STARTS = 8; // количество начальных Tg, равномерно расположенных по точкам
+	static final double[] WIDTH_STARTS = {0.03, 0.2}; // начальные ширины перехода (в долях полудиапазона температуры)
+	static final double MIN_WIDTH = 1e-6, MAX_WIDTH = 10; // пределы ширины перехода (в долях полудиапазона температуры)
+	static final int MAX_ITERATIONS = 100;
+	static final double TOLERANCE = 1e-4; // уменьшение суммы квадратов для остановки в единицах среднего квадрата остатка (изменение χ^2)
+	private static final double MIN_LAMBDA = 1e-12, MAX_LAMBDA = 1e12;
+
+	/**
+	 * Точки, к которым подгоняется модель: фрагменты столбцов и способ приведения к интервалу [-1, 1]
+	 */
+	static class Data {
+		DoubleBuffer[] x, y, w; // фрагменты (w - null, если веса не заданы)
+		int[] lo, hi; // диапазоны индексов точек во фрагментах
+		int n; // количество точек
+		double xc, xs, yc, ys; // центры и полуширины диапазонов температуры и объема
+	}
+
+	final TransitionModel model;
+
+	// Рабочие массивы: J^T*J (полная матрица 5x5), J^T*r, те же величины для пробного шага,
+	// матрица системы шага и ее разложение Холецкого, шаг и пробные параметры
+	private double[] jtj = new double[PARAMETERS*PARAMETERS], jtr = new double[PARAMETERS];
+	private double[] trialJtj = new double[PARAMETERS*PARAMETERS], trialJtr = new double[PARAMETERS];
+	private final double[] a = new double[PARAMETERS*PARAMETERS], rhs = new double[PARAMETERS];
+	private final double[] step = new double[PARAMETERS], trial = new double[PARAMETERS];
+	int iterations; // количество итераций последней подгонки
+
+	/**
+	 * @param model плавная модель перехода (не {@link TransitionModel#LINES})
+	 */
+	TransitionFit(TransitionModel model) {
+		if(model == TransitionModel.LINES)
+			throw new IllegalArgumentException("two lines are fitted by TgFit");
+		this.model = model;
+	}
+
+	/**
+	 * Подгоняет модель ко всем точкам данных
+	 *
+	 * @param statistics накопленные статистики данных (точки и префиксные суммы для начальных приближений)
+	 * @param model плавная модель перехода
+	 * @return асимптоты, Tg, V и ширина перехода (n1 и n2 - количества точек ниже и выше Tg)
+	 * или null, если точек недостаточно
+	 */
+	static TgFit fit(FitStatistics statistics, TransitionModel model) {
+		Instrumentation.FitEvent event = new Instrumentation.FitEvent();
+		event.begin();
+		DoubleColumn x = statistics.x;
+		int first = statistics.from, end = statistics.to;
+		while(end > first && Double.isNaN(x.get(end-1)))
+			end--;
+		int n = end - first;
+		if(n <= PARAMETERS || !(x.get(end-1) > x.get(first)))
+			return null;
+
+		// Все точки: фрагменты столбцов, пересекающиеся с [first, end)
+		Data full = columns(statistics, first, end);
+		double minX = x.get(first), maxX = x.get(end-1);
+		full.xc = (minX + maxX)/2;
+		full.xs = (maxX - minX)/2;
+
+		// Равномерная выборка точек (данные упорядочены по x, поэтому выборка покрывает весь диапазон)
+		int stride = Math.max(1, (n + SAMPLE_SIZE - 1) / SAMPLE_SIZE);
+		int m = (n + stride - 1) / stride;
+		double[] sx = new double[m], sy = new double[m], sw = statistics.w == null ? null : new double[m];
+		double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for(int i=0; i<m; i++) {
+			int j = first + i*stride;
+			sx[i] = x.get(j);
+			sy[i] = statistics.y.get(j);
+			if(sw != null)
+				sw[i] = statistics.w.get(j);
+			if(sy[i] < minY)
+				minY = sy[i];
+			if(sy[i] > maxY)
+				maxY = sy[i];
+		}
+		full.yc = Double.isFinite(minY + maxY) ? (minY + maxY)/2 : 0;
+		full.ys = maxY > minY && Double.isFinite(maxY - minY) ? (maxY - minY)/2 : 1;
+		Data sample = full;
+		if(stride > 1) {
+			sample = new Data();
+			sample.x = new DoubleBuffer[] {DoubleBuffer.wrap(sx)};
+			sample.y = new DoubleBuffer[] {DoubleBuffer.wrap(sy)};
+			sample.w = sw == null ? null : new DoubleBuffer[] {DoubleBuffer.wrap(sw)};
+			sample.lo = new int[] {0};
+			sample.hi = new int[] {m};
+			sample.n = m;
+			sample.xc = full.xc;
+			sample.xs = full.xs;
+			sample.yc = full.yc;
+			sample.ys = full.ys;
+		}
+
+		// Начальные Tg: равномерно по точкам и излом оптимальных двух прямых
+		List<Double> tgs = new ArrayList<>();
+		for(int i=0; i<TG_STARTS; i++) {
+			tgs.add(x.get(first + (int)((i + 0.5)*n/TG_STARTS)));
+		}
+		double[] split = BreakpointSearch.search(statistics, 0, 0);
+		if(split != null)
+			tgs.add(split[1]);
+		double[] total = statistics.fit(Math.nextDown(minX), Math.nextUp(maxX));
+		double[][] starts = new double[tgs.size()*WIDTH_STARTS.length][];
+		for(int i=0; i<tgs.size(); i++) {
+			double tg = tgs.get(i);
+			double[] ab1 = statistics.fit(Math.nextDown(minX), tg);
+			double[] ab2 = statistics.fit(tg, Math.nextUp(maxX));
+			if(!Double.isFinite(ab1[0]) || !Double.isFinite(ab1[1]))
+				ab1 = total;
+			if(!Double.isFinite(ab2[0]) || !Double.isFinite(ab2[1]))
+				ab2 = total;
+			double slope = full.ys/full.xs;
+			double a1 = ab1[0]/slope, a2 = ab2[0]/slope;
+			double v = ((ab1[0]*tg + ab1[1]) + (ab2[0]*tg + ab2[1]))/2;
+			for(int k=0; k<WIDTH_STARTS.length; k++) {
+				starts[i*WIDTH_STARTS.length + k] = new double[] {
+						(tg - full.xc)/full.xs, (v - full.yc)/full.ys, (a1 + a2)/2, (a2 - a1)/2, Math.log(WIDTH_STARTS[k])};
+			}
+		}
+
+		// Подгонка из всех начальных приближений на выборке. Предпочтительны решения с Tg внутри диапазона данных
+		final Data data = sample;
+		double[] best = IntStream.range(0, starts.length).parallel()
+				.mapToObj(s -> {
+					double[] p = starts[s].clone();
+					double sse = new TransitionFit(model).solve(data, p);
+					return new double[] {sse, p[0], p[1], p[2], p[3], p[4]};
+				})
+				.reduce((r1, r2) -> better(r2, r1) ? r2 : r1)
+				.orElse(null);
+		if(best == null || !Double.isFinite(best[0]))
+			return null;
+		double[] p = {best[1], best[2], best[3], best[4], best[5]};
+
+		// Уточнение по всем точкам
+		if(sample != full && !Double.isFinite(new TransitionFit(model).solve(full, p)))
+			return null;
+
+		double tg = full.xc + full.xs*p[0];
+		double v = full.yc + full.ys*p[1];
+		double a1 = (p[2] - p[3])*full.ys/full.xs;
+		double a2 = (p[2] + p[3])*full.ys/full.xs;
+		int n1 = Math.min(Math.max(0, statistics.firstNotBelow(tg) - first), n);
+		TgFit result = new TgFit(new double[] {a1, v - a1*tg}, new double[] {a2, v - a2*tg}, n1, n - n1);
+		result.width = full.xs*Math.exp(p[4]);
+
+		Instrumentation.fits.increment();
+		if(event.shouldCommit()) {
+			event.start = minX;
+			event.finish = maxX;
+			event.points = n;
+			event.estimator = model.label;
+			event.commit();
+		}
+		return result;
+	}
+
+	/**
+	 * Сравнивает результаты подгонки <code>{сумма квадратов, параметры...}</code>: решение с Tg внутри
+	 * диапазона данных лучше решения с Tg вне его, при равенстве лучше меньшая сумма квадратов
+	 */
+	private static boolean better(double[] r1, double[] r2) {
+		boolean inside1 = Math.abs(r1[1]) <= 1, inside2 = Math.abs(r2[1]) <= 1;
+		if(inside1 != inside2)
+			return inside1 && Double.isFinite(r1[0]);
+		return r1[0] < r2[0] || (Double.isNaN(r2[0]) && !Double.isNaN(r1[0]));
+	}
+
+	/**
+	 * Собирает фрагменты столбцов данных, пересекающиеся с диапазоном индексов
+	 */
+	private static Data columns(FitStatistics statistics, int first, int end) {
+		List<Integer> chunks = new ArrayList<>();
+		DoubleColumn x = statistics.x;
+		for(int k=0; k<x.chunkCount(); k++) {
+			int start = x.chunkStart(k);
+			if(start < end && start + x.chunk(k).limit() > first)
+				chunks.add(k);
+		}
+		Data data = new Data();
+		int parts = chunks.size();
+		data.x = new DoubleBuffer[parts];
+		data.y = new DoubleBuffer[parts];
+		data.w = statistics.w == null ? null : new DoubleBuffer[parts];
+		data.lo = new int[parts];
+		data.hi = new int[parts];
+		for(int i=0; i<parts; i++) {
+			int k = chunks.get(i);
+			int start = x.chunkStart(k);
+			data.x[i] = x.chunk(k);
+			data.y[i] = statistics.y.chunk(k);
+			if(data.w != null)
+				data.w[i] = statistics.w.chunk(k);
+			data.lo[i] = Math.max(first - start, 0);
+			data.hi[i] = Math.min(end - start, data.x[i].limit());
+			data.n += data.hi[i] - data.lo[i];
+		}
+		return data;
+	}
+
+	/**
+	 * Уточняет параметры модели методом Левенберга-Марквардта
+	 *
+	 * @param data точки
+	 * @param p начальные параметры в приведенных единицах; заменяются найденными
+	 * @return сумма квадратов остатков (в приведенных единицах)
+	 */
+	double solve(Data data, double[] p) {
+		// Ширина перехода не меньше среднего расстояния между точками: более узкий переход от излома не отличить
+		double minLog = Math.log(Math.max(MIN_WIDTH, 2.0/data.n)), maxLog = Math.log(MAX_WIDTH);
+		p[4] = Math.max(minLog, Math.min(maxLog, p[4]));
+		double sse = evaluate(data, p, jtj, jtr);
+		double lambda = 1e-3;
+		for(iterations=0; iterations<MAX_ITERATIONS && sse > 0 && Double.isFinite(sse); iterations++) {
+
+			// Если ширина на границе и шаг выводит ее за границу, шаг ищется при неизменной ширине
+			boolean solved = step(lambda, false);
+			if(solved && ((p[4] <= minLog && step[4] < 0) || (p[4] >= maxLog && step[4] > 0)))
+				solved = step(lambda, true);
+			if(!solved) {
+				lambda *= 10;
+				if(lambda > MAX_LAMBDA)
+					break;
+				continue;
+			}
+			for(int i=0; i<PARAMETERS; i++) {
+				trial[i] = p[i] + step[i];
+			}
+			trial[4] = Math.max(minLog, Math.min(maxLog, trial[4]));
+
+			// Шаг принимается, если уменьшает сумму квадратов; J^T*J и J^T*r в новой точке уже вычислены
+			double trialSse = evaluate(data, trial, trialJtj, trialJtr);
+			if(trialSse < sse) {
+				double decrease = sse - trialSse;
+				System.arraycopy(trial, 0, p, 0, PARAMETERS);
+				double[] swap = jtj;
+				jtj = trialJtj;
+				trialJtj = swap;
+				swap = jtr;
+				jtr = trialJtr;
+				trialJtr = swap;
+				sse = trialSse;
+				lambda = Math.max(lambda/10, MIN_LAMBDA);
+				if(decrease <= TOLERANCE*sse/data.n)
+					break;
+			} else {
+				lambda *= 10;
+				if(lambda > MAX_LAMBDA)
+					break;
+			}
+		}
+		return sse;
+	}
+
+	/**
+	 * Находит шаг метода из системы <code>(J^T*J + λ*diag(J^T*J))*step = J^T*r</code>
+	 *
+	 * @param lambda параметр затухания
+	 * @param fixedWidth не менять ширину перехода
+	 * @return false, если система вырождена
+	 */
+	private boolean step(double lambda, boolean fixedWidth) {
+		double floor = 0;
+		for(int i=0; i<PARAMETERS; i++) {
+			floor = Math.max(floor, jtj[i*PARAMETERS + i]);
+		}
+		floor *= 1e-12;
+		System.arraycopy(jtj, 0, a, 0, a.length);
+		System.arraycopy(jtr, 0, rhs, 0, rhs.length);
+		for(int i=0; i<PARAMETERS; i++) {
+			a[i*PARAMETERS + i] += lambda*Math.max(jtj[i*PARAMETERS + i], floor);
+		}
+		if(fixedWidth) {
+			for(int i=0; i<PARAMETERS; i++) {
+				a[i*PARAMETERS + 4] = a[4*PARAMETERS + i] = 0;
+			}
+			a[4*PARAMETERS + 4] = 1;
+			rhs[4] = 0;
+		}
+		return solveCholesky();
+	}
+
+	/**
+	 * Вычисляет сумму квадратов остатков, J^T*J и J^T*r одним проходом по точкам
+	 * (r - остатки, J - производные модели по параметрам). Точки с нечисловыми координатами пропускаются
+	 *
+	 * @param data точки
+	 * @param p параметры в приведенных единицах
+	 * @param jtj массив для матрицы J^T*J
+	 * @param jtr массив для вектора J^T*r
+	 * @return сумма квадратов остатков
+	 */
+	private double evaluate(Data data, double[] p, double[] jtj, double[] jtr) {
+		double tg = p[0], v = p[1], m = p[2], d = p[3], w = Math.exp(p[4]);
+		double w2 = w*w, iw = 1/w;
+		double ixs = 1/data.xs, iys = 1/data.ys, xc = data.xc, yc = data.yc;
+		boolean hyperbola = model == TransitionModel.HYPERBOLA;
+		double sse = 0;
+		double h00 = 0, h01 = 0, h02 = 0, h03 = 0, h04 = 0, h11 = 0, h12 = 0, h13 = 0, h14 = 0;
+		double h22 = 0, h23 = 0, h24 = 0, h33 = 0, h34 = 0, h44 = 0;
+		double g0 = 0, g1 = 0, g2 = 0, g3 = 0, g4 = 0;
+		for(int k=0; k<data.x.length; k++) {
+			DoubleBuffer xb = data.x[k], yb = data.y[k], wb = data.w == null ? null : data.w[k];
+			for(int j=data.lo[k], end=data.hi[k]; j<end; j++) {
+				double u = (xb.get(j) - xc)*ixs - tg;
+				double y = (yb.get(j) - yc)*iys;
+				if(!Double.isFinite(u) || !Double.isFinite(y))
+					continue;
+				double weight = wb == null ? 1 : wb.get(j);
+
+				// Модель и производные по Tg, V, M, D, ln W
+				double shape, dTg, dW;
+				if(hyperbola) {
+					double s = Math.sqrt(u*u + w2);
+					shape = s;
+					dTg = s > 0 ? -(m + d*u/s) : -m;
+					dW = s > 0 ? d*w2/s : 0;
+				} else {
+					double t = 1 - 2/(Math.exp(2*u*iw) + 1); // tanh через экспоненту (Math.exp быстрее Math.tanh)
+					double sech2 = 1 - t*t;
+					shape = u*t;
+					dTg = -(m + d*(t + u*iw*sech2));
+					dW = -d*u*u*iw*sech2;
+				}
+				double r = y - (v + m*u + d*shape);
+				double wr = weight*r;
+				sse += wr*r;
+
+				double j0 = dTg, j2 = u, j3 = shape, j4 = dW; // производная по V равна 1
+				double wj0 = weight*j0, wj2 = weight*j2, wj3 = weight*j3, wj4 = weight*j4;
+				h00 += wj0*j0; h01 += wj0; h02 += wj0*j2; h03 += wj0*j3; h04 += wj0*j4;
+				h11 += weight; h12 += wj2; h13 += wj3; h14 += wj4;
+				h22 += wj2*j2; h23 += wj2*j3; h24 += wj2*j4;
+				h33 += wj3*j3; h34 += wj3*j4;
+				h44 += wj4*j4;
+				g0 += wr*j0; g1 += wr; g2 += wr*j2; g3 += wr*j3; g4 += wr*j4;
+			}
+		}
+		jtj[0] = h00; jtj[1] = jtj[5] = h01; jtj[2] = jtj[10] = h02; jtj[3] = jtj[15] = h03; jtj[4] = jtj[20] = h04;
+		jtj[6] = h11; jtj[7] = jtj[11] = h12; jtj[8] = jtj[16] = h13; jtj[9] = jtj[21] = h14;
+		jtj[12] = h22; jtj[13] = jtj[17] = h23; jtj[14] = jtj[22] = h24;
+		jtj[18] = h33; jtj[19] = jtj[23] = h34;
+		jtj[24] = h44;
+		jtr[0] = g0;
+		jtr[1] = g1;
+		jtr[2] = g2;
+		jtr[3] = g3;
+		jtr[4] = g4;
+		return sse;
+	}
+
+	/**
+	 * Решает систему <code>a*step = rhs</code> разложением Холецкого матрицы <code>a</code> (на месте)
+	 *
+	 * @return false, если матрица не положительно определена
+	 */
+	private boolean solveCholesky() {
+		int n = PARAMETERS;
+		for(int i=0; i<n; i++) {
+			for(int j=0; j<=i; j++) {
+				double s = a[i*n + j];
+				for(int k=0; k<j; k++) {
+					s -= a[i*n + k]*a[j*n + k];
+				}
+				if(i == j) {
+					if(!(s > 0))
+						return false;
+					a[i*n + i] = Math.sqrt(s);
+				} else {
+					a[i*n + j] = s/a[j*n + j];
+				}
+			}
+		}
+		for(int i=0; i<n; i++) {
+			double s = rhs[i];
+			for(int k=0; k<i; k++) {
+				s -= a[i*n + k]*step[k];
+			}
+			step[i] = s/a[i*n + i];
+		}
+		for(int i=n-1; i>=0; i--) {
+			double s = step[i];
+			for(int k=i+1; k<n; k++) {
+				s -= a[k*n + i]*step[k];
+			}
+			step[i] = s/a[i*n + i];
+		}
+		return true;
+	}
+}
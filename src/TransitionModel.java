@@ -0,0 +1,79 @@
+import java.util.Locale;
+
+/**
+ * <p>Модель зависимости объема от температуры, по которой определяется температура стеклования</p>
+ * <p>Плавные модели описывают переход одной кривой на всем диапазоне данных:</p>
+ * <p><code>V(T) = V + M*u + D*g(u, W)</code>, где <code>u = T - Tg</code>, <code>M = (A1+A2)/2</code>,
+ * <code>D = (A2-A1)/2</code>.</p>
+ * <p>Функция <code>g</code> при больших <code>|u|</code> стремится к <code>|u|</code>, поэтому асимптоты кривой -
+ * прямые с наклонами A1 (ниже Tg) и A2 (выше Tg), пересекающиеся в точке (Tg, V). Tg и ширина перехода W -
+ * параметры модели, а не результат выбора участков подгонки.</p>
+ *
+ * @see TransitionFit
+ */
+enum TransitionModel {
+
+	LINES("Lines") { // две прямые, подгоняемые к участкам между граничными линиями (излом, g = |u|)
+		@Override
+		double shape(double u, double w) {
+			return Math.abs(u);
+		}
+	},
+	HYPERBOLA("Hyperbola") { // гипербола: g = sqrt(u^2 + W^2)
+		@Override
+		double shape(double u, double w) {
+			return Math.sqrt(u*u + w*w);
+		}
+	},
+	TANH("Tanh") { // сглаженное гиперболическим тангенсом переключение наклона: g = u*tanh(u/W)
+		@Override
+		double shape(double u, double w) {
+			return w > 0 ? u*Math.tanh(u/w) : Math.abs(u);
+		}
+	};
+
+	final String label; // название в интерфейсе и в результатах пакетного режима
+
+	TransitionModel(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @param u расстояние от Tg
+	 * @param w ширина перехода
+	 * @return функция перехода g(u, W)
+	 */
+	abstract double shape(double u, double w);
+
+	/**
+	 * Вычисляет значение модели по асимптотам и ширине перехода
+	 *
+	 * @param fit результат подгонки (асимптоты, Tg и ширина перехода)
+	 * @param x температура
+	 * @return объем
+	 */
+	double value(TgFit fit, double x) {
+		double u = x - fit.tg;
+		return fit.v + (fit.ab1[0] + fit.ab2[0])/2*u + (fit.ab2[0] - fit.ab1[0])/2*shape(u, fit.width);
+	}
+
+	/**
+	 * Находит модель по значению параметра командной строки
+	 *
+	 * @param value название: <code>lines</code>, <code>hyperbola</code> или <code>tanh</code>
+	 * @return модель
+	 * @throws IllegalArgumentException если название неизвестно
+	 */
+	static TransitionModel parse(String value) {
+		for(TransitionModel model : values()) {
+			if(model.label.toLowerCase(Locale.ENGLISH).equals(value.toLowerCase(Locale.ENGLISH)))
+				return model;
+		}
+		throw new IllegalArgumentException("unknown model " + value);
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+}